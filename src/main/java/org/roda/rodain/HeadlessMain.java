@@ -0,0 +1,104 @@
+package org.roda.rodain;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.creation.BatchSipBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates SIPs from a plan file without starting the graphical interface. See
+ * {@link BatchSipBuilder} for the format of the plan file.
+ * <p>
+ * Usage: <code>java -cp roda-in.jar org.roda.rodain.HeadlessMain plan.properties</code>
+ * </p>
+ * <p>
+ * The exit code is 0 when all the SIPs are created, otherwise it's one of the
+ * EXIT_* codes below.
+ * </p>
+ */
+public class HeadlessMain {
+  private static final Logger LOGGER = LoggerFactory.getLogger(HeadlessMain.class.getName());
+
+  public static final int EXIT_OK = 0;
+  public static final int EXIT_INVALID_PLAN = 1;
+  public static final int EXIT_NO_SIPS = 2;
+  public static final int EXIT_EXPORT_ERRORS = 3;
+  public static final int EXIT_INTERRUPTED = 4;
+
+  public static void main(String[] args) {
+    System.exit(run(args));
+  }
+
+  /**
+   * Applies the rules of the plan file and exports the resulting SIPs.
+   *
+   * @param args
+   *          The command line arguments, the path of the plan file
+   * @return The exit code
+   */
+  public static int run(String[] args) {
+    if (args.length != 1) {
+      LOGGER.error("Usage: {} <plan.properties>", HeadlessMain.class.getName());
+      return EXIT_INVALID_PLAN;
+    }
+    Path planPath = Paths.get(args[0]);
+    if (!Files.isRegularFile(planPath)) {
+      LOGGER.error("The plan file {} doesn't exist", planPath);
+      return EXIT_INVALID_PLAN;
+    }
+
+    ConfigurationManager.initialize();
+
+    BatchSipBuilder builder;
+    try {
+      builder = new BatchSipBuilder(planPath);
+    } catch (ConfigurationException e) {
+      LOGGER.error("Invalid plan file {}: {}", planPath, e.getMessage());
+      return EXIT_INVALID_PLAN;
+    }
+    return run(builder);
+  }
+
+  /**
+   * Applies the rules of a plan and exports the resulting SIPs.
+   *
+   * @param builder
+   *          The builder of the plan
+   * @return The exit code
+   */
+  static int run(BatchSipBuilder builder) {
+    try {
+      int created = builder.applyRules();
+      if (created == 0 && (!builder.isExportItems() || builder.getSips().isEmpty())) {
+        LOGGER.error("The plan didn't create any SIPs");
+        return EXIT_NO_SIPS;
+      }
+
+      int errors = builder.export();
+      if (errors > 0) {
+        LOGGER.error("{} SIPs couldn't be created", errors);
+        return EXIT_EXPORT_ERRORS;
+      }
+      return EXIT_OK;
+    } catch (ConfigurationException e) {
+      LOGGER.error("Invalid plan: {}", e.getMessage());
+      return EXIT_INVALID_PLAN;
+    } catch (IOException e) {
+      LOGGER.error("Error reading the plan's files", e);
+      return EXIT_INVALID_PLAN;
+    } catch (InterruptedException e) {
+      LOGGER.error("SIP creation interrupted", e);
+      Thread.currentThread().interrupt();
+      return EXIT_INTERRUPTED;
+    } catch (RuntimeException e) {
+      LOGGER.error("Error creating SIPs", e);
+      return EXIT_EXPORT_ERRORS;
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.roda.rodain.core;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -18,9 +19,12 @@ import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.MissingResourceException;
+import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.filechooser.FileSystemView;
 
@@ -30,6 +34,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.roda.rodain.core.rules.filters.IgnoredFilter;
+import org.roda.rodain.core.utils.FileContentCache;
 import org.roda.rodain.core.utils.FolderBasedUTF8Control;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +65,12 @@ public class ConfigurationManager {
 
   private static Set<Path> allSchemas;
 
+  // templates and schemas are read for every SIP, so their content is kept in
+  // memory (see FileContentCache for how changes are detected)
+  private static final FileContentCache configFiles = new FileContentCache("config-files");
+  private static final Map<String, Optional<URL>> internalResources = new ConcurrentHashMap<>();
+  private static final Map<String, String> internalTemplates = new ConcurrentHashMap<>();
+
   private ConfigurationManager() {
   }
 
@@ -371,15 +382,38 @@ public class ConfigurationManager {
    * @return The content of the schema file associated to the template
    */
   public static InputStream getSchemaFile(String templateType) {
+    byte[] content = getSchemaContent(templateType);
+    return content == null ? null : new ByteArrayInputStream(content);
+  }
+
+  /**
+   * @param templateType
+   *          The name of the template
+   * @return The path of the schema file associated to the template in the
+   *         RODA-in folder, null if the template has none
+   */
+  public static Path getSchemaFilePath(String templateType) {
     String completeKey = Constants.CONF_K_PREFIX_METADATA + templateType + Constants.CONF_K_SUFFIX_SCHEMA;
     if (externalConfig.containsKey(completeKey)) {
-      Path filePath = schemasPath.resolve(externalConfig.getString(completeKey));
-      if (Files.exists(filePath)) {
-        try {
-          return Files.newInputStream(filePath);
-        } catch (IOException e) {
-          LOGGER.error("Unable to get schema file '{}'", filePath, e);
-        }
+      return schemasPath.resolve(externalConfig.getString(completeKey));
+    }
+    return null;
+  }
+
+  /**
+   * @param templateType
+   *          The name of the template
+   * @return The content of the schema file associated to the template, null if
+   *         there's none. The same array is returned while the file doesn't
+   *         change, so it must not be modified.
+   */
+  public static byte[] getSchemaContent(String templateType) {
+    Path filePath = getSchemaFilePath(templateType);
+    if (filePath != null) {
+      try {
+        return configFiles.getContent(filePath);
+      } catch (IOException e) {
+        LOGGER.error("Unable to get schema file '{}'", filePath, e);
       }
     }
     return null;
@@ -394,12 +428,12 @@ public class ConfigurationManager {
     String completeKey = Constants.CONF_K_PREFIX_METADATA + templateType + Constants.CONF_K_SUFFIX_SCHEMA;
     if (externalConfig.containsKey(completeKey)) {
       Path filePath = schemasPath.resolve(externalConfig.getString(completeKey));
-      if (Files.exists(filePath)) {
+      if (configFiles.exists(filePath)) {
         return filePath;
       }
     }
     String fileName = internalConfig.getString(completeKey);
-    URL temp = ClassLoader.getSystemResource(Constants.FOLDER_TEMPLATES + Constants.MISC_FWD_SLASH + fileName);
+    URL temp = getInternalTemplateResource(fileName);
     if (temp != null)
       return Paths.get(temp.getPath());
     else
@@ -410,23 +444,37 @@ public class ConfigurationManager {
     try {
       if (externalConfig.containsKey(completeKey)) {
         Path filePath = templatesPath.resolve(externalConfig.getString(completeKey));
-        if (Files.exists(filePath)) {
-          return ControllerUtils.readFile(filePath);
+        byte[] content = configFiles.getContent(filePath);
+        if (content != null) {
+          return ControllerUtils.decodeFile(content);
         }
       }
       String fileName = internalConfig.getString(completeKey);
-      URL temp = ClassLoader.getSystemResource(Constants.FOLDER_TEMPLATES + Constants.MISC_FWD_SLASH + fileName);
+      URL temp = getInternalTemplateResource(fileName);
       if (temp == null) {
         return "";
       }
-      InputStream contentStream = temp.openStream();
-      return ControllerUtils.convertStreamToString(contentStream);
+      // the resources in the classpath don't change while the application runs
+      String content = internalTemplates.get(fileName);
+      if (content == null) {
+        try (InputStream contentStream = temp.openStream()) {
+          content = ControllerUtils.convertStreamToString(contentStream);
+        }
+        internalTemplates.put(fileName, content);
+      }
+      return content;
     } catch (IOException e) {
       LOGGER.error("Error reading metadata file", e);
     }
     return "";
   }
 
+  private static URL getInternalTemplateResource(String fileName) {
+    String resourceName = Constants.FOLDER_TEMPLATES + Constants.MISC_FWD_SLASH + fileName;
+    return internalResources
+      .computeIfAbsent(resourceName, name -> Optional.ofNullable(ClassLoader.getSystemResource(name))).orElse(null);
+  }
+
   /**
    * @param key
    *          The name of the property (style)
@@ -488,6 +536,26 @@ public class ConfigurationManager {
     return getConfigAsBoolean(key, false);
   }
 
+  /**
+   * @param key
+   *          The name of the property (config)
+   * @param defaultValue
+   *          The value to use when the property is missing or isn't a number
+   * @return The value of the property (config)
+   */
+  public static int getConfigAsInt(String key, int defaultValue) {
+    String value = getConfig(key);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Config '{}' is not a valid number: {}", key, value);
+      return defaultValue;
+    }
+  }
+
   /**
    * @param key
    *          The name of the property (config)
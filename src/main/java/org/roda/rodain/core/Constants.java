@@ -33,6 +33,7 @@ public final class Constants {
   public static final String RODAIN_CONFIG_FOLDER = "roda-in";
   public static final String RODAIN_SERIALIZE_FILE_PREFIX = "serial_";
   public static final String RODAIN_SERIALIZE_FILE_METS_HEADER_SUFFIX = "_metsheader.bin";
+  public static final String RODAIN_TEMP_DIR_PREFIX = "roda-in-";
   public static final String RODAIN_GITHUB_LATEST_VERSION_LINK = "https://github.com/keeps/roda-in/releases";
   public static final String RODAIN_GITHUB_LATEST_VERSION_API_LINK = "https://api.github.com/repos/keeps/roda-in/releases/latest";
   public static final String RODAIN_GUI_TITLE = "RODA-In";
@@ -118,6 +119,10 @@ public final class Constants {
   public static final String CONF_K_EXPORT_LAST_SIP_OUTPUT_FOLDER = "export.lastSipOutputFolder";
   public static final String CONF_K_ID_PREFIX = "idPrefix";
   public static final String CONF_K_SIP_CREATION_ALWAYS_JUMP_FOLDER = "sipPreviewCreator.createSip.alwaysJumpFolder";
+  public static final String CONF_K_WALK_FILE_TREE_THREADS = "walkFileTree.threads";
+  public static final String CONF_K_SIP_CREATION_THREADS = "sipCreation.threads";
+  public static final String CONF_K_CHECKSUM_CACHE_MAX_ENTRIES = "checksumCache.maxEntries";
+  public static final String CONF_K_DIRECTORY_SIZE_INDEX_MAX_ENTRIES = "directorySizeIndex.maxEntries";
   // METS Header fields
   public static final String CONF_K_METS_HEADER_FIELDS_PREFIX = "metsheader.";
   public static final String CONF_K_METS_HEADER_FIELDS_SUFFIX = ".fields";
@@ -162,6 +167,8 @@ public final class Constants {
   // configs files
   public static final String CONFIG_FILE = "config.properties";
   public static final String APP_CONFIG_FILE = ".app.properties";
+  public static final String CHECKSUM_CACHE_FILE = ".checksums";
+  public static final String DIRECTORY_SIZE_INDEX_FILE = ".dirsizes";
   // configs values
   public static final String CONF_V_TRUE = MISC_TRUE;
   public static final String CONF_V_FALSE = MISC_FALSE;
@@ -6,8 +6,10 @@ import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -82,6 +84,14 @@ public class Controller {
 
   public static ClassificationSchema loadClassificationSchemaFile(String filePath) throws IOException {
     ConfigurationManager.setAppConfig(Constants.CONF_K_APP_LAST_CLASS_SCHEME, filePath, true);
+    return readClassificationSchemaFile(filePath);
+  }
+
+  /**
+   * Reads a classification schema file without remembering it as the last
+   * loaded schema.
+   */
+  public static ClassificationSchema readClassificationSchemaFile(String filePath) throws IOException {
     try (InputStream input = new FileInputStream(filePath)) {
 
       // create ObjectMapper instance
@@ -92,14 +102,29 @@ public class Controller {
     }
   }
 
-  public static boolean validateSchema(Path fileToValidate, InputStream schemaInputStream)
+  public static boolean validateSchema(Path fileToValidate, DescriptiveMetadata metadata)
     throws SAXException, IOException {
     String fileContent = ControllerUtils.readFile(fileToValidate);
-    return validateSchema(fileContent, schemaInputStream);
+    return validateSchema(fileContent, metadata);
   }
 
-  public static boolean validateSchema(String content, InputStream schemaInputStream) throws SAXException {
-    return ControllerUtils.validateSchema(content, schemaInputStream);
+  public static boolean validateSchema(String content, DescriptiveMetadata metadata) throws SAXException {
+    return ControllerUtils.validateSchema(content, metadata);
+  }
+
+  /**
+   * Validates several metadata documents in parallel against their schemas.
+   * The metadata without a schema isn't validated.
+   *
+   * @param metadata
+   *          The metadata to be validated
+   * @return The errors of the metadata that isn't valid
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting for the validations
+   */
+  public static Map<DescriptiveMetadata, Exception> validateSchemas(Collection<DescriptiveMetadata> metadata)
+    throws InterruptedException {
+    return ControllerUtils.validateSchemas(metadata);
   }
 
   public static String loadMetadataFile(Path path) throws IOException {
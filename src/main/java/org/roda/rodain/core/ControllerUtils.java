@@ -15,21 +15,19 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.UUID;
 
-import javax.xml.XMLConstants;
 import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
@@ -39,7 +37,7 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.roda.rodain.core.schema.ClassificationSchema;
 import org.roda.rodain.core.schema.DescriptiveMetadata;
-import org.roda.rodain.core.utils.ResourceResolver;
+import org.roda.rodain.core.utils.SchemaCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
@@ -70,7 +68,17 @@ public final class ControllerUtils {
    * @throws IOException
    */
   protected static String readFile(Path path) throws IOException {
-    byte[] encoded = Files.readAllBytes(path);
+    return decodeFile(Files.readAllBytes(path));
+  }
+
+  /**
+   * Decodes the content of a file read as bytes.
+   *
+   * @param encoded
+   *          The content of the file.
+   * @return A String with the content of the file
+   */
+  protected static String decodeFile(byte[] encoded) {
     String temp = new String(encoded, Charset.forName(Constants.RODAIN_DEFAULT_ENCODING));
     // Consume BOM if it exists
     temp = removeUTF8BOM(temp);
@@ -104,16 +112,16 @@ public final class ControllerUtils {
    * 
    * @param content
    *          The String content of the XML to be validated.
-   * @param schemaString
-   *          The String content of the schema used to validate.
+   * @param metadata
+   *          The metadata whose schema is used to validate.
    * @return True if the content can be validated using the schema, false
    *         otherwise.
    * @throws SAXException
    */
-  protected static boolean validateSchema(String content, InputStream schemaInputStream) throws SAXException {
+  protected static boolean validateSchema(String content, DescriptiveMetadata metadata) throws SAXException {
     boolean isValid = false;
     try {
-      isValid = validateSchemaWithoutCatch(content, schemaInputStream);
+      isValid = validateSchemaWithoutCatch(content, metadata);
     } catch (IOException e) {
       LOGGER.error("Can't access the schema file", e);
     }
@@ -121,21 +129,37 @@ public final class ControllerUtils {
     return isValid;
   }
 
-  private static boolean validateSchemaWithoutCatch(String content, InputStream schemaStream)
+  private static boolean validateSchemaWithoutCatch(String content, DescriptiveMetadata metadata)
     throws IOException, SAXException {
-    // build the schema
-    SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-    factory.setResourceResolver(new ResourceResolver());
-    StreamSource streamSource = new StreamSource(schemaStream);
-    Schema schema = factory.newSchema(streamSource);
-    Validator validator = schema.newValidator();
+    String schemaName = metadata.getSchemaName();
+    Path schemaPath = schemaName == null ? null : ConfigurationManager.getSchemaFilePath(schemaName);
+    byte[] schemaContent = schemaPath == null ? null : ConfigurationManager.getSchemaContent(schemaName);
+    if (schemaContent == null) {
+      throw new SAXException("There's no schema file for \"" + schemaName + "\"");
+    }
+    // the compiled schema is reused between validations
+    SchemaCache.validate(content, schemaPath, schemaContent);
+    return true;
+  }
 
-    // create a source from a string
-    Source source = new StreamSource(new StringReader(content));
+  protected static Map<DescriptiveMetadata, Exception> validateSchemas(Collection<DescriptiveMetadata> metadata)
+    throws InterruptedException {
+    Map<DescriptiveMetadata, String> contents = new IdentityHashMap<>();
+    for (DescriptiveMetadata dm : metadata) {
+      contents.put(dm, dm.getContentDecoded());
+    }
+    return SchemaCache.validateAll(contents, new SchemaCache.SchemaProvider<DescriptiveMetadata>() {
+      @Override
+      public Path getSchemaPath(DescriptiveMetadata dm) {
+        String schemaName = dm.getSchemaName();
+        return schemaName == null ? null : ConfigurationManager.getSchemaFilePath(schemaName);
+      }
 
-    // check input
-    validator.validate(source);
-    return true;
+      @Override
+      public byte[] getSchemaContent(DescriptiveMetadata dm) {
+        return ConfigurationManager.getSchemaContent(dm.getSchemaName());
+      }
+    });
   }
 
   /**
@@ -1,17 +1,19 @@
 package org.roda.rodain.core;
 
-import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
-import org.apache.commons.lang3.StringUtils;
 import org.roda.rodain.core.Constants.PathState;
+import org.roda.rodain.core.rules.filters.IgnoredFilter;
 import org.roda.rodain.ui.source.items.SourceTreeDirectory;
 import org.roda.rodain.ui.source.items.SourceTreeItem;
 import org.slf4j.Logger;
@@ -26,13 +28,18 @@ import org.slf4j.LoggerFactory;
  * state of a path can be changed and, with this class, this information is
  * always coherent, since all of them report the changes to it.
  * </p>
+ * <p>
+ * The states are kept in a tree with one node per path segment. Each node
+ * keeps the number of its direct children in each state, so verifying the
+ * state of a directory doesn't need to look at the rest of the collection.
+ * </p>
  *
  * @author Andre Pereira apereira@keep.pt
  * @since 12-11-2015.
  */
 public class PathCollection {
   private static final Logger LOGGER = LoggerFactory.getLogger(PathCollection.class.getName());
-  private static Map<Path, PathState> states = new ConcurrentHashMap<>();
+  private static Node root = new Node(null, null);
   private static Map<Path, SourceTreeItem> items = new HashMap<>();
 
   private PathCollection() {
@@ -44,9 +51,26 @@ public class PathCollection {
    * @param path
    *          The path to be added to the collection
    */
-  public static void simpleAddPath(Path path) {
-    if (!"".equals(path.toString()) && !states.containsKey(path)) {
-      states.put(path, PathState.NORMAL);
+  public static synchronized void simpleAddPath(Path path) {
+    if (!"".equals(path.toString())) {
+      Node node = getOrCreateNode(path);
+      if (node.state == null) {
+        node.setState(PathState.NORMAL);
+      }
+    }
+  }
+
+  /**
+   * Adds the paths that aren't in the collection yet and sets their state as
+   * NORMAL.
+   *
+   * @param paths
+   *          The paths to be added to the collection
+   * @see #simpleAddPath(Path)
+   */
+  public static synchronized void simpleAddPaths(Collection<Path> paths) {
+    for (Path path : paths) {
+      simpleAddPath(path);
     }
   }
 
@@ -69,35 +93,36 @@ public class PathCollection {
    * @param st
    *          The state of the item.
    */
-  public static void addPath(Path path, PathState st) {
-    if ("".equals(path)) {
+  public static synchronized void addPath(Path path, PathState st) {
+    if ("".equals(path.toString())) {
       return;
     }
+    Node node = getOrCreateNode(path);
     // ignoring or removing the ignore of an item
     if (st == PathState.IGNORED) {
-      applySameStateAllChildren(path, PathState.NORMAL, st);
+      applySameStateAllChildren(node, PathState.NORMAL, st);
     }
     if (st == PathState.MAPPED) {
-      applySameStateAllChildren(path, PathState.NORMAL, st);
+      applySameStateAllChildren(node, PathState.NORMAL, st);
     }
-    if (st == PathState.NORMAL && states.get(path) == PathState.IGNORED) {
-      applySameStateAllChildren(path, PathState.IGNORED, st);
-      verifyStateAncestors(path);
+    if (st == PathState.NORMAL && node.state == PathState.IGNORED) {
+      applySameStateAllChildren(node, PathState.IGNORED, st);
+      verifyStateAncestors(node);
     }
 
-    if (states.get(path) != PathState.NORMAL) {
-      states.put(path, st);
-      verifyStateAncestors(path);
+    if (node.state != PathState.NORMAL) {
+      node.setState(st);
+      verifyStateAncestors(node);
     } else {
-      verifyState(path);
+      verifyState(node);
     }
-    states.put(path, st);
+    node.setState(st);
 
     // if there's an item with this path
     if (items.containsKey(path)) {
       SourceTreeItem item = items.get(path);
-      item.setState(states.get(path));
-      verifyStateAncestors(path);
+      item.setState(node.state);
+      verifyStateAncestors(node);
       if (item instanceof SourceTreeDirectory) {
         ((SourceTreeDirectory) item).moveChildrenWrongState();
       }
@@ -110,23 +135,21 @@ public class PathCollection {
     }
   }
 
-  private static void applySameStateAllChildren(Path path, PathState previousState, PathState state) {
-    if ("".equals(path)) {
-      return;
-    }
-    states.put(path, state);
+  private static void applySameStateAllChildren(Node node, PathState previousState, PathState state) {
+    node.setState(state);
 
-    if (Files.isDirectory(path)) {
-      Map<Path, PathState> children = getAllChildren(path);
-      for (Path child : children.keySet()) {
-        if (states.get(child) == previousState) {
-          states.put(child, state);
-          // update the item
-          if (items.containsKey(child)) {
-            items.get(child).setState(state);
-          }
+    Deque<Node> toVisit = new ArrayDeque<>(node.getChildren());
+    while (!toVisit.isEmpty()) {
+      Node child = toVisit.pop();
+      if (child.state == previousState) {
+        child.setState(state);
+        // update the item
+        SourceTreeItem item = items.get(child.path);
+        if (item != null) {
+          item.setState(state);
         }
       }
+      toVisit.addAll(child.getChildren());
     }
   }
 
@@ -137,9 +160,9 @@ public class PathCollection {
    *          The set of paths to be added to the collection.
    * @param st
    *          The state of the items.
-   * @see #addPath(String, PathState)
+   * @see #addPath(Path, PathState)
    */
-  public static void addPaths(Set<String> paths, PathState st) {
+  public static synchronized void addPaths(Set<String> paths, PathState st) {
     for (String path : paths)
       addPath(Paths.get(path), st);
   }
@@ -148,21 +171,83 @@ public class PathCollection {
    * Adds a SourceTreeItem reference to the collection.
    * <p/>
    * <p>
-   * If the item's path isn't in the collection, it's also added.
+   * The item's path is added to the collection with the item's state.
    * </p>
    *
    * @param item
    *          The item to be added to the collection.
    */
-  public static void addItem(SourceTreeItem item) {
+  public static synchronized void addItem(SourceTreeItem item) {
     String path = item.getPath();
     if ("".equals(path)) {
       return;
     }
-    if (!states.containsKey(path)) {
-      states.put(Paths.get(path), item.getState());
+    Path itemPath = Paths.get(path);
+    getOrCreateNode(itemPath).setState(item.getState());
+    items.put(itemPath, item);
+  }
+
+  /**
+   * Adds several SourceTreeItem references to the collection at once.
+   *
+   * @param newItems
+   *          The items to be added to the collection.
+   * @see #addItem(SourceTreeItem)
+   */
+  public static synchronized void addItems(Collection<? extends SourceTreeItem> newItems) {
+    for (SourceTreeItem item : newItems) {
+      addItem(item);
+    }
+  }
+
+  /**
+   * Resolves the state of the children of a directory at once, for a directory
+   * listing, instead of calling {@link #getState(Path)} and
+   * {@link IgnoredFilter#isIgnored(Path)} for each child.
+   * <p>
+   * The children that aren't in the collection are added with the state of
+   * the directory, like {@link #getState(Path)} does, but the state of the
+   * directory and its ancestors is only verified once, after all of them have
+   * been added.
+   * </p>
+   *
+   * @param directory
+   *          The directory
+   * @param children
+   *          The paths of the children and whether each one is a directory
+   * @return The state of each child, IGNORED if the child is ignored by the
+   *         {@link IgnoredFilter}, in the order of the children
+   */
+  public static Map<Path, PathState> resolveChildren(Path directory, Map<Path, Boolean> children) {
+    // may access the file system, so it's done before taking the lock
+    Set<Path> ignored = IgnoredFilter.getIgnoredChildren(directory, children);
+
+    Map<Path, PathState> result = new LinkedHashMap<>();
+    synchronized (PathCollection.class) {
+      PathState directoryState = getStateWithoutAddingParents(directory);
+      Node added = null;
+      for (Path child : children.keySet()) {
+        PathState state;
+        Node node = getNode(child);
+        if (node != null && node.state != null) {
+          state = node.state;
+        } else if (node != null) {
+          // only its descendants are in the collection, they may need to be
+          // updated
+          state = directoryState;
+          addPath(child, state);
+        } else {
+          state = directoryState;
+          added = getOrCreateNode(child);
+          added.setState(state);
+        }
+        result.put(child, ignored.contains(child) ? PathState.IGNORED : state);
+      }
+      if (added != null) {
+        verifyStateAncestors(added);
+      }
     }
-    items.put(Paths.get(path), item);
+    return result;
   }
 
   /**
@@ -173,10 +258,11 @@ public class PathCollection {
    * @return The path's associated state if the path is in the collection,
    *         otherwise NORMAL.
    */
-  public static PathState getState(Path path) {
+  public static synchronized PathState getState(Path path) {
     PathState result = PathState.NORMAL;
-    if (states.containsKey(path)) {
-      result = states.get(path);
+    Node node = getNode(path);
+    if (node != null && node.state != null) {
+      result = node.state;
     } else {
       Path parent = path.getParent();
       if (parent != null) {
@@ -189,10 +275,40 @@ public class PathCollection {
     return result;
   }
 
+  /**
+   * Like {@link #getState(Path)}, but without adding the path or its parents to
+   * the collection, for the paths that may no longer exist (e.g. deleted from
+   * the file system).
+   *
+   * @param path
+   *          The path used to get the state.
+   * @return The state of the path or of its closest ancestor in the
+   *         collection, otherwise NORMAL.
+   */
+  public static synchronized PathState peekState(Path path) {
+    PathState result = PathState.NORMAL;
+    Node node = root;
+    Path pathRoot = path.getRoot();
+    if (pathRoot != null) {
+      node = node.getChild(pathRoot);
+    }
+    for (int i = 0; node != null; i++) {
+      if (node.state != null) {
+        result = node.state;
+      }
+      if (i == path.getNameCount()) {
+        break;
+      }
+      node = node.getChild(path.getName(i));
+    }
+    return result;
+  }
+
   private static PathState getStateWithoutAddingParents(Path path) {
     PathState result = PathState.NORMAL;
-    if (states.containsKey(path)) {
-      result = states.get(path);
+    Node node = getNode(path);
+    if (node != null && node.state != null) {
+      result = node.state;
     } else {
       Path parent = path.getParent();
       if (parent != null) {
@@ -212,27 +328,42 @@ public class PathCollection {
    * @return The associated item if the path is in the collection, null
    *         otherwise.
    */
-  public static SourceTreeItem getItem(Path path) {
+  public static synchronized SourceTreeItem getItem(Path path) {
     return items.get(path);
   }
 
-  public static void removePathAndItem(Path path) {
-    states.remove(path);
+  /**
+   * Removes a path, all the paths inside it and their items from the
+   * collection.
+   *
+   * @param path
+   *          The path to be removed.
+   */
+  public static synchronized void removePathAndItem(Path path) {
     items.remove(path);
+    Node node = getNode(path);
+    if (node == null) {
+      return;
+    }
 
-    Map<Path, PathState> children = getAllChildren(path);
-    children.keySet().forEach(PathCollection::removePathAndItem);
+    Deque<Node> toVisit = new ArrayDeque<>(node.getChildren());
+    while (!toVisit.isEmpty()) {
+      Node child = toVisit.pop();
+      items.remove(child.path);
+      toVisit.addAll(child.getChildren());
+    }
+    node.detach();
   }
 
-  private static void verifyStateAncestors(Path path) {
-    while (path.getParent() != null) {
-      path = path.getParent();
+  private static void verifyStateAncestors(Node node) {
+    while (node.parent != null && node.parent != root) {
+      node = node.parent;
       boolean updated = true;
-      if (states.containsKey(path)) {
-        updated = verifyState(path);
+      if (node.state != null) {
+        updated = verifyState(node);
 
-        if (items.containsKey(path)) {
-          SourceTreeDirectory dir = (SourceTreeDirectory) items.get(path);
+        if (items.containsKey(node.path)) {
+          SourceTreeDirectory dir = (SourceTreeDirectory) items.get(node.path);
           dir.moveChildrenWrongState();
         }
       }
@@ -245,57 +376,36 @@ public class PathCollection {
   /*
    * Returns true if the state was updated, false if the state was the same.
    */
-  private static boolean verifyState(Path path) {
-    if ("".equals(path)) {
-      return false;
-    }
-
-    PathState currentState = null;
+  private static boolean verifyState(Node node) {
+    PathState currentState = node.state;
     PathState newState = null;
-    if (states.containsKey(path)) {
-      currentState = states.get(path);
-    }
-    int normalItems = 0, ignoredItems = 0, mappedItems = 0;
-    Map<Path, PathState> children = getDirectChildren(path);
-    for (Path child : children.keySet()) {
-      switch (states.get(child)) {
-        case MAPPED:
-          mappedItems++;
-          break;
-        case IGNORED:
-          ignoredItems++;
-          break;
-        default:
-          normalItems++;
-          break;
-      }
-    }
+    int normalItems = node.normalChildren, ignoredItems = node.ignoredChildren, mappedItems = node.mappedChildren;
 
     if (normalItems == 0) {
       // only MAPPED items, the directory is MAPPED
       if (mappedItems != 0 && ignoredItems == 0) {
         newState = PathState.MAPPED;
-        states.put(path, PathState.MAPPED);
+        node.setState(PathState.MAPPED);
       }
       // only IGNORED items, the directory is IGNORED
       if (mappedItems == 0 && ignoredItems != 0) {
         newState = PathState.IGNORED;
-        states.put(path, PathState.IGNORED);
+        node.setState(PathState.IGNORED);
       }
       // IGNORED and MAPPED items, the directory is MAPPED
       if (mappedItems != 0 && ignoredItems != 0) {
         newState = PathState.MAPPED;
-        states.put(path, PathState.MAPPED);
+        node.setState(PathState.MAPPED);
       }
     } else { // there's at least one NORMAL item, so the directory must be
       // NORMAL
       newState = PathState.NORMAL;
-      states.put(path, PathState.NORMAL);
+      node.setState(PathState.NORMAL);
     }
 
-    if (items.containsKey(path)) {
-      SourceTreeItem item = items.get(path);
-      item.setState(states.get(path));
+    if (items.containsKey(node.path)) {
+      SourceTreeItem item = items.get(node.path);
+      item.setState(node.state);
     }
 
     if (currentState != null && newState != null) {
@@ -304,21 +414,118 @@ public class PathCollection {
     return true;
   }
 
-  private static Map<Path, PathState> getDirectChildren(Path path) {
-    int countSeparators = StringUtils.countMatches(path.toString(), File.separator) + 1;
-    return states.entrySet().stream().parallel()
-      .filter(p -> p.getKey().startsWith(path)
-        && StringUtils.countMatches(p.getKey().toString(), File.separator) == countSeparators)
-      .collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue()));
+  /**
+   * @return The node of the path or null if there's none
+   */
+  private static Node getNode(Path path) {
+    Node node = root;
+    Path pathRoot = path.getRoot();
+    if (pathRoot != null) {
+      node = node.getChild(pathRoot);
+    }
+    for (int i = 0; node != null && i < path.getNameCount(); i++) {
+      node = node.getChild(path.getName(i));
+    }
+    return node;
   }
 
-  private static Map<Path, PathState> getAllChildren(Path path) {
-    return states.entrySet().stream().parallel().filter(p -> p.getKey().startsWith(path))
-      .collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue()));
+  private static Node getOrCreateNode(Path path) {
+    Node node = root;
+    Path pathRoot = path.getRoot();
+    if (pathRoot != null) {
+      node = node.getOrCreateChild(pathRoot, pathRoot);
+    }
+    for (int i = 0; i < path.getNameCount(); i++) {
+      Path name = path.getName(i);
+      Path nodePath = node == root ? name : node.path.resolve(name);
+      node = node.getOrCreateChild(name, nodePath);
+    }
+    return node;
   }
 
-  public static void reset() {
-    states = new HashMap<>();
+  public static synchronized void reset() {
+    root = new Node(null, null);
     items = new HashMap<>();
   }
-}
\ No newline at end of file
+
+  /**
+   * A segment of a path. The state is null when the path of the node isn't in
+   * the collection, which happens when only its descendants were added.
+   */
+  private static class Node {
+    private final Path path;
+    private Node parent;
+    private Map<Path, Node> children;
+    private PathState state;
+    private int normalChildren = 0, ignoredChildren = 0, mappedChildren = 0;
+
+    Node(Node parent, Path path) {
+      this.parent = parent;
+      this.path = path;
+    }
+
+    Node getChild(Path name) {
+      return children == null ? null : children.get(name);
+    }
+
+    Node getOrCreateChild(Path name, Path childPath) {
+      if (children == null) {
+        children = new HashMap<>();
+      }
+      Node child = children.get(name);
+      if (child == null) {
+        child = new Node(this, childPath);
+        children.put(name, child);
+      }
+      return child;
+    }
+
+    Collection<Node> getChildren() {
+      return children == null ? Collections.<Node> emptyList() : children.values();
+    }
+
+    void setState(PathState newState) {
+      if (parent != null) {
+        parent.count(state, -1);
+        parent.count(newState, 1);
+      }
+      state = newState;
+    }
+
+    private void count(PathState childState, int delta) {
+      if (childState == null) {
+        return;
+      }
+      switch (childState) {
+        case MAPPED:
+          mappedChildren += delta;
+          break;
+        case IGNORED:
+          ignoredChildren += delta;
+          break;
+        default:
+          normalChildren += delta;
+          break;
+      }
+    }
+
+    /**
+     * Removes this node (and its descendants) from the tree, along with the
+     * ancestors that were only kept to reach it.
+     */
+    void detach() {
+      setState(null);
+      Node child = this;
+      Node current = parent;
+      while (current != null) {
+        current.children.remove(child.path.getFileName() == null ? child.path : child.path.getFileName());
+        if (current == root || current.state != null || !current.children.isEmpty()) {
+          break;
+        }
+        child = current;
+        current = current.parent;
+      }
+      parent = null;
+    }
+  }
+}
@@ -1,8 +1,6 @@
 package org.roda.rodain.core.creation;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -20,7 +18,6 @@ import org.roda.rodain.core.schema.Sip;
 import org.roda.rodain.core.sip.SipPreview;
 import org.roda.rodain.core.sip.SipRepresentation;
 import org.roda.rodain.core.sip.naming.SIPNameBuilder;
-import org.roda.rodain.ui.creation.CreationModalProcessing;
 import org.roda_project.commons_ip.model.IPConstants;
 import org.roda_project.commons_ip.model.IPContentType;
 import org.roda_project.commons_ip.model.IPContentType.IPContentTypeEnum;
@@ -41,10 +38,6 @@ import org.slf4j.LoggerFactory;
  */
 public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, SipCreator {
   private static final Logger LOGGER = LoggerFactory.getLogger(BagitSipCreator.class.getName());
-  private int countFilesOfZip;
-  private int currentSIPsize = 0;
-  private int currentSIPadded = 0;
-  private int repProcessingSize;
 
   private SIPNameBuilder sipNameBuilder;
 
@@ -68,30 +61,15 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, Si
    */
   @Override
   public void run() {
-    Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-      Pair pathBag = createBagit(preview);
-      if (pathBag != null) {
-        sips.put((Path) pathBag.getKey(), (SIP) pathBag.getValue());
-      }
-    }
-
-    if (createReport) {
-      createReport(sips);
-    }
-
-    currentAction = I18n.t(Constants.I18N_DONE);
+    createSips(this::createBagit, sipNameBuilder);
   }
 
   private Pair createBagit(Sip descriptionObject) {
-    Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+    Path tempDir = getWorkerTempDir();
     // we add a timestamp to the beginning of the SIP name to avoid same name
     // conflicts
-    currentSipName = descriptionObject.getTitle();
-    currentAction = actionCreatingFolders;
+    progress().sipName = descriptionObject.getTitle();
+    progress().action = actionCreatingFolders;
 
     org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
       ? ((SipPreview) descriptionObject).getContentType()
@@ -104,7 +82,7 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, Si
     bagit.setStatus(IPStatus.NEW);
 
     try {
-      currentAction = actionCopyingData;
+      progress().action = actionCopyingData;
       if (descriptionObject instanceof SipPreview) {
         SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -112,12 +90,12 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, Si
           rep.setContentType(new org.roda_project.commons_ip.model.RepresentationContentType(sr.getType().getValue()));
 
           Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          progress().filesAdded = 0;
+          progress().filesCount = 0;
 
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            progress().filesCount += tn.getFullTreeSize();
           }
 
           for (TreeNode tn : files) {
@@ -142,31 +120,33 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, Si
       Path metadataPath = tempDir.resolve(Utils.generateRandomAndPrefixedUUID());
       bagit.addDescriptiveMetadata(BagitUtils.createBagitMetadata(metadataMap, bagit.getAncestors(), metadataPath));
 
-      Path name = bagit.build(outputPath, createSipName(descriptionObject, sipNameBuilder));
-      createdSipsCount++;
+      Path name = bagit.build(outputPath, getSipName(descriptionObject));
+      createdSipsCount.incrementAndGet();
       return new Pair(name, bagit);
     } catch (Exception e) {
       LOGGER.error("Error creating SIP", e);
       unsuccessful.add(descriptionObject);
-      CreationModalProcessing.showError(descriptionObject, e);
+      showError(descriptionObject, e);
       return null;
     }
   }
 
   private void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
+      // the files may have changed since the tree was walked
+      tn.revalidate();
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
       // recursive call to all the node's children
-      for (TreeNode node : tn.getChildren().values()) {
+      for (TreeNode node : tn.getChildNodes()) {
         addFileToRepresentation(node, newRelativePath, rep);
       }
     } else {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
-      currentSIPadded++;
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, currentSIPadded, currentSIPsize);
+      progress().filesAdded++;
+      progress().action = String.format("%s (%d/%d)", actionCopyingData, progress().filesAdded, progress().filesCount);
     }
   }
 
@@ -177,13 +157,13 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, Si
 
   @Override
   public void sipBuildRepresentationProcessingStarted(int size) {
-    repProcessingSize = size;
+    progress().representationsCount = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(int i) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    progress().action = String.format(format, i, progress().representationsCount);
   }
 
   @Override
@@ -198,22 +178,20 @@ public class BagitSipCreator extends SimpleSipCreator implements SIPObserver, Si
 
   @Override
   public void sipBuildPackagingStarted(int current) {
-    countFilesOfZip = current;
+    progress().filesOfZip = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(int current) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    String progress = String.format(format, current, countFilesOfZip);
-    currentAction = progress;
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    progress().action = String.format(format, current, progress().filesOfZip);
+    progress().sipProgress = ((float) current) / progress().filesOfZip / sipPreviewCount;
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    progress().action = actionFinalizingSip;
+    progress().sipProgress = 0;
   }
 
   public static String getText() {
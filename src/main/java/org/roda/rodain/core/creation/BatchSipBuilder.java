@@ -0,0 +1,375 @@
+package org.roda.rodain.core.creation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.Constants.MetadataOption;
+import org.roda.rodain.core.Constants.RuleType;
+import org.roda.rodain.core.Constants.SipNameStrategy;
+import org.roda.rodain.core.Constants.SipType;
+import org.roda.rodain.core.Controller;
+import org.roda.rodain.core.rules.filters.ContentFilter;
+import org.roda.rodain.core.schema.ClassificationSchema;
+import org.roda.rodain.core.schema.DescriptiveMetadata;
+import org.roda.rodain.core.schema.Sip;
+import org.roda.rodain.core.sip.PseudoDescriptionObject;
+import org.roda.rodain.core.sip.PseudoItem;
+import org.roda.rodain.core.sip.PseudoSIP;
+import org.roda.rodain.core.sip.SipPreview;
+import org.roda.rodain.core.sip.creators.SipPerFile;
+import org.roda.rodain.core.sip.creators.SipPerSelection;
+import org.roda.rodain.core.sip.creators.SipPreviewCreator;
+import org.roda.rodain.core.sip.creators.SipSingle;
+import org.roda.rodain.core.sip.creators.SipsWithStructure;
+import org.roda.rodain.core.sip.naming.SIPNameBuilder;
+import org.roda.rodain.core.sip.naming.SIPNameBuilderBagit;
+import org.roda.rodain.core.sip.naming.SIPNameBuilderEARK;
+import org.roda.rodain.core.sip.naming.SIPNameBuilderEARK2;
+import org.roda.rodain.core.sip.naming.SIPNameBuilderHungarian;
+import org.roda.rodain.core.utils.WalkFileTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates SIPs from a plan file, without the graphical interface.
+ * <p>
+ * The plan is a properties file with the classification schema, the export
+ * options and the rules to apply. For example:
+ * </p>
+ *
+ * <pre>
+ * classificationSchema = /data/schema.json
+ * output = /data/sips
+ * sipType = EARK2
+ * exportItems = false
+ * createReport = true
+ * sipName.strategy = ID
+ * sipName.prefix = batch
+ * rules = photos, letters
+ * rule.photos.source = /data/photos
+ * rule.photos.type = SIP_PER_FILE
+ * rule.photos.parent = 0b2c7f1e-...
+ * rule.photos.metadata = TEMPLATE
+ * rule.photos.template = dc
+ * </pre>
+ * <p>
+ * The rules are applied in the order they are listed, so, as in the
+ * interface, the paths mapped by a rule are not used by the following ones.
+ * </p>
+ */
+public class BatchSipBuilder {
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchSipBuilder.class.getName());
+
+  private static final String PLAN_SCHEMA = "classificationSchema";
+  private static final String PLAN_OUTPUT = "output";
+  private static final String PLAN_SIP_TYPE = "sipType";
+  private static final String PLAN_EXPORT_ITEMS = "exportItems";
+  private static final String PLAN_CREATE_REPORT = "createReport";
+  private static final String PLAN_NAME_STRATEGY = "sipName.strategy";
+  private static final String PLAN_NAME_PREFIX = "sipName.prefix";
+  private static final String PLAN_NAME_TRANSFERRING = "sipName.transferring";
+  private static final String PLAN_NAME_SERIAL = "sipName.serial";
+  private static final String PLAN_RULES = "rules";
+  private static final String PLAN_RULE_PREFIX = "rule.";
+  private static final String PLAN_RULE_SOURCE = ".source";
+  private static final String PLAN_RULE_TYPE = ".type";
+  private static final String PLAN_RULE_PARENT = ".parent";
+  private static final String PLAN_RULE_METADATA = ".metadata";
+  private static final String PLAN_RULE_METADATA_PATH = ".metadataPath";
+  private static final String PLAN_RULE_TEMPLATE = ".template";
+  private static final String PLAN_RULE_METADATA_TYPE = ".metadataType";
+  private static final String PLAN_RULE_METADATA_VERSION = ".metadataVersion";
+
+  private final PropertiesConfiguration plan;
+  private final Path outputPath;
+  private final SipType sipType;
+  private final boolean exportItems;
+  private final boolean createReport;
+
+  // description object id -> description object, used to compute ancestors
+  private final Map<String, Sip> descriptionObjects = new LinkedHashMap<>();
+  private final Map<Sip, List<String>> sips = new LinkedHashMap<>();
+
+  /**
+   * Creates a new BatchSipBuilder from a plan file.
+   *
+   * @param planPath
+   *          The path of the plan file
+   * @throws ConfigurationException
+   *           if the plan can't be read or is missing mandatory options
+   */
+  public BatchSipBuilder(Path planPath) throws ConfigurationException {
+    plan = new PropertiesConfiguration(planPath.toFile());
+
+    String output = plan.getString(PLAN_OUTPUT);
+    if (StringUtils.isBlank(output)) {
+      throw new ConfigurationException("Missing mandatory option \"" + PLAN_OUTPUT + "\"");
+    }
+    outputPath = Paths.get(output);
+    sipType = getEnum(SipType.class, PLAN_SIP_TYPE, SipType.EARK2);
+    exportItems = plan.getBoolean(PLAN_EXPORT_ITEMS, false);
+    createReport = plan.getBoolean(PLAN_CREATE_REPORT, false);
+  }
+
+  /**
+   * Loads the classification schema and applies the rules of the plan.
+   *
+   * @return The number of SIPs created by the rules
+   * @throws ConfigurationException
+   *           if a rule is malformed
+   * @throws IOException
+   *           if the classification schema can't be read
+   */
+  public int applyRules() throws ConfigurationException, IOException {
+    loadClassificationSchema();
+
+    int created = 0;
+    for (String ruleId : plan.getStringArray(PLAN_RULES)) {
+      created += applyRule(ruleId.trim());
+    }
+    return created;
+  }
+
+  /**
+   * Exports the SIPs created by {@link #applyRules()} and waits for the
+   * exportation to end.
+   *
+   * @return The number of SIPs that couldn't be exported
+   * @throws ConfigurationException
+   *           if the SIP naming options are malformed
+   * @throws IOException
+   *           if the output folder can't be created
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting for the exportation
+   */
+  public int export() throws ConfigurationException, IOException, InterruptedException {
+    Files.createDirectories(outputPath);
+
+    CreateSips creator = new CreateSips(outputPath, sipType, exportItems, createSipNameBuilder(), createReport, null);
+    creator.setErrorHandler(
+      (sip, e) -> LOGGER.error("Error creating SIP \"{}\" ({}): {}", sip.getTitle(), sip.getId(), e.getMessage()));
+    creator.start(sips);
+    creator.waitForCompletion();
+
+    LOGGER.info("Exported {} of {} SIPs to {}", creator.getCreatedSipsCount(), creator.getSipsCount(), outputPath);
+    return creator.getErrorCount();
+  }
+
+  private void loadClassificationSchema() throws IOException {
+    String schemaFile = plan.getString(PLAN_SCHEMA);
+    if (StringUtils.isBlank(schemaFile)) {
+      return;
+    }
+
+    ClassificationSchema schema = Controller.readClassificationSchemaFile(schemaFile);
+    if (schema.getDos() == null) {
+      return;
+    }
+    for (Sip descObj : schema.getDos()) {
+      if (descObj.getMetadata() != null) {
+        for (DescriptiveMetadata dm : descObj.getMetadata()) {
+          Controller.updateTemplate(dm);
+        }
+      }
+      // as in the interface, the description objects from the schema update
+      // the ones already in the repository
+      descObj.setUpdateSIP(true);
+      descriptionObjects.put(descObj.getId(), descObj);
+    }
+    for (Sip descObj : descriptionObjects.values()) {
+      sips.put(descObj, computeAncestors(descObj.getParentId()));
+    }
+  }
+
+  private int applyRule(String ruleId) throws ConfigurationException {
+    String key = PLAN_RULE_PREFIX + ruleId;
+    String[] sources = plan.getStringArray(key + PLAN_RULE_SOURCE);
+    if (sources.length == 0) {
+      throw new ConfigurationException("Rule \"" + ruleId + "\" has no source paths");
+    }
+    Set<String> sourcePaths = new LinkedHashSet<>();
+    for (String source : sources) {
+      sourcePaths.add(Paths.get(source.trim()).toAbsolutePath().toString());
+    }
+
+    String parentId = plan.getString(key + PLAN_RULE_PARENT);
+    if (parentId != null && !descriptionObjects.containsKey(parentId)) {
+      throw new ConfigurationException(
+        "Rule \"" + ruleId + "\" has an unknown parent \"" + parentId + "\" in the classification schema");
+    }
+
+    SipPreviewCreator visitor = createVisitor(ruleId, sourcePaths);
+    WalkFileTree walker = new WalkFileTree(sourcePaths, visitor);
+    walker.start();
+    try {
+      walker.join();
+    } catch (InterruptedException e) {
+      walker.cancel();
+      Thread.currentThread().interrupt();
+      return 0;
+    }
+
+    int created = 0;
+    if (visitor instanceof SipsWithStructure) {
+      SipsWithStructure structure = (SipsWithStructure) visitor;
+      for (PseudoItem item : structure.getTree()) {
+        created += addStructureItem(item, parentId, structure);
+      }
+    } else {
+      for (SipPreview sipPreview : visitor.getSips().values()) {
+        sipPreview.setParentId(parentId);
+        sips.put(sipPreview, computeAncestors(parentId));
+        created++;
+      }
+    }
+    LOGGER.info("Rule \"{}\" created {} SIPs", ruleId, created);
+    return created;
+  }
+
+  private int addStructureItem(PseudoItem item, String parentId, SipsWithStructure structure) {
+    if (item instanceof PseudoSIP) {
+      SipPreview sipPreview = structure.getSipPreviewMap().get(((PseudoSIP) item).getNode().getPath());
+      sipPreview.setParentId(parentId);
+      sips.put(sipPreview, computeAncestors(parentId));
+      return 1;
+    }
+
+    PseudoDescriptionObject pdo = (PseudoDescriptionObject) item;
+    Sip descObj = structure.getDescriptionObjects().get(pdo.getPath());
+    descObj.setParentId(parentId);
+    descriptionObjects.put(descObj.getId(), descObj);
+    sips.put(descObj, computeAncestors(parentId));
+
+    int created = 0;
+    for (PseudoItem child : pdo.getChildren()) {
+      created += addStructureItem(child, descObj.getId(), structure);
+    }
+    return created;
+  }
+
+  /**
+   * @return The ids of the description object with the given id and of its
+   *         ancestors, starting with the closest one.
+   */
+  private List<String> computeAncestors(String parentId) {
+    List<String> ancestors = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    String current = parentId;
+    while (current != null && visited.add(current)) {
+      ancestors.add(current);
+      Sip descObj = descriptionObjects.get(current);
+      current = descObj == null ? null : descObj.getParentId();
+    }
+    return ancestors;
+  }
+
+  private SipPreviewCreator createVisitor(String ruleId, Set<String> sourcePaths) throws ConfigurationException {
+    String key = PLAN_RULE_PREFIX + ruleId;
+    RuleType ruleType = getEnum(RuleType.class, key + PLAN_RULE_TYPE, RuleType.SINGLE_SIP);
+    MetadataOption metadataOption = getEnum(MetadataOption.class, key + PLAN_RULE_METADATA, MetadataOption.TEMPLATE);
+
+    String metadataPathValue = plan.getString(key + PLAN_RULE_METADATA_PATH);
+    Path metadataPath = StringUtils.isBlank(metadataPathValue) ? null : Paths.get(metadataPathValue);
+    if (metadataPath == null
+      && (metadataOption == MetadataOption.SINGLE_FILE || metadataOption == MetadataOption.DIFF_DIRECTORY)) {
+      throw new ConfigurationException("Rule \"" + ruleId + "\" needs the option \"" + key + PLAN_RULE_METADATA_PATH
+        + "\" for the metadata option " + metadataOption);
+    }
+
+    String templateType = plan.getString(key + PLAN_RULE_TEMPLATE);
+    String metadataType = plan.getString(key + PLAN_RULE_METADATA_TYPE);
+    String metadataVersion = plan.getString(key + PLAN_RULE_METADATA_VERSION);
+    if (metadataOption != MetadataOption.NEW_FILE && templateType != null) {
+      if (metadataType == null && metadataOption != MetadataOption.SAME_DIRECTORY) {
+        metadataType = ConfigurationManager.getMetadataConfig(templateType + Constants.CONF_K_SUFFIX_TYPE);
+      }
+      if (metadataType != null && metadataVersion == null) {
+        metadataVersion = ConfigurationManager.getMetadataConfig(templateType + Constants.CONF_K_SUFFIX_VERSION);
+      }
+    }
+
+    Set<ContentFilter> filters = new HashSet<>(Collections.singleton(new ContentFilter()));
+    switch (ruleType) {
+      case SIP_PER_SELECTION:
+        return new SipPerSelection(ruleId, sourcePaths, filters, metadataOption, metadataType, metadataPath,
+          templateType, metadataVersion);
+      case SIP_PER_FILE:
+        return new SipPerFile(ruleId, filters, metadataOption, metadataType, metadataPath, templateType,
+          metadataVersion);
+      case SIP_WITH_STRUCTURE:
+        return new SipsWithStructure(ruleId, filters, metadataOption, metadataType, metadataPath, templateType,
+          metadataVersion);
+      default:
+      case SINGLE_SIP:
+        return new SipSingle(ruleId, filters, metadataOption, metadataType, metadataPath, templateType,
+          metadataVersion);
+    }
+  }
+
+  private SIPNameBuilder createSipNameBuilder() throws ConfigurationException {
+    SipNameStrategy defaultStrategy = sipType == SipType.HUNGARIAN ? SipNameStrategy.DATE_TRANSFERRING_SERIALNUMBER
+      : SipNameStrategy.ID;
+    SipNameStrategy strategy = getEnum(SipNameStrategy.class, PLAN_NAME_STRATEGY, defaultStrategy);
+    if (!sipType.getSipNameStrategies().contains(strategy)) {
+      throw new ConfigurationException(
+        "The SIP name strategy " + strategy + " can't be used with " + sipType + " SIPs, use one of "
+          + Arrays.toString(sipType.getSipNameStrategies().toArray()));
+    }
+
+    String prefix = plan.getString(PLAN_NAME_PREFIX, "");
+    switch (sipType) {
+      case HUNGARIAN:
+        return new SIPNameBuilderHungarian(plan.getString(PLAN_NAME_TRANSFERRING, ""),
+          plan.getString(PLAN_NAME_SERIAL, Constants.MISC_DEFAULT_HUNGARIAN_SIP_SERIAL), strategy);
+      case EARK:
+        return new SIPNameBuilderEARK(prefix, strategy);
+      case BAGIT:
+        return new SIPNameBuilderBagit(prefix, strategy);
+      default:
+      case EARK2:
+        return new SIPNameBuilderEARK2(prefix, strategy);
+    }
+  }
+
+  private <T extends Enum<T>> T getEnum(Class<T> enumClass, String key, T defaultValue)
+    throws ConfigurationException {
+    String value = plan.getString(key);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      return Enum.valueOf(enumClass, value.trim());
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException("Invalid value \"" + value + "\" for the option \"" + key + "\", use one of "
+        + Arrays.toString(enumClass.getEnumConstants()), e);
+    }
+  }
+
+  public Map<Sip, List<String>> getSips() {
+    return sips;
+  }
+
+  public boolean isExportItems() {
+    return exportItems;
+  }
+
+  public Path getOutputPath() {
+    return outputPath;
+  }
+}
@@ -3,6 +3,7 @@ package org.roda.rodain.core.creation;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.roda.rodain.core.Constants.SipType;
@@ -30,6 +31,7 @@ public class CreateSips {
   private boolean exportItems;
   private boolean createReport;
   private IPHeader ipHeader;
+  private BiConsumer<Sip, Exception> errorHandler;
 
   /**
    * Creates a new object of the SIP exporter
@@ -76,9 +78,35 @@ public class CreateSips {
         creator = new HungarianSipCreator(outputPath, previews, sipNameBuilder, createReport, ipHeader);
         break;
     }
+    if (errorHandler != null) {
+      creator.setErrorHandler(errorHandler);
+    }
     creator.start();
   }
 
+  /**
+   * Sets the handler called when a SIP can't be created. Must be called before
+   * {@link #start(Map)}, otherwise the errors are shown in the creation modal.
+   *
+   * @param errorHandler
+   *          The handler that receives the SIP and the cause of the error
+   */
+  public void setErrorHandler(BiConsumer<Sip, Exception> errorHandler) {
+    this.errorHandler = errorHandler;
+  }
+
+  /**
+   * Waits for the exportation process to finish.
+   *
+   * @throws InterruptedException
+   *           if the current thread is interrupted while waiting
+   */
+  public void waitForCompletion() throws InterruptedException {
+    if (creator != null) {
+      creator.join();
+    }
+  }
+
   /**
    * @return The total number of SIPs that will be created.
    */
@@ -105,7 +133,7 @@ public class CreateSips {
    *         created by the total number of SIPs.
    */
   public double getProgress() {
-    return (creator.getCreatedSipsCount() / (sipsCount * 1.0)) + creator.currentSipProgress;
+    return (creator.getCreatedSipsCount() / (sipsCount * 1.0)) + creator.getCurrentSipProgress();
   }
 
   /**
@@ -116,14 +144,14 @@ public class CreateSips {
   }
 
   /**
-   * @return The name of the SIP currently being processed.
+   * @return The names of the SIPs currently being processed.
    */
   public String getSipName() {
     return creator.getCurrentSipName();
   }
 
   /**
-   * @return The action currently being done on the SIP.
+   * @return The actions currently being done on the SIPs.
    */
   public String getAction() {
     return creator.getCurrentAction();
@@ -1,16 +1,12 @@
 package org.roda.rodain.core.creation;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.io.FileUtils;
 import org.roda.rodain.core.ConfigurationManager;
 import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.MetadataOption;
@@ -24,7 +20,6 @@ import org.roda.rodain.core.schema.Sip;
 import org.roda.rodain.core.sip.SipPreview;
 import org.roda.rodain.core.sip.SipRepresentation;
 import org.roda.rodain.core.sip.naming.SIPNameBuilder;
-import org.roda.rodain.ui.creation.CreationModalProcessing;
 import org.roda_project.commons_ip.model.IPHeader;
 import org.roda_project.commons_ip.utils.IPEnums.IPStatus;
 import org.roda_project.commons_ip2.model.IPContentInformationType;
@@ -47,10 +42,6 @@ import org.slf4j.LoggerFactory;
  */
 public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, SipCreator {
   private static final Logger LOGGER = LoggerFactory.getLogger(EarkSip2Creator.class.getName());
-  private int countFilesOfZip;
-  private int currentSIPadded = 0;
-  private int currentSIPsize = 0;
-  private int repProcessingSize;
 
   private SIPNameBuilder sipNameBuilder;
   private IPHeader ipHeader;
@@ -77,24 +68,11 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
    */
   @Override
   public void run() {
-    Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-      Pair pathSIP = createEarkSip(preview);
-      if (pathSIP != null) {
-        sips.put((Path) pathSIP.getKey(), (SIP) pathSIP.getValue());
-      }
-    }
-    if (createReport) {
-      createReport(sips);
-    }
-    currentAction = I18n.t(Constants.I18N_DONE);
+    createSips(this::createEarkSip, sipNameBuilder);
   }
 
   private Pair createEarkSip(Sip descriptionObject) {
-    Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+    Path tempDir = getWorkerTempDir();
     try {
       org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
         ? ((SipPreview) descriptionObject).getContentType()
@@ -114,9 +92,9 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
         earkSip.setStatus(IPStatus.NEW);
       }
 
-      currentSipProgress = 0;
-      currentSipName = descriptionObject.getTitle();
-      currentAction = actionCopyingMetadata;
+      progress().sipProgress = 0;
+      progress().sipName = descriptionObject.getTitle();
+      progress().action = actionCopyingMetadata;
 
       for (DescriptiveMetadata descObjMetadata : descriptionObject.getMetadata()) {
         MetadataType metadataType = new MetadataType(MetadataType.MetadataTypeEnum.OTHER);
@@ -146,9 +124,7 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
         }
 
         if (metadataPath == null) {
-          String content = descriptionObject.getMetadataWithReplaces(descObjMetadata);
-          metadataPath = tempDir.resolve(descObjMetadata.getId());
-          FileUtils.writeStringToFile(metadataPath.toFile(), content, Constants.RODAIN_DEFAULT_ENCODING);
+          metadataPath = writeMetadata(descriptionObject, descObjMetadata, tempDir);
         }
 
         IPFile metadataFile = new IPFile(metadataPath);
@@ -158,7 +134,7 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
         earkSip.addDescriptiveMetadata(metadata);
       }
 
-      currentAction = actionCopyingData;
+      progress().action = actionCopyingData;
       if (descriptionObject instanceof SipPreview) {
         SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -166,12 +142,12 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
           setContentTypeAndContentInformationType(earkSip, rep, sr);
 
           Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          progress().filesAdded = 0;
+          progress().filesCount = 0;
 
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            progress().filesCount += tn.getFullTreeSize();
           }
 
           // add files to representation
@@ -182,7 +158,7 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
           earkSip.addRepresentation(rep);
         }
 
-        currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
+        progress().action = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
         Set<TreeNode> docs = sip.getDocumentation();
         for (TreeNode tn : docs) {
           addDocToSip(tn, new ArrayList<>(), earkSip);
@@ -193,21 +169,21 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
       earkSip.addCreatorSoftwareAgent(Constants.SIP_DEFAULT_AGENT_NAME,
         Controller.getCurrentVersionSilently().orElse(Constants.SIP_AGENT_VERSION_UNKNOWN));
 
-      currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
-      Path sipPath = earkSip.build(outputPath, createSipName(descriptionObject, sipNameBuilder));
+      progress().action = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
+      Path sipPath = earkSip.build(outputPath, getSipName(descriptionObject));
 
-      createdSipsCount++;
+      createdSipsCount.incrementAndGet();
       return new Pair(sipPath, earkSip);
     } catch (InterruptedException e) {
       canceled = true;
     } catch (IOException e) {
       LOGGER.error("Error accessing the files", e);
       unsuccessful.add(descriptionObject);
-      CreationModalProcessing.showError(descriptionObject, e);
+      showError(descriptionObject, e);
     } catch (Exception e) {
       LOGGER.error("Error exporting E-ARK SIP", e);
       unsuccessful.add(descriptionObject);
-      CreationModalProcessing.showError(descriptionObject, e);
+      showError(descriptionObject, e);
     }
 
     return null;
@@ -227,29 +203,33 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
   }
 
   private void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
+      // the files may have changed since the tree was walked
+      tn.revalidate();
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
       // recursive call to all the node's children
-      for (TreeNode node : tn.getChildren().values()) {
+      for (TreeNode node : tn.getChildNodes()) {
         addFileToRepresentation(node, newRelativePath, rep);
       }
     } else {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
-      currentSIPadded++;
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, currentSIPadded, currentSIPsize);
+      progress().filesAdded++;
+      progress().action = String.format("%s (%d/%d)", actionCopyingData, progress().filesAdded, progress().filesCount);
     }
   }
 
   private void addDocToSip(TreeNode tn, List<String> relativePath, SIP earkSip) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
+      // the files may have changed since the tree was walked
+      tn.revalidate();
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
       // recursive call to all the node's children
-      for (TreeNode node : tn.getChildren().values()) {
+      for (TreeNode node : tn.getChildNodes()) {
         addDocToSip(node, newRelativePath, earkSip);
       }
     } else {
@@ -266,13 +246,13 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
 
   @Override
   public void sipBuildRepresentationProcessingStarted(int size) {
-    repProcessingSize = size;
+    progress().representationsCount = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(int i) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    progress().action = String.format(format, i, progress().representationsCount);
   }
 
   @Override
@@ -287,22 +267,20 @@ public class EarkSip2Creator extends SimpleSipCreator implements SIPObserver, Si
 
   @Override
   public void sipBuildPackagingStarted(int current) {
-    countFilesOfZip = current;
+    progress().filesOfZip = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(int current) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    String progress = String.format(format, current, countFilesOfZip);
-    currentAction = progress;
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    progress().action = String.format(format, current, progress().filesOfZip);
+    progress().sipProgress = ((float) current) / progress().filesOfZip / sipPreviewCount;
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    progress().action = actionFinalizingSip;
+    progress().sipProgress = 0;
   }
 
   public static String getText() {
@@ -1,16 +1,12 @@
 package org.roda.rodain.core.creation;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.io.FileUtils;
 import org.roda.rodain.core.ConfigurationManager;
 import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.MetadataOption;
@@ -24,7 +20,6 @@ import org.roda.rodain.core.schema.Sip;
 import org.roda.rodain.core.sip.SipPreview;
 import org.roda.rodain.core.sip.SipRepresentation;
 import org.roda.rodain.core.sip.naming.SIPNameBuilder;
-import org.roda.rodain.ui.creation.CreationModalProcessing;
 import org.roda_project.commons_ip.model.IPContentType;
 import org.roda_project.commons_ip.model.IPContentType.IPContentTypeEnum;
 import org.roda_project.commons_ip.model.IPDescriptiveMetadata;
@@ -46,10 +41,6 @@ import org.slf4j.LoggerFactory;
  */
 public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, SipCreator {
   private static final Logger LOGGER = LoggerFactory.getLogger(EarkSipCreator.class.getName());
-  private int countFilesOfZip;
-  private int currentSIPadded = 0;
-  private int currentSIPsize = 0;
-  private int repProcessingSize;
 
   private SIPNameBuilder sipNameBuilder;
   private IPHeader ipHeader;
@@ -76,24 +67,11 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
    */
   @Override
   public void run() {
-    Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-      Pair pathSIP = createEarkSip(preview);
-      if (pathSIP != null) {
-        sips.put((Path) pathSIP.getKey(), (SIP) pathSIP.getValue());
-      }
-    }
-    if (createReport) {
-      createReport(sips);
-    }
-    currentAction = I18n.t(Constants.I18N_DONE);
+    createSips(this::createEarkSip, sipNameBuilder);
   }
 
   private Pair createEarkSip(Sip descriptionObject) {
-    Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+    Path tempDir = getWorkerTempDir();
     try {
       org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
         ? ((SipPreview) descriptionObject).getContentType()
@@ -112,9 +90,9 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
         earkSip.setStatus(IPStatus.NEW);
       }
 
-      currentSipProgress = 0;
-      currentSipName = descriptionObject.getTitle();
-      currentAction = actionCopyingMetadata;
+      progress().sipProgress = 0;
+      progress().sipName = descriptionObject.getTitle();
+      progress().action = actionCopyingMetadata;
 
       for (DescriptiveMetadata descObjMetadata : descriptionObject.getMetadata()) {
         MetadataType metadataType = new MetadataType(MetadataType.MetadataTypeEnum.OTHER);
@@ -144,9 +122,7 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
         }
 
         if (metadataPath == null) {
-          String content = descriptionObject.getMetadataWithReplaces(descObjMetadata);
-          metadataPath = tempDir.resolve(descObjMetadata.getId());
-          FileUtils.writeStringToFile(metadataPath.toFile(), content, Constants.RODAIN_DEFAULT_ENCODING);
+          metadataPath = writeMetadata(descriptionObject, descObjMetadata, tempDir);
         }
 
         IPFile metadataFile = new IPFile(metadataPath);
@@ -156,7 +132,7 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
         earkSip.addDescriptiveMetadata(metadata);
       }
 
-      currentAction = actionCopyingData;
+      progress().action = actionCopyingData;
       if (descriptionObject instanceof SipPreview) {
         SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -170,12 +146,12 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
           rep.setContentType(contentType);
 
           Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          progress().filesAdded = 0;
+          progress().filesCount = 0;
 
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            progress().filesCount += tn.getFullTreeSize();
           }
 
           // add files to representation
@@ -186,7 +162,7 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
           earkSip.addRepresentation(rep);
         }
 
-        currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
+        progress().action = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
         Set<TreeNode> docs = sip.getDocumentation();
         for (TreeNode tn : docs) {
           addDocToSip(tn, new ArrayList<>(), earkSip);
@@ -196,50 +172,54 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
       earkSip.setHeader(ipHeader);
       earkSip.addCreatorSoftwareAgent(agentName);
 
-      currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
-      Path sipPath = earkSip.build(outputPath, createSipName(descriptionObject, sipNameBuilder));
+      progress().action = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
+      Path sipPath = earkSip.build(outputPath, getSipName(descriptionObject));
 
-      createdSipsCount++;
+      createdSipsCount.incrementAndGet();
       return new Pair(sipPath, earkSip);
     } catch (InterruptedException e) {
       canceled = true;
     } catch (IOException e) {
       LOGGER.error("Error accessing the files", e);
       unsuccessful.add(descriptionObject);
-      CreationModalProcessing.showError(descriptionObject, e);
+      showError(descriptionObject, e);
     } catch (Exception e) {
       LOGGER.error("Error exporting E-ARK SIP", e);
       unsuccessful.add(descriptionObject);
-      CreationModalProcessing.showError(descriptionObject, e);
+      showError(descriptionObject, e);
     }
 
     return null;
   }
 
   private void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
+      // the files may have changed since the tree was walked
+      tn.revalidate();
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
       // recursive call to all the node's children
-      for (TreeNode node : tn.getChildren().values()) {
+      for (TreeNode node : tn.getChildNodes()) {
         addFileToRepresentation(node, newRelativePath, rep);
       }
     } else {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
-      currentSIPadded++;
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, currentSIPadded, currentSIPsize);
+      progress().filesAdded++;
+      progress().action = String.format("%s (%d/%d)", actionCopyingData, progress().filesAdded, progress().filesCount);
     }
   }
 
   private void addDocToSip(TreeNode tn, List<String> relativePath, SIP earkSip) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
+      // the files may have changed since the tree was walked
+      tn.revalidate();
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
       // recursive call to all the node's children
-      for (TreeNode node : tn.getChildren().values()) {
+      for (TreeNode node : tn.getChildNodes()) {
         addDocToSip(node, newRelativePath, earkSip);
       }
     } else {
@@ -256,13 +236,13 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
 
   @Override
   public void sipBuildRepresentationProcessingStarted(int size) {
-    repProcessingSize = size;
+    progress().representationsCount = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(int i) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    progress().action = String.format(format, i, progress().representationsCount);
   }
 
   @Override
@@ -277,22 +257,20 @@ public class EarkSipCreator extends SimpleSipCreator implements SIPObserver, Sip
 
   @Override
   public void sipBuildPackagingStarted(int current) {
-    countFilesOfZip = current;
+    progress().filesOfZip = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(int current) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    String progress = String.format(format, current, countFilesOfZip);
-    currentAction = progress;
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    progress().action = String.format(format, current, progress().filesOfZip);
+    progress().sipProgress = ((float) current) / progress().filesOfZip / sipPreviewCount;
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    progress().action = actionFinalizingSip;
+    progress().sipProgress = 0;
   }
 
   public static String getText() {
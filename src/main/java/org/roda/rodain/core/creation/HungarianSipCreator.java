@@ -3,16 +3,12 @@ package org.roda.rodain.core.creation;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.roda.rodain.core.ConfigurationManager;
 import org.roda.rodain.core.Constants;
@@ -27,7 +23,6 @@ import org.roda.rodain.core.schema.Sip;
 import org.roda.rodain.core.sip.SipPreview;
 import org.roda.rodain.core.sip.SipRepresentation;
 import org.roda.rodain.core.sip.naming.SIPNameBuilder;
-import org.roda.rodain.ui.creation.CreationModalProcessing;
 import org.roda_project.commons_ip.model.IPAltRecordID;
 import org.roda_project.commons_ip.model.IPContentType;
 import org.roda_project.commons_ip.model.IPContentType.IPContentTypeEnum;
@@ -46,10 +41,6 @@ import org.slf4j.LoggerFactory;
 
 public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver, SipCreator {
   private static final Logger LOGGER = LoggerFactory.getLogger(HungarianSipCreator.class.getName());
-  private int countFilesOfZip;
-  private int currentSIPadded = 0;
-  private int currentSIPsize = 0;
-  private int repProcessingSize;
 
   private SIPNameBuilder sipNameBuilder;
   private IPHeader ipHeader;
@@ -75,27 +66,11 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
    */
   @Override
   public void run() {
-    Map<Path, Object> sips = new HashMap<>();
-    for (Sip preview : previews.keySet()) {
-      if (canceled) {
-        break;
-      }
-
-      Pair pathSIP = createHungarianSip(preview);
-      if (pathSIP != null) {
-        sips.put((Path) pathSIP.getKey(), (SIP) pathSIP.getValue());
-      }
-    }
-
-    if (createReport) {
-      createReport(sips);
-    }
-
-    currentAction = I18n.t(Constants.I18N_DONE);
+    createSips(this::createHungarianSip, sipNameBuilder);
   }
 
   private Pair createHungarianSip(Sip descriptionObject) {
-    Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+    Path tempDir = getWorkerTempDir();
     try {
       org.roda.rodain.core.schema.IPContentType userDefinedContentType = descriptionObject instanceof SipPreview
         ? ((SipPreview) descriptionObject).getContentType()
@@ -111,9 +86,9 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
         hungarianSip.setStatus(IPStatus.NEW);
       }
 
-      currentSipProgress = 0;
-      currentSipName = descriptionObject.getTitle();
-      currentAction = actionCopyingMetadata;
+      progress().sipProgress = 0;
+      progress().sipName = descriptionObject.getTitle();
+      progress().action = actionCopyingMetadata;
 
       for (DescriptiveMetadata descObjMetadata : descriptionObject.getMetadata()) {
         MetadataType metadataType = new MetadataType(MetadataType.MetadataTypeEnum.OTHER);
@@ -143,9 +118,7 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
         }
 
         if (metadataPath == null) {
-          String content = descriptionObject.getMetadataWithReplaces(descObjMetadata);
-          metadataPath = tempDir.resolve(descObjMetadata.getId());
-          FileUtils.writeStringToFile(metadataPath.toFile(), content, Constants.RODAIN_DEFAULT_ENCODING);
+          metadataPath = writeMetadata(descriptionObject, descObjMetadata, tempDir);
         }
 
         IPFile metadataFile = new IPFile(metadataPath);
@@ -156,7 +129,7 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
         hungarianSip.addDescriptiveMetadata(metadata);
       }
 
-      currentAction = actionCopyingData;
+      progress().action = actionCopyingData;
       if (descriptionObject instanceof SipPreview) {
         SipPreview sip = (SipPreview) descriptionObject;
         for (SipRepresentation sr : sip.getRepresentations()) {
@@ -164,11 +137,11 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
           rep.setContentType(new org.roda_project.commons_ip.model.RepresentationContentType(sr.getType().getValue()));
 
           Set<TreeNode> files = sr.getFiles();
-          currentSIPadded = 0;
-          currentSIPsize = 0;
+          progress().filesAdded = 0;
+          progress().filesCount = 0;
           // count files
           for (TreeNode tn : files) {
-            currentSIPsize += tn.getFullTreePaths().size();
+            progress().filesCount += tn.getFullTreeSize();
           }
           // add files to representation
           for (TreeNode tn : files) {
@@ -178,14 +151,14 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
           hungarianSip.addRepresentation(rep);
         }
 
-        currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
+        progress().action = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_DOCUMENTATION);
         Set<TreeNode> docs = sip.getDocumentation();
         for (TreeNode tn : docs) {
           addDocToZip(tn, new ArrayList<>(), hungarianSip);
         }
       }
 
-      currentAction = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
+      progress().action = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_INIT_ZIP);
 
       // 2017-05-10 bferreira: these are constant. see issue #286
       IPAltRecordID deliveryType = new IPAltRecordID();
@@ -207,50 +180,54 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
         String template = IOUtils.toString(stream, Charset.defaultCharset());
         hungarianSip.setFolderTemplate(template);
       }
-      Path sipPath = hungarianSip.build(outputPath, createSipName(descriptionObject, sipNameBuilder));
+      Path sipPath = hungarianSip.build(outputPath, getSipName(descriptionObject));
 
-      createdSipsCount++;
+      createdSipsCount.incrementAndGet();
       return new Pair(sipPath, hungarianSip);
     } catch (InterruptedException e) {
       canceled = true;
     } catch (IOException e) {
       LOGGER.error("Error accessing the files", e);
       unsuccessful.add(descriptionObject);
-      CreationModalProcessing.showError(descriptionObject, e);
+      showError(descriptionObject, e);
     } catch (Exception e) {
       LOGGER.error("Error exporting E-ARK SIP", e);
       unsuccessful.add(descriptionObject);
-      CreationModalProcessing.showError(descriptionObject, e);
+      showError(descriptionObject, e);
     }
 
     return null;
   }
 
   private void addFileToRepresentation(TreeNode tn, List<String> relativePath, IPRepresentation rep) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
+      // the files may have changed since the tree was walked
+      tn.revalidate();
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
 
       // recursive call to all the node's children
-      for (TreeNode node : tn.getChildren().values()) {
+      for (TreeNode node : tn.getChildNodes()) {
         addFileToRepresentation(node, newRelativePath, rep);
       }
     } else {
       // if it's a file, add it to the representation
       rep.addFile(tn.getPath(), relativePath);
-      currentSIPadded++;
-      currentAction = String.format("%s (%d/%d)", actionCopyingData, currentSIPadded, currentSIPsize);
+      progress().filesAdded++;
+      progress().action = String.format("%s (%d/%d)", actionCopyingData, progress().filesAdded, progress().filesCount);
     }
   }
 
   private void addDocToZip(TreeNode tn, List<String> relativePath, SIP hungarianSip) {
-    if (Files.isDirectory(tn.getPath())) {
+    if (tn.isDirectory()) {
+      // the files may have changed since the tree was walked
+      tn.revalidate();
       // add this directory to the path list
       List<String> newRelativePath = new ArrayList<>(relativePath);
       newRelativePath.add(tn.getPath().getFileName().toString());
       // recursive call to all the node's children
-      for (TreeNode node : tn.getChildren().values()) {
+      for (TreeNode node : tn.getChildNodes()) {
         addDocToZip(node, newRelativePath, hungarianSip);
       }
     } else {
@@ -267,13 +244,13 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
 
   @Override
   public void sipBuildRepresentationProcessingStarted(int size) {
-    repProcessingSize = size;
+    progress().representationsCount = size;
   }
 
   @Override
   public void sipBuildRepresentationProcessingCurrentStatus(int i) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_REPRESENTATION) + " (%d/%d)";
-    currentAction = String.format(format, i, repProcessingSize);
+    progress().action = String.format(format, i, progress().representationsCount);
   }
 
   @Override
@@ -288,22 +265,20 @@ public class HungarianSipCreator extends SimpleSipCreator implements SIPObserver
 
   @Override
   public void sipBuildPackagingStarted(int current) {
-    countFilesOfZip = current;
+    progress().filesOfZip = current;
   }
 
   @Override
   public void sipBuildPackagingCurrentStatus(int current) {
     String format = I18n.t(Constants.I18N_CREATIONMODALPROCESSING_EARK_PROGRESS);
-    String progress = String.format(format, current, countFilesOfZip);
-    currentAction = progress;
-    currentSipProgress = ((float) current) / countFilesOfZip;
-    currentSipProgress /= sipPreviewCount;
+    progress().action = String.format(format, current, progress().filesOfZip);
+    progress().sipProgress = ((float) current) / progress().filesOfZip / sipPreviewCount;
   }
 
   @Override
   public void sipBuildPackagingEnded() {
-    currentAction = actionFinalizingSip;
-    currentSipProgress = 0;
+    progress().action = actionFinalizingSip;
+    progress().sipProgress = 0;
   }
 
   public static String getText() {
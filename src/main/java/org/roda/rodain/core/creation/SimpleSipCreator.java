@@ -1,49 +1,78 @@
 package org.roda.rodain.core.creation;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Source;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.io.FileUtils;
+import org.roda.rodain.core.ConfigurationManager;
 import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.Constants.MetadataOption;
 import org.roda.rodain.core.Controller;
 import org.roda.rodain.core.I18n;
+import org.roda.rodain.core.Pair;
 import org.roda.rodain.core.report.InventoryReportCreator;
+import org.roda.rodain.core.schema.DescriptiveMetadata;
 import org.roda.rodain.core.schema.Sip;
+import org.roda.rodain.core.sip.SipPreview;
 import org.roda.rodain.core.sip.naming.SIPNameBuilder;
+import org.roda.rodain.core.utils.ChecksumCache;
+import org.roda.rodain.ui.creation.CreationModalProcessing;
+import org.roda_project.commons_ip.model.SIP;
+import org.roda_project.commons_ip.utils.ZipEntryInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
+ * Base of the SIP exporters.
+ * <p>
+ * The SIPs are independent from each other, so they are created by a pool of
+ * workers (see {@link #createSips(Function, SIPNameBuilder)}). Everything that
+ * concerns a single SIP (progress counters, temporary files) is kept per
+ * worker, except its name, which is given before the SIP is handed to a
+ * worker so the names follow the order of the SIPs.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 19/11/2015.
  */
 public abstract class SimpleSipCreator extends Thread {
   private static final Logger LOGGER = LoggerFactory.getLogger(SimpleSipCreator.class.getName());
+  private static final int DEFAULT_THREADS = 2;
+  private static Templates plainTemplates;
 
   protected static final String actionCreatingFolders = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_CREATING_STRUCTURE);
   protected static final String actionCopyingData = I18n.t(Constants.I18N_SIMPLE_SIP_CREATOR_COPYING_DATA);
@@ -56,9 +85,8 @@ public abstract class SimpleSipCreator extends Thread {
   protected final Map<Sip, List<String>> previews;
   protected final int sipPreviewCount;
 
-  protected int createdSipsCount = 0;
-  protected String currentSipName;
-  protected String currentAction;
+  protected final AtomicInteger createdSipsCount = new AtomicInteger();
+  private volatile boolean done = false;
 
   // ETA
   protected long sipSize;
@@ -70,11 +98,26 @@ public abstract class SimpleSipCreator extends Thread {
   protected Instant lastInstant;
   protected Instant sipStartInstant;
 
-  protected boolean canceled = false;
-  protected float currentSipProgress;
+  protected volatile boolean canceled = false;
 
   protected Set<Sip> unsuccessful;
 
+  private volatile ExecutorService workers;
+  // worker thread -> progress of the SIP the worker is creating
+  private final Map<Thread, SipProgress> progresses = new ConcurrentHashMap<>();
+  // SIP -> its name, built when the SIP is handed to a worker
+  private final Map<Sip, String> sipNames = new ConcurrentHashMap<>();
+  // worker thread -> folder for the temporary files of the worker
+  private final Map<Thread, Path> tempDirs = new ConcurrentHashMap<>();
+  // folder of the exportation's temporary files, see getScratchDir()
+  private Path scratchDir;
+  // temporary metadata file -> rendered template last written to it
+  private final Map<Path, String> stagedMetadata = new ConcurrentHashMap<>();
+
+  // called when a SIP can't be created, by default the error is shown in the
+  // creation modal
+  private BiConsumer<Sip, Exception> errorHandler = (sip, e) -> CreationModalProcessing.showError(sip, e);
+
   /**
    * Creates a simple SIP exporter.
    * <p/>
@@ -94,7 +137,7 @@ public abstract class SimpleSipCreator extends Thread {
     this.previews = previews;
     sipPreviewCount = previews.size();
 
-    unsuccessful = new HashSet<>();
+    unsuccessful = ConcurrentHashMap.newKeySet();
 
     try {
       agentName = String.format(Constants.SIP_AGENT_NAME_FORMAT, Controller.getCurrentVersion());
@@ -107,7 +150,19 @@ public abstract class SimpleSipCreator extends Thread {
    * @return The number of SIPs that have already been created.
    */
   public int getCreatedSipsCount() {
-    return createdSipsCount;
+    return createdSipsCount.get();
+  }
+
+  /**
+   * @return The progress of the SIPs being created, as a fraction of all the
+   *         SIPs to create.
+   */
+  public float getCurrentSipProgress() {
+    float result = 0;
+    for (SipProgress progress : progresses.values()) {
+      result += progress.sipProgress;
+    }
+    return result;
   }
 
   /**
@@ -118,17 +173,249 @@ public abstract class SimpleSipCreator extends Thread {
   }
 
   /**
-   * @return The action currently being done on the SIP.
+   * @return The actions being done by the workers on their SIPs, in a single
+   *         line and without repetitions.
    */
   public String getCurrentAction() {
-    return currentAction;
+    if (done) {
+      return I18n.t(Constants.I18N_DONE);
+    }
+    return joinProgresses(progress -> progress.action);
   }
 
   /**
-   * @return The name of the SIP currently being processed.
+   * @return The names of the SIPs being created by the workers, in a single
+   *         line.
    */
   public String getCurrentSipName() {
-    return currentSipName;
+    return joinProgresses(progress -> progress.sipName);
+  }
+
+  private String joinProgresses(Function<SipProgress, String> value) {
+    List<Map.Entry<Thread, SipProgress>> entries = new ArrayList<>(progresses.entrySet());
+    entries.sort(Comparator.comparingLong(entry -> entry.getKey().getId()));
+    // the creation modal shows each value in a single line label
+    Set<String> texts = new LinkedHashSet<>();
+    for (Map.Entry<Thread, SipProgress> entry : entries) {
+      String text = value.apply(entry.getValue());
+      if (text != null && !text.isEmpty()) {
+        texts.add(text);
+      }
+    }
+    return String.join(", ", texts);
+  }
+
+  /**
+   * Sets the handler called when a SIP can't be created.
+   *
+   * @param errorHandler
+   *          The handler that receives the SIP and the cause of the error
+   */
+  public void setErrorHandler(BiConsumer<Sip, Exception> errorHandler) {
+    this.errorHandler = errorHandler;
+  }
+
+  protected void showError(Sip sip, Exception e) {
+    errorHandler.accept(sip, e);
+  }
+
+  /**
+   * Creates the SIPs using a pool of workers, with at most two SIPs per worker
+   * waiting to be created. If the report was requested, the lines of each SIP
+   * are added to it as soon as the SIP is created.
+   * <p>
+   * The name of each SIP is built in this thread, in the order of the SIPs,
+   * before the SIP is handed to a worker, since some builders (e.g. with serial
+   * numbers) depend on the SIPs named before. The workers get it with
+   * {@link #getSipName(Sip)}.
+   * </p>
+   *
+   * @param sipCreator
+   *          The function that creates a SIP, returning the pair (path of the
+   *          created SIP, SIP) or null if the SIP couldn't be created
+   * @param sipNameBuilder
+   *          The builder of the names of the SIPs
+   */
+  protected void createSips(Function<Sip, Pair> sipCreator, SIPNameBuilder sipNameBuilder) {
+    validateMetadata();
+    int threads = Math.max(1,
+      ConfigurationManager.getConfigAsInt(Constants.CONF_K_SIP_CREATION_THREADS, DEFAULT_THREADS));
+    Semaphore inFlight = new Semaphore(threads * 2);
+    InventoryReportCreator report = null;
+    if (createReport) {
+      report = new InventoryReportCreator(outputPath);
+      report.start();
+    }
+    final InventoryReportCreator sipsReport = report;
+    AtomicInteger workerCount = new AtomicInteger();
+    workers = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, getName() + "-worker-" + workerCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    try {
+      for (Sip preview : previews.keySet()) {
+        if (canceled) {
+          break;
+        }
+        inFlight.acquire();
+        sipNames.put(preview, createSipName(preview, sipNameBuilder));
+        try {
+          workers.execute(() -> {
+            try {
+              if (!canceled) {
+                Pair pathSIP;
+                try {
+                  if (preview instanceof SipPreview) {
+                    // the directories created while the SIP was being edited
+                    // may have received more content
+                    ((SipPreview) preview).refreshCreatedContent();
+                  }
+                  pathSIP = sipCreator.apply(preview);
+                } catch (RuntimeException e) {
+                  LOGGER.error("Error creating SIP", e);
+                  unsuccessful.add(preview);
+                  showError(preview, e);
+                  pathSIP = null;
+                }
+                if (pathSIP != null) {
+                  cacheChecksums(pathSIP.getValue());
+                  if (sipsReport != null) {
+                    sipsReport.addSip((Path) pathSIP.getKey(), pathSIP.getValue());
+                  }
+                }
+              }
+            } finally {
+              progresses.remove(Thread.currentThread());
+              sipNames.remove(preview);
+              inFlight.release();
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          // the workers have been shut down by a cancel
+          inFlight.release();
+          break;
+        }
+      }
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      canceled = true;
+      workers.shutdownNow();
+    }
+
+    if (report != null) {
+      report.close();
+    }
+    deleteScratchDir();
+    ChecksumCache.save();
+    done = true;
+  }
+
+  /*
+   * Validates the metadata of all the SIPs against their schemas before they
+   * are created. As before, the SIPs with invalid metadata are still created,
+   * the errors are logged so the metadata can be fixed.
+   */
+  private void validateMetadata() {
+    Map<DescriptiveMetadata, Sip> owners = new IdentityHashMap<>();
+    for (Sip preview : previews.keySet()) {
+      for (DescriptiveMetadata metadata : preview.getMetadata()) {
+        owners.put(metadata, preview);
+      }
+    }
+    try {
+      Map<DescriptiveMetadata, Exception> errors = Controller.validateSchemas(owners.keySet());
+      for (Map.Entry<DescriptiveMetadata, Exception> error : errors.entrySet()) {
+        LOGGER.warn("Metadata {} of SIP {} isn't valid: {}", error.getKey().getId(),
+          owners.get(error.getKey()).getId(), error.getValue().getMessage());
+      }
+    } catch (InterruptedException e) {
+      canceled = true;
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * Keeps the checksums computed while creating the SIP, so that they don't
+   * have to be computed again by the report or in following exportations.
+   */
+  private void cacheChecksums(Object sip) {
+    Collection<ZipEntryInfo> zipEntries = null;
+    if (sip instanceof SIP) {
+      zipEntries = ((SIP) sip).getZipEntries().values();
+    } else if (sip instanceof org.roda_project.commons_ip2.model.SIP) {
+      zipEntries = ((org.roda_project.commons_ip2.model.SIP) sip).getZipEntries().values();
+    }
+    if (zipEntries != null) {
+      for (ZipEntryInfo zipEntry : zipEntries) {
+        // the temporary files are deleted at the end of the exportation
+        if (zipEntry.getFilePath() != null && !isTempFile(zipEntry.getFilePath())) {
+          ChecksumCache.putChecksum(zipEntry.getFilePath(), zipEntry.getChecksumAlgorithm(), zipEntry.getChecksum());
+        }
+      }
+    }
+  }
+
+  private boolean isTempFile(Path path) {
+    for (Path tempDir : tempDirs.values()) {
+      if (path.startsWith(tempDir)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The progress of the SIP being created by the current worker.
+   */
+  protected SipProgress progress() {
+    return progresses.computeIfAbsent(Thread.currentThread(), thread -> new SipProgress());
+  }
+
+  /**
+   * @return The folder for the temporary files of the current worker. It's
+   *         deleted when all the SIPs have been created.
+   * @throws UncheckedIOException
+   *           if the folder can't be created. The workers never share a
+   *           folder, since they write files with the same names, so the SIP
+   *           fails instead.
+   */
+  protected Path getWorkerTempDir() {
+    return tempDirs.computeIfAbsent(Thread.currentThread(), thread -> {
+      try {
+        return Files.createTempDirectory(getScratchDir(), "worker-");
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to create a temporary folder for " + thread.getName(), e);
+      }
+    });
+  }
+
+  /*
+   * The temporary files are created in the output folder when possible, so
+   * they're on the same volume as the SIPs.
+   */
+  private synchronized Path getScratchDir() throws IOException {
+    if (scratchDir == null) {
+      try {
+        scratchDir = Files.createTempDirectory(outputPath, "." + Constants.RODAIN_TEMP_DIR_PREFIX);
+      } catch (IOException e) {
+        LOGGER.debug("Unable to create a temporary folder in '{}', using the system's temporary folder", outputPath,
+          e);
+        scratchDir = Files.createTempDirectory(Constants.RODAIN_TEMP_DIR_PREFIX);
+      }
+    }
+    return scratchDir;
+  }
+
+  private synchronized void deleteScratchDir() {
+    if (scratchDir != null) {
+      deleteDirectory(scratchDir);
+      scratchDir = null;
+    }
+    tempDirs.clear();
+    stagedMetadata.clear();
   }
 
   protected void deleteDirectory(Path dir) {
@@ -139,33 +426,59 @@ public abstract class SimpleSipCreator extends Thread {
     }
   }
 
+  /**
+   * Writes the content of a metadata file of a SIP to a temporary file. The
+   * templates are filled with the SIP's values, the other contents are copied
+   * without being loaded to memory. The SIP libraries only add files from the
+   * file system, so the content can't be streamed to them directly.
+   * <p>
+   * The temporary file of a metadata id is reused by the worker for all its
+   * SIPs, and a rendered template isn't written again if it's the same as the
+   * one already in the file.
+   * </p>
+   *
+   * @param sip
+   *          The SIP
+   * @param metadata
+   *          The metadata of the SIP
+   * @param dir
+   *          The folder where the file is written
+   * @return The path of the written file
+   * @throws IOException
+   *           if the file can't be written
+   */
+  protected Path writeMetadata(Sip sip, DescriptiveMetadata metadata, Path dir) throws IOException {
+    Path metadataPath = dir.resolve(metadata.getId());
+    if (metadata.getCreatorOption() == MetadataOption.TEMPLATE) {
+      String content = sip.getMetadataWithReplaces(metadata);
+      if (!content.equals(stagedMetadata.get(metadataPath)) || !Files.exists(metadataPath)) {
+        FileUtils.writeStringToFile(metadataPath.toFile(), content, Constants.RODAIN_DEFAULT_ENCODING);
+        stagedMetadata.put(metadataPath, content);
+      }
+    } else {
+      stagedMetadata.remove(metadataPath);
+      try (InputStream content = metadata.getContentStream()) {
+        Files.copy(content, metadataPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    return metadataPath;
+  }
+
   protected Map<String, String> getMetadata(String input) {
     Map<String, String> result = new HashMap<>();
 
     try {
-      // apply the XSLT to the metadata content
-      String transformed = transformXML(input);
-
-      // parse the resulting document
-      DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-      Document doc = dBuilder.parse(new InputSource(new StringReader(transformed)));
-
-      // add all the field nodes to the result map. Example: <field
+      // apply the XSLT to the metadata content and add all the field elements
+      // of the result to the map as they are produced. Example: <field
       // name=".RDF.Description.date_txt">27-05-2016</field>
-      NodeList fields = doc.getElementsByTagName("field");
-      for (int i = 0; i < fields.getLength(); i++) {
-        Node field = fields.item(i);
-        NamedNodeMap attributes = field.getAttributes();
-        String fieldName = attributes.getNamedItem("name").getNodeValue();
-        String fieldValue = field.getTextContent().replaceAll("\\r\\n|\\r|\\n", " ");
-        result.put(fieldName, fieldValue);
-      }
+      Transformer trans = getPlainTemplates().newTransformer();
+      trans.transform(new StreamSource(new StringReader(input)), new SAXResult(new FieldsHandler(result)));
     } catch (Exception e) {
       LOGGER.info("Error parsing the XML file, falling back to simple metadata mode", e);
       // if there's been an error when transforming the XML, remove all
       // new-lines from the metadata text and add it to the result as a single
       // line
+      result.clear();
       String noBreaks = input.replaceAll("\\r\\n|\\r|\\n", " ");
       result.put("metadata", noBreaks);
     }
@@ -173,17 +486,53 @@ public abstract class SimpleSipCreator extends Thread {
     return result;
   }
 
-  private String transformXML(String input) throws TransformerException, IOException {
-    Source xmlSource = new StreamSource(new ByteArrayInputStream(input.getBytes()));
-    StreamSource xsltSource = new StreamSource(ClassLoader.getSystemResource("plain.xslt").openStream());
+  /*
+   * The stylesheet is compiled once and shared by all the workers, a
+   * Transformer is created from it for each transformation.
+   */
+  private static synchronized Templates getPlainTemplates() throws TransformerConfigurationException, IOException {
+    if (plainTemplates == null) {
+      try (InputStream xslt = ClassLoader.getSystemResource("plain.xslt").openStream()) {
+        plainTemplates = TransformerFactory.newInstance().newTemplates(new StreamSource(xslt));
+      }
+    }
+    return plainTemplates;
+  }
+
+  /**
+   * Collects the field elements produced by plain.xslt.
+   */
+  private static class FieldsHandler extends DefaultHandler {
+    private final Map<String, String> fields;
+    private String fieldName = null;
+    private StringBuilder fieldValue = new StringBuilder();
+
+    FieldsHandler(Map<String, String> fields) {
+      this.fields = fields;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      if ("field".equals(localName) || "field".equals(qName)) {
+        fieldName = attributes.getValue("name");
+        fieldValue.setLength(0);
+      }
+    }
 
-    TransformerFactory transFact = TransformerFactory.newInstance();
-    Transformer trans = transFact.newTransformer(xsltSource);
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (fieldName != null) {
+        fieldValue.append(ch, start, length);
+      }
+    }
 
-    Writer writer = new StringWriter();
-    StreamResult streamResult = new StreamResult(writer);
-    trans.transform(xmlSource, streamResult);
-    return writer.toString();
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      if (fieldName != null && ("field".equals(localName) || "field".equals(qName))) {
+        fields.put(fieldName, fieldValue.toString().replaceAll("\\r\\n|\\r|\\n", " "));
+        fieldName = null;
+      }
+    }
   }
 
   /**
@@ -192,6 +541,9 @@ public abstract class SimpleSipCreator extends Thread {
   public void cancel() {
     canceled = true;
     interrupt();
+    if (workers != null) {
+      workers.shutdownNow();
+    }
   }
 
   /**
@@ -209,14 +561,31 @@ public abstract class SimpleSipCreator extends Thread {
     return -1;
   }
 
-  public void createReport(Map<Path, Object> sips) {
-    InventoryReportCreator reportCreator = new InventoryReportCreator(outputPath);
-    reportCreator.start(sips);
+  public String createSipName(Sip sip, SIPNameBuilder sipNameBuilder) {
+    return Controller.encodeId(sipNameBuilder.build(sip));
   }
 
-  public String createSipName(Sip sip, SIPNameBuilder sipNameBuilder) {
-    String name = sipNameBuilder.build(sip);
-    return Controller.encodeId(name);
+  /**
+   * @return The name built for the SIP when it was handed to the worker, see
+   *         {@link #createSips(Function, SIPNameBuilder)}.
+   */
+  protected String getSipName(Sip sip) {
+    return sipNames.get(sip);
+  }
+
+  /**
+   * The progress of the SIP being created by a worker, updated by the SIP's
+   * observer callbacks, which run in the worker's thread.
+   */
+  protected static class SipProgress {
+    protected int filesOfZip;
+    protected int filesAdded = 0;
+    protected int filesCount = 0;
+    protected int representationsCount;
+    // the progress of the SIP as a fraction of all the SIPs to create
+    protected volatile float sipProgress;
+    protected volatile String sipName;
+    protected volatile String action;
   }
 
 }
@@ -1,6 +1,7 @@
 package org.roda.rodain.core.report;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -9,23 +10,28 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.io.IOUtils;
 import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.utils.ChecksumCache;
 import org.roda_project.commons_ip.model.SIP;
 import org.roda_project.commons_ip.utils.METSZipEntryInfo;
 import org.roda_project.commons_ip.utils.ZipEntryInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import gov.loc.repository.bagit.Bag;
-import gov.loc.repository.bagit.BagFactory;
-import gov.loc.repository.bagit.Manifest;
-
-public class InventoryReportCreator {
+/**
+ * Writes the inventory report of an exportation, a CSV file with a line for
+ * each file of each created SIP.
+ * <p>
+ * The lines of a SIP are appended as soon as the SIP is created (see
+ * {@link #addSip(Path, Object)}), so the SIPs don't have to be kept until the
+ * end of the exportation and the files are still available to get their size.
+ * </p>
+ */
+public class InventoryReportCreator implements Closeable {
   private static final Logger LOGGER = LoggerFactory.getLogger(InventoryReportCreator.class.getName());
 
   private static final String CSV_FIELD_FILE_SIZE = "size";
@@ -34,18 +40,20 @@ public class InventoryReportCreator {
   private static final String CSV_FIELD_FILE_ABSOLUTE_PATH = "absolute path";
   private static final String CSV_FIELD_FILE_RELATIVE_ZIP_PATH = "zip relative path";
   private static final String CSV_FIELD_SIP_ID = "SIP ID";
-  private static final String MD5 = "MD5";
 
   private Path outputPath;
+  private BufferedWriter fileWriter;
+  private CSVPrinter csvFilePrinter;
 
   public InventoryReportCreator(Path outputPath) {
     this.outputPath = outputPath;
   }
 
-  public void start(Map<Path, Object> sips) {
-    CSVPrinter csvFilePrinter = null;
+  /**
+   * Creates the report file and writes its header.
+   */
+  public synchronized void start() {
     CSVFormat csvFileFormat = CSVFormat.DEFAULT.withRecordSeparator(System.lineSeparator());
-    BufferedWriter fileWriter = null;
 
     try {
       StringBuffer name = new StringBuffer();
@@ -65,86 +73,107 @@ public class InventoryReportCreator {
       headers.add(CSV_FIELD_FILE_CHECKSUM);
       headers.add(CSV_FIELD_FILE_SIZE);
       csvFilePrinter.printRecord(headers);
-      for (Map.Entry<Path, Object> entry : sips.entrySet()) {
-        Object sipToProcess = entry.getValue();
-        List<List<String>> lines = null;
-        if (sipToProcess instanceof Bag) {
-          lines = bagToCSVLines(entry.getKey());
-        } else if (sipToProcess instanceof SIP) {
-          SIP sip = (SIP) sipToProcess;
-          lines = generateCsvLines(entry.getKey(), sip.getZipEntries().values());
-        } else if (sipToProcess instanceof org.roda_project.commons_ip2.model.SIP) {
-          org.roda_project.commons_ip2.model.SIP sip = (org.roda_project.commons_ip2.model.SIP) sipToProcess;
-          lines = generateCsvLines(entry.getKey(), sip.getZipEntries().values());
-        }
-
-        if (lines != null) {
-          csvFilePrinter.printRecords(lines);
-        }
-      }
+      csvFilePrinter.flush();
     } catch (IOException e) {
       LOGGER.error("Error creating inventory report", e);
-    } finally {
-      IOUtils.closeQuietly(fileWriter);
-      IOUtils.closeQuietly(csvFilePrinter);
+      close();
     }
   }
 
-  private List<List<String>> generateCsvLines(Path path, Collection<ZipEntryInfo> values) {
-    List<List<String>> lines = new ArrayList<List<String>>();
-    for (ZipEntryInfo entry : values) {
-      if (!(entry instanceof METSZipEntryInfo)) {
+  /**
+   * Appends the lines of a SIP that has just been created. Can be called by
+   * several threads.
+   *
+   * @param path
+   *          The path of the created SIP
+   * @param sipToProcess
+   *          The SIP (commons-ip or commons-ip2)
+   */
+  public void addSip(Path path, Object sipToProcess) {
+    List<List<String>> lines = null;
+    if (sipToProcess instanceof SIP) {
+      SIP sip = (SIP) sipToProcess;
+      lines = generateCsvLines(path, sip.getZipEntries().values());
+    } else if (sipToProcess instanceof org.roda_project.commons_ip2.model.SIP) {
+      org.roda_project.commons_ip2.model.SIP sip = (org.roda_project.commons_ip2.model.SIP) sipToProcess;
+      lines = generateCsvLines(path, sip.getZipEntries().values());
+    }
+
+    if (lines != null) {
+      synchronized (this) {
+        if (csvFilePrinter == null) {
+          return;
+        }
         try {
-          List<String> line = new ArrayList<String>();
-          // FIXME 20170310 hsilva: the following will fail for temp. files that
-          // were most certainly deleted before getting to this point of sip
-          // generation
-          Long size = Files.size(entry.getFilePath());
-          line.add(path.getFileName().toString());
-          line.add(entry.getName());
-          line.add(entry.getFilePath().toString());
-          line.add(entry.getChecksumAlgorithm());
-          line.add(entry.getChecksum());
-          line.add(Long.toString(size));
-          lines.add(line);
+          csvFilePrinter.printRecords(lines);
+          csvFilePrinter.flush();
         } catch (IOException e) {
-          LOGGER.debug("Error calculating file size", e);
+          LOGGER.error("Error writing the inventory report lines of {}", path, e);
         }
       }
     }
-    return lines;
   }
 
-  private List<List<String>> bagToCSVLines(Path path) {
-    BagFactory fact = new BagFactory();
-
-    Bag bag = fact.createBag(path.toFile());
+  /**
+   * Closes the report file.
+   */
+  @Override
+  public synchronized void close() {
+    IOUtils.closeQuietly(csvFilePrinter);
+    IOUtils.closeQuietly(fileWriter);
+    csvFilePrinter = null;
+    fileWriter = null;
+  }
 
+  private List<List<String>> generateCsvLines(Path path, Collection<ZipEntryInfo> values) {
     List<List<String>> lines = new ArrayList<List<String>>();
-    for (Manifest manifest : bag.getTagManifests()) {
-      for (Map.Entry<String, String> entry : manifest.entrySet()) {
+    for (ZipEntryInfo entry : values) {
+      if (!(entry instanceof METSZipEntryInfo)) {
         List<String> line = new ArrayList<String>();
         line.add(path.getFileName().toString());
-        line.add(entry.getKey());
-        line.add("");
-        line.add(MD5);
-        line.add(entry.getValue());
-        line.add(Long.toString(bag.getBagFile(entry.getKey()).getSize()));
+        line.add(entry.getName());
+        line.add(entry.getFilePath().toString());
+        addChecksum(line, entry);
+        line.add(getSize(entry));
         lines.add(line);
       }
     }
-    for (Manifest manifest : bag.getPayloadManifests()) {
-      for (Map.Entry<String, String> entry : manifest.entrySet()) {
-        List<String> line = new ArrayList<String>();
-        line.add(path.getFileName().toString());
-        line.add(entry.getKey());
-        line.add("");
-        line.add(MD5);
-        line.add(entry.getValue());
-        line.add(Long.toString(bag.getBagFile(entry.getKey()).getSize()));
-        lines.add(line);
+    return lines;
+  }
+
+  /*
+   * Adds the checksum type and checksum columns computed by the SIP library,
+   * using the checksum cache when the library didn't compute the file's
+   * checksum.
+   */
+  private void addChecksum(List<String> line, ZipEntryInfo entry) {
+    String algorithm = entry.getChecksumAlgorithm();
+    String checksum = entry.getChecksum();
+    if ((checksum == null || checksum.isEmpty()) && entry.getFilePath() != null) {
+      if (algorithm == null || algorithm.isEmpty()) {
+        algorithm = ChecksumCache.SHA256;
+      }
+      try {
+        checksum = ChecksumCache.getChecksum(entry.getFilePath(), algorithm);
+      } catch (IOException | RuntimeException e) {
+        LOGGER.debug("Error calculating file checksum", e);
       }
     }
-    return lines;
+    line.add(algorithm == null ? "" : algorithm);
+    line.add(checksum == null ? "" : checksum);
+  }
+
+  /*
+   * The lines are generated right after the SIP is built, so the files
+   * (temporary ones included) still exist. If a file is gone anyway, its line
+   * is kept without the size.
+   */
+  private String getSize(ZipEntryInfo entry) {
+    try {
+      return Long.toString(Files.size(entry.getFilePath()));
+    } catch (IOException e) {
+      LOGGER.debug("Error calculating file size", e);
+      return "";
+    }
   }
 }
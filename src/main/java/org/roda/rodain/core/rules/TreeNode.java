@@ -1,15 +1,30 @@
 package org.roda.rodain.core.rules;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * @author Andre Pereira apereira@keep.pt
  * @since 05-10-2015.
@@ -18,10 +33,46 @@ import java.util.Set;
  *        Used in the Handlers to make a representation of the documents tree in
  *        a SIP
  *        </p>
+ *        <p>
+ *        The tree is kept compact so that SIPs with millions of files fit in
+ *        memory: a node that is a direct child of its parent only keeps its
+ *        file name (the path is rebuilt from the parent), the children array
+ *        is only allocated when the first child is added, the children are
+ *        only indexed by name in the nodes with many children and the
+ *        observers are only allocated in the nodes that have them. The
+ *        observers of a node are notified of the changes in the node and in
+ *        all its descendants, with the changed node as the argument.
+ *        </p>
+ *        <p>
+ *        The kind, size and modification time of the files seen by the
+ *        WalkFileTree are kept in the nodes, so they don't have to be read
+ *        again when the SIPs are previewed and exported. The attributes of the
+ *        nodes created without them are read the first time they're needed.
+ *        </p>
  */
-public class TreeNode extends Observable {
+public class TreeNode {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TreeNode.class.getName());
+  private static final int INITIAL_CHILDREN_CAPACITY = 4;
+  private static final int CHILDREN_INDEX_THRESHOLD = 16;
+  private static final byte KIND_UNKNOWN = 0;
+  private static final byte KIND_FILE = 1;
+  private static final byte KIND_DIRECTORY = 2;
+  private static final long UNKNOWN = -1;
+
+  private TreeNode parent;
+  // only one of them is set, the name when the node is a direct child of its
+  // parent, the full path otherwise
+  private String name;
   private Path path;
-  private Map<String, TreeNode> files;
+  private TreeNode[] children;
+  private int childrenCount = 0;
+  // the children by their key (see childKey), only kept in the nodes with many
+  // children
+  private Map<Object, TreeNode> childrenIndex;
+  private NodeObservable observable;
+  private byte kind = KIND_UNKNOWN;
+  private long size = UNKNOWN;
+  private long lastModified = UNKNOWN;
 
   /**
    * Creates a new TreeNode object.
@@ -31,56 +82,165 @@ public class TreeNode extends Observable {
    */
   public TreeNode(Path path) {
     this.path = path;
-    files = new HashMap<>();
+  }
+
+  /**
+   * Creates a new TreeNode object, keeping the attributes read while walking
+   * the file tree.
+   *
+   * @param path
+   *          The path to be associated to the TreeNode.
+   * @param attrs
+   *          The attributes of the path, can be null
+   */
+  public TreeNode(Path path, BasicFileAttributes attrs) {
+    this.path = path;
+    setAttributes(attrs);
   }
 
   /**
    * Flattens the TreeNode, i.e., moves all it's child nodes to one level.
    */
   public void flatten() {
-    Map<String, TreeNode> newFiles = new HashMap<>();
-    for (String file : files.keySet()) {
-      if (Files.isDirectory(Paths.get(file))) {
-        files.get(file).flatten(); // flatten the children
-        newFiles.putAll(files.get(file).getOnlyFiles()); // add its files to the
-        // new Map
-      } else
-        newFiles.put(file, files.get(file));
+    List<TreeNode> files = new ArrayList<>();
+    List<Path> filesPaths = new ArrayList<>();
+    Deque<TreeNode> nodes = new ArrayDeque<>();
+    Deque<Path> paths = new ArrayDeque<>();
+    Path nodePath = getPath();
+    for (int i = childrenCount - 1; i >= 0; i--) {
+      nodes.push(children[i]);
+      paths.push(children[i].getPath(nodePath));
+    }
+    while (!nodes.isEmpty()) {
+      TreeNode node = nodes.pop();
+      Path current = paths.pop();
+      if (node.isDirectory(current)) {
+        for (int i = node.childrenCount - 1; i >= 0; i--) {
+          nodes.push(node.children[i]);
+          paths.push(node.children[i].getPath(current));
+        }
+      } else {
+        files.add(node);
+        filesPaths.add(current);
+      }
+    }
+
+    children = null;
+    childrenCount = 0;
+    childrenIndex = null;
+    for (int i = 0; i < files.size(); i++) {
+      attach(files.get(i), filesPaths.get(i), nodePath);
     }
-    files = newFiles;
 
     changed();
   }
 
+  /**
+   * Iterates the paths of the tree that starts in the TreeNode where this
+   * method is called, without keeping them all in memory.
+   *
+   * @return An Iterable with all the paths from the tree, this node's path
+   *         included.
+   */
+  public Iterable<Path> fullTree() {
+    return () -> new FullTreeIterator(this, getPath());
+  }
+
+  /**
+   * Iterates the nodes of the tree that starts in the TreeNode where this
+   * method is called.
+   *
+   * @return An Iterable with all the nodes from the tree, this node included.
+   */
+  public Iterable<TreeNode> fullTreeNodes() {
+    return () -> new Iterator<TreeNode>() {
+      private final Deque<TreeNode> nodes = new ArrayDeque<>(Collections.singleton(TreeNode.this));
+
+      @Override
+      public boolean hasNext() {
+        return !nodes.isEmpty();
+      }
+
+      @Override
+      public TreeNode next() {
+        if (nodes.isEmpty()) {
+          throw new NoSuchElementException();
+        }
+        TreeNode node = nodes.pop();
+        for (int i = node.childrenCount - 1; i >= 0; i--) {
+          nodes.push(node.children[i]);
+        }
+        return node;
+      }
+    };
+  }
+
+  /**
+   * @return The number of nodes of the tree that starts in the TreeNode where
+   *         this method is called, this node included.
+   */
+  public int getFullTreeSize() {
+    int result = 0;
+    Deque<TreeNode> nodes = new ArrayDeque<>();
+    nodes.push(this);
+    while (!nodes.isEmpty()) {
+      TreeNode node = nodes.pop();
+      result++;
+      for (int i = 0; i < node.childrenCount; i++) {
+        nodes.push(node.children[i]);
+      }
+    }
+    return result;
+  }
+
   /**
    * @return A set with all the paths from the tree that starts in the TreeNode
    *         where this method is called.
+   * @see #fullTree()
    */
   public Set<String> getFullTreePaths() {
     Set<String> result = new HashSet<>();
-    result.add(path.toString());
-    for (TreeNode tn : files.values())
-      result.addAll(tn.getFullTreePaths());
+    for (Path p : fullTree()) {
+      result.add(p.toString());
+    }
     return result;
   }
 
   /**
    * @return A set with all the paths from the tree that starts in the TreeNode
    *         where this method is called.
+   * @see #fullTree()
    */
   public Set<Path> getFullTreePathsAsPaths() {
     Set<Path> result = new HashSet<>();
-    result.add(path);
-    for (TreeNode tn : files.values())
-      result.addAll(tn.getFullTreePathsAsPaths());
+    for (Path p : fullTree()) {
+      result.add(p);
+    }
     return result;
   }
 
   /**
-   * @return The direct children of the TreeNode.
+   * @return A map with the direct children of the TreeNode, indexed by their
+   *         paths. Changing the map doesn't change the node.
    */
   public Map<String, TreeNode> getChildren() {
-    return files;
+    Map<String, TreeNode> result = new LinkedHashMap<>();
+    Path nodePath = getPath();
+    for (int i = 0; i < childrenCount; i++) {
+      result.put(children[i].getPath(nodePath).toString(), children[i]);
+    }
+    return result;
+  }
+
+  /**
+   * @return The direct children of the TreeNode. The list is a read-only view
+   *         and must not be used after the node is changed.
+   */
+  public List<TreeNode> getChildNodes() {
+    if (childrenCount == 0) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(Arrays.asList(children).subList(0, childrenCount));
   }
 
   /**
@@ -89,9 +249,11 @@ public class TreeNode extends Observable {
    */
   public Map<String, TreeNode> getOnlyFiles() {
     Map<String, TreeNode> result = new HashMap<>();
-    for (String file : files.keySet()) {
-      if (!Files.isDirectory(Paths.get(file))) // add to result if it's a file
-        result.put(file, files.get(file));
+    Path nodePath = getPath();
+    for (int i = 0; i < childrenCount; i++) {
+      Path childPath = children[i].getPath(nodePath);
+      if (!children[i].isDirectory(childPath)) // add to result if it's a file
+        result.put(childPath.toString(), children[i]);
     }
     return result;
   }
@@ -107,22 +269,36 @@ public class TreeNode extends Observable {
    */
   public Set<String> ignoreContent(Set<Path> paths) {
     Set<String> result = new HashSet<>();
-    if (paths.contains(path)) {
+    ignoreContent(paths, getPath(), result);
+    return result;
+  }
+
+  private void ignoreContent(Set<Path> paths, Path nodePath, Set<String> result) {
+    if (paths.contains(nodePath)) {
       // this item and all its children
-      result.addAll(getFullTreePaths());
+      Iterator<Path> it = new FullTreeIterator(this, nodePath);
+      while (it.hasNext()) {
+        result.add(it.next().toString());
+      }
     } else {
-      Set<Path> toRemove = new HashSet<>();
-      for (TreeNode tn : files.values()) {
-        result.addAll(tn.ignoreContent(paths));
-        if (paths.contains(tn.path))
-          toRemove.add(tn.path);
+      int kept = 0;
+      for (int i = 0; i < childrenCount; i++) {
+        TreeNode child = children[i];
+        Path childPath = child.getPath(nodePath);
+        child.ignoreContent(paths, childPath, result);
+        if (paths.contains(childPath)) {
+          child.detach(childPath);
+        } else {
+          children[kept++] = child;
+        }
       }
-      if (!toRemove.isEmpty()) {
-        for (Path p : toRemove)
-          remove(p);
+      if (kept != childrenCount) {
+        Arrays.fill(children, kept, childrenCount, null);
+        childrenCount = kept;
+        childrenIndex = null;
+        changed();
       }
     }
-    return result;
   }
 
   /**
@@ -132,7 +308,10 @@ public class TreeNode extends Observable {
    *          The map with the new TreeNodes
    */
   public void addAll(Map<String, TreeNode> map) {
-    files.putAll(map);
+    Path nodePath = getPath();
+    for (TreeNode node : map.values()) {
+      attach(node, node.getPath(), nodePath);
+    }
     changed();
   }
 
@@ -143,7 +322,7 @@ public class TreeNode extends Observable {
    *          The new TreeNode to be added
    */
   public void add(TreeNode node) {
-    files.put(node.getPath().toString(), node);
+    attach(node, node.getPath(), getPath());
     changed();
   }
 
@@ -155,7 +334,20 @@ public class TreeNode extends Observable {
    *          added, the method creates a new TreeNode with this path.
    */
   public void add(Path node) {
-    files.put(node.toString(), new TreeNode(node));
+    add(node, null);
+  }
+
+  /**
+   * Adds a new TreeNode to the node's children
+   *
+   * @param node
+   *          The path of the file to be added to the children. Before being
+   *          added, the method creates a new TreeNode with this path.
+   * @param attrs
+   *          The attributes of the file, can be null
+   */
+  public void add(Path node, BasicFileAttributes attrs) {
+    attach(new TreeNode(null, attrs), node, getPath());
     changed();
   }
 
@@ -167,8 +359,16 @@ public class TreeNode extends Observable {
    * @return The removed TreeNode
    */
   public TreeNode remove(Path path) {
-    TreeNode result = files.get(path.toString());
-    files.remove(path.toString());
+    TreeNode result = findChild(childKey(path, getPath()));
+    if (result != null) {
+      int i = indexOfChild(result);
+      System.arraycopy(children, i + 1, children, i, childrenCount - i - 1);
+      children[--childrenCount] = null;
+      if (childrenIndex != null) {
+        childrenIndex.remove(childKey(result));
+      }
+      result.detach(path);
+    }
     changed();
     return result;
   }
@@ -177,14 +377,81 @@ public class TreeNode extends Observable {
    * @return The node's path
    */
   public Path getPath() {
-    return path;
+    if (path != null) {
+      return path;
+    }
+    return parent.getPath().resolve(name);
+  }
+
+  /**
+   * @return True if the node is a directory. Only reads the attributes of the
+   *         path if they weren't kept when the node was created.
+   */
+  public boolean isDirectory() {
+    return isDirectory(null);
+  }
+
+  /**
+   * @return The size of the file, read from the path if it wasn't kept when
+   *         the node was created.
+   * @throws IOException
+   *           if the attributes of the file can't be read
+   */
+  public long getSize() throws IOException {
+    if (size == UNKNOWN) {
+      setAttributes(Files.readAttributes(getPath(), BasicFileAttributes.class));
+    }
+    return size;
+  }
+
+  /**
+   * @return The modification time of the path in milliseconds, -1 if it's not
+   *         known.
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Reads the attributes of the node again, to be used before exporting the
+   * node, when the files may have changed since the tree was walked. If the
+   * node is a directory that was modified, entries may have been added,
+   * removed or replaced, so the attributes kept in its children are discarded
+   * and read again when needed.
+   *
+   * @return False if the node changed since its attributes were kept, true
+   *         otherwise.
+   */
+  public boolean revalidate() {
+    Path nodePath = getPath();
+    byte oldKind = kind;
+    long oldSize = size, oldLastModified = lastModified;
+    try {
+      setAttributes(Files.readAttributes(nodePath, BasicFileAttributes.class));
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read attributes of {}", nodePath, e);
+      setAttributes(null);
+    }
+    if (oldKind == KIND_UNKNOWN || (oldKind == kind && oldSize == size && oldLastModified == lastModified)) {
+      return true;
+    }
+    LOGGER.debug("{} changed since the file tree was walked", nodePath);
+    for (int i = 0; i < childrenCount; i++) {
+      children[i].setAttributes(null);
+    }
+    return false;
   }
 
   /**
    * @return A set of the node's children's paths.
    */
   public Set<String> getKeys() {
-    return files.keySet();
+    Set<String> result = new LinkedHashSet<>();
+    Path nodePath = getPath();
+    for (int i = 0; i < childrenCount; i++) {
+      result.add(children[i].getPath(nodePath).toString());
+    }
+    return result;
   }
 
   /**
@@ -193,25 +460,188 @@ public class TreeNode extends Observable {
    * @return The TreeNode with the path received as parameter
    */
   public TreeNode get(String key) {
-    return files.get(key);
-  }
-
-  private void changed() {
-    setChanged();
-    notifyObservers();
+    return findChild(childKey(Paths.get(key), getPath()));
   }
 
   /**
-   * Adds a new observer to the TreeNode and all its children
+   * Adds a new observer to the TreeNode. The observer is notified of the
+   * changes in the node and in all its descendants.
    *
    * @param o
    *          The Observer to be added
    */
-  @Override
   public void addObserver(Observer o) {
-    super.addObserver(o);
-    for (TreeNode tn : files.values()) {
-      tn.addObserver(o);
+    if (observable == null) {
+      observable = new NodeObservable();
+    }
+    observable.addObserver(o);
+  }
+
+  private void changed() {
+    for (TreeNode node = this; node != null; node = node.parent) {
+      if (node.observable != null) {
+        node.observable.changed(this);
+      }
+    }
+  }
+
+  /*
+   * The path, when known, avoids rebuilding it from the root if the kind of
+   * the node has to be read.
+   */
+  private boolean isDirectory(Path nodePath) {
+    if (kind == KIND_UNKNOWN) {
+      kind = Files.isDirectory(nodePath != null ? nodePath : getPath()) ? KIND_DIRECTORY : KIND_FILE;
+    }
+    return kind == KIND_DIRECTORY;
+  }
+
+  /*
+   * Symbolic links and other special files are kept as unknown, so they're
+   * resolved the same way they were before the attributes were kept.
+   */
+  private void setAttributes(BasicFileAttributes attrs) {
+    if (attrs == null) {
+      kind = KIND_UNKNOWN;
+      size = UNKNOWN;
+      lastModified = UNKNOWN;
+    } else {
+      kind = attrs.isDirectory() ? KIND_DIRECTORY : attrs.isRegularFile() ? KIND_FILE : KIND_UNKNOWN;
+      size = attrs.size();
+      lastModified = attrs.lastModifiedTime().toMillis();
+    }
+  }
+
+  /*
+   * The path of the node when its parent's path is already known, to avoid
+   * rebuilding it from the root.
+   */
+  private Path getPath(Path parentPath) {
+    return path != null ? path : parentPath.resolve(name);
+  }
+
+  /*
+   * A child with the same path as the new node is replaced by it, as when the
+   * children were kept in a map indexed by their paths.
+   */
+  private void attach(TreeNode node, Path nodePath, Path thisPath) {
+    Object key = childKey(nodePath, thisPath);
+    TreeNode existing = findChild(key);
+    node.parent = this;
+    if (key instanceof String) {
+      node.name = (String) key;
+      node.path = null;
+    } else {
+      node.name = null;
+      node.path = nodePath;
+    }
+
+    if (existing != null) {
+      children[indexOfChild(existing)] = node;
+      if (existing != node) {
+        existing.detach(nodePath);
+      }
+    } else {
+      if (children == null) {
+        children = new TreeNode[INITIAL_CHILDREN_CAPACITY];
+      } else if (childrenCount == children.length) {
+        children = Arrays.copyOf(children, childrenCount * 2);
+      }
+      children[childrenCount++] = node;
+    }
+    if (childrenIndex != null) {
+      childrenIndex.put(key, node);
+    }
+  }
+
+  /*
+   * The key of a child is its name when it's a direct child of this node and
+   * its path otherwise, so the children can be found without building their
+   * paths. A name is never equal to a path, so both share the index.
+   */
+  private static Object childKey(Path childPath, Path thisPath) {
+    Path childParentPath = childPath.getParent();
+    if (childParentPath != null && childParentPath.equals(thisPath)) {
+      return childPath.getFileName().toString();
+    }
+    return childPath;
+  }
+
+  private static Object childKey(TreeNode child) {
+    return child.name != null ? child.name : child.path;
+  }
+
+  private TreeNode findChild(Object key) {
+    if (childrenIndex == null && childrenCount > CHILDREN_INDEX_THRESHOLD) {
+      childrenIndex = new HashMap<>();
+      for (int i = 0; i < childrenCount; i++) {
+        childrenIndex.put(childKey(children[i]), children[i]);
+      }
+    }
+    if (childrenIndex != null) {
+      return childrenIndex.get(key);
+    }
+    for (int i = 0; i < childrenCount; i++) {
+      if (key.equals(childKey(children[i]))) {
+        return children[i];
+      }
+    }
+    return null;
+  }
+
+  private int indexOfChild(TreeNode child) {
+    for (int i = 0; i < childrenCount; i++) {
+      if (children[i] == child) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void detach(Path nodePath) {
+    path = nodePath;
+    name = null;
+    parent = null;
+  }
+
+  private static class NodeObservable extends Observable {
+    void changed(TreeNode node) {
+      setChanged();
+      notifyObservers(node);
+    }
+  }
+
+  /**
+   * Pre-order iterator of the paths of a tree, building each path from its
+   * parent's path.
+   */
+  private static class FullTreeIterator implements Iterator<Path> {
+    private final Deque<TreeNode> nodes = new ArrayDeque<>();
+    private final Deque<Path> paths = new ArrayDeque<>();
+
+    FullTreeIterator(TreeNode root, Path rootPath) {
+      nodes.push(root);
+      paths.push(rootPath);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !nodes.isEmpty();
+    }
+
+    @Override
+    public Path next() {
+      if (nodes.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      TreeNode node = nodes.pop();
+      Path nodePath = paths.pop();
+      for (int i = node.childrenCount - 1; i >= 0; i--) {
+        TreeNode child = node.children[i];
+        nodes.push(child);
+        paths.push(child.getPath(nodePath));
+      }
+      return nodePath;
     }
   }
 }
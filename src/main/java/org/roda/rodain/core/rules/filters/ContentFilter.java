@@ -1,9 +1,11 @@
 package org.roda.rodain.core.rules.filters;
 
-import java.io.File;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.roda.rodain.core.Constants.PathState;
 import org.roda.rodain.core.PathCollection;
@@ -11,17 +13,21 @@ import org.roda.rodain.core.PathCollection;
 /**
  * @author Andre Pereira apereira@keep.pt
  * @since 20-10-2015.
+ *
+ *        <p>
+ *        The ignored and mapped paths are kept in a tree with one node per
+ *        path segment, so checking a path and all its ancestors is a single
+ *        descent of the tree.
+ *        </p>
  */
 public class ContentFilter {
-  private HashSet<String> ignored;
-  private HashSet<String> mapped;
+  private Segment root;
 
   /**
    * Creates a new ContentFilter object
    */
   public ContentFilter() {
-    ignored = new HashSet<>();
-    mapped = new HashSet<>();
+    root = new Segment();
   }
 
   /**
@@ -31,7 +37,7 @@ public class ContentFilter {
    *          The path to be added to the ignored paths list.
    */
   public void addIgnored(String st) {
-    ignored.add(st);
+    add(st);
   }
 
   /**
@@ -41,7 +47,9 @@ public class ContentFilter {
    *          The collection of paths to be added to the ignored paths list.
    */
   public void addAllIgnored(Collection col) {
-    ignored.addAll(col);
+    for (Object st : col) {
+      add(st.toString());
+    }
   }
 
   /**
@@ -51,7 +59,7 @@ public class ContentFilter {
    *          The path to be added to the mapped paths list.
    */
   public void addMapped(String st) {
-    mapped.add(st);
+    add(st);
   }
 
   /**
@@ -61,7 +69,9 @@ public class ContentFilter {
    *          The collection of paths to be added to the mapped paths list.
    */
   public void addAllMapped(Collection col) {
-    mapped.addAll(col);
+    for (Object st : col) {
+      add(st.toString());
+    }
   }
 
   /**
@@ -70,6 +80,7 @@ public class ContentFilter {
    * <p/>
    * <p>
    * Additionally, checks if any ancestor of the path is in one of the lists.
+   * So, when a directory is filtered, all its descendants are filtered too.
    * </p>
    *
    * @param path
@@ -79,35 +90,81 @@ public class ContentFilter {
    *         otherwise.
    */
   public boolean filter(String path) {
-    boolean result = false;
-    if (ignored.contains(path) || mapped.contains(path)
-      || PathCollection.getState(Paths.get(path)) != PathState.NORMAL
-      || IgnoredFilter.isIgnored(Paths.get(path))) {
-      result = true;
-    } else if (path.startsWith("\\\\")) {
-      //for UNC paths iterations throw the subs will bring an exception
-      return false;
-    } else {
-      int index = 0, end = path.length(), fromIndex = 0;
-      String separator = File.separator;
-
-      while (index < end && !result) { // while we still have string to read and
-        // haven't found a matching path
-        index = path.indexOf(separator, fromIndex); // get the path until the
-        // slash we're checking
-        if (index == -1) {
-          break;
-        } else {
-          String sub = path.substring(0, index);
-          fromIndex = index + 1; // move the starting index for the next
-          // iteration so it's after the slash
-          if (ignored.contains(sub) || mapped.contains(sub) || IgnoredFilter.isIgnored(Paths.get(sub))) {
-            result = true;
-          }
-        }
-      }
+    return filter(Paths.get(path));
+  }
+
+  /**
+   * @see #filter(String)
+   */
+  public boolean filter(Path path) {
+    return isListed(path) || PathCollection.getState(path) != PathState.NORMAL || IgnoredFilter.isIgnored(path);
+  }
+
+  /**
+   * Like {@link #filter(Path)}, for the paths reached by a walk that skips the
+   * filtered directories, so the ancestors of the path have already been
+   * checked against the ignore rules. The file system isn't read: only the
+   * name of the path is checked and the empty directories are left to the
+   * walk, which lists them anyway (see
+   * {@link IgnoredFilter#isIgnoredEmptyDirectory(java.util.List)}).
+   *
+   * @param path
+   *          The path to be filtered
+   * @return True if the path or any of its ancestors is in any of the lists,
+   *         if the state of the path in the PathCollection isn't NORMAL or if
+   *         its name is ignored, false otherwise.
+   */
+  public boolean filterWalked(Path path) {
+    return isListed(path) || PathCollection.peekState(path) != PathState.NORMAL || IgnoredFilter.isIgnoredName(path);
+  }
+
+  /*
+   * True if the path or one of its ancestors was added to the ignored or
+   * mapped paths.
+   */
+  private boolean isListed(Path path) {
+    Segment segment = root;
+    Path pathRoot = path.getRoot();
+    if (pathRoot != null) {
+      segment = segment.get(pathRoot.toString());
+    }
+    for (int i = 0; segment != null && !segment.listed && i < path.getNameCount(); i++) {
+      segment = segment.get(path.getName(i).toString());
+    }
+    return segment != null && segment.listed;
+  }
+
+  private void add(String st) {
+    Path path;
+    try {
+      path = Paths.get(st);
+    } catch (InvalidPathException e) {
+      return;
+    }
+    Segment segment = root;
+    Path pathRoot = path.getRoot();
+    if (pathRoot != null) {
+      segment = segment.getOrCreate(pathRoot.toString());
     }
-    return result;
+    for (int i = 0; i < path.getNameCount(); i++) {
+      segment = segment.getOrCreate(path.getName(i).toString());
+    }
+    segment.listed = true;
   }
 
+  private static class Segment {
+    private Map<String, Segment> children;
+    private boolean listed = false;
+
+    Segment get(String name) {
+      return children == null ? null : children.get(name);
+    }
+
+    Segment getOrCreate(String name) {
+      if (children == null) {
+        children = new HashMap<>();
+      }
+      return children.computeIfAbsent(name, k -> new Segment());
+    }
+  }
 }
@@ -3,11 +3,14 @@ package org.roda.rodain.core.rules.filters;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -17,12 +20,22 @@ import org.slf4j.LoggerFactory;
 /**
  * @author Andre Pereira apereira@keep.pt
  * @since 04-01-2016.
+ *
+ *        <p>
+ *        The rules are combined in a single pattern and the result of each
+ *        file name is cached, since the same names (e.g. ".git", "Thumbs.db")
+ *        appear again and again while walking a file tree. The rules with
+ *        back-references or named groups are matched on their own, since
+ *        combining them would renumber their groups.
+ *        </p>
  */
 public class IgnoredFilter {
   private static final Logger LOGGER = LoggerFactory.getLogger(IgnoredFilter.class.getName());
+  private static final int MAX_CACHED_NAMES = 10000;
 
-  private static Set<String> rules = new HashSet<>();
-  private static Map<String, Pattern> rulesPatterns = new HashMap<>();
+  private static Set<String> rules = new LinkedHashSet<>();
+  private static volatile RulePatterns rulePatterns;
+  private static final Map<String, Boolean> cachedNames = new ConcurrentHashMap<>();
 
   private IgnoredFilter() {
   }
@@ -33,9 +46,13 @@ public class IgnoredFilter {
    * @param rule
    *          The new ignore rule.
    */
-  public static void addIgnoreRule(String rule) {
+  public static synchronized void addIgnoreRule(String rule) {
+    // compiled on its own first, so an invalid rule can't change the meaning
+    // of the others once combined
+    Pattern.compile(rule);
     if (rules.add(rule)) {
-      rulesPatterns.put(rule, Pattern.compile(rule));
+      rulePatterns = new RulePatterns(rules);
+      cachedNames.clear();
     }
   }
 
@@ -48,7 +65,7 @@ public class IgnoredFilter {
    */
   public static boolean isIgnored(Path path) {
     boolean result = false;
-    if (!rules.isEmpty()) {
+    if (rulePatterns != null) {
       int i = path.getNameCount() - 1;
       for (; i >= 0; i--) {
         if (isIgnored(path.getName(i).toString())) {
@@ -64,6 +81,63 @@ public class IgnoredFilter {
     return result;
   }
 
+  /**
+   * Checks the children of a directory at once, for a directory listing. The
+   * directory's path is checked once and each child only by its name, and only
+   * the children that are directories are checked for being empty.
+   *
+   * @param directory
+   *          The directory
+   * @param children
+   *          The paths of the children and whether each one is a directory
+   * @return The children that are ignored
+   * @see #isIgnored(Path)
+   */
+  public static Set<Path> getIgnoredChildren(Path directory, Map<Path, Boolean> children) {
+    Set<Path> result = new HashSet<>();
+    if (rulePatterns == null) {
+      return result;
+    }
+    for (int i = directory.getNameCount() - 1; i >= 0; i--) {
+      if (isIgnored(directory.getName(i).toString())) {
+        result.addAll(children.keySet());
+        return result;
+      }
+    }
+    for (Map.Entry<Path, Boolean> child : children.entrySet()) {
+      Path path = child.getKey();
+      if (isIgnoredName(path) || (child.getValue() && isDirectoryEmpty(path))) {
+        result.add(path);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Checks only the file name of the path, for the walks that already skip
+   * the ignored directories, so the ancestors don't have to be checked again.
+   *
+   * @param path
+   *          The path to be filtered
+   * @return True if the file name matches one filter, false otherwise
+   */
+  public static boolean isIgnoredName(Path path) {
+    Path fileName = path.getFileName();
+    return rulePatterns != null && fileName != null && isIgnored(fileName.toString());
+  }
+
+  /**
+   * Checks a directory listed by a walk for being empty, which also makes it
+   * ignored (see {@link #isIgnored(Path)}), without listing it again.
+   *
+   * @param entries
+   *          The entries the walk listed in the directory
+   * @return True if there are rules and the directory has no entries
+   */
+  public static boolean isIgnoredEmptyDirectory(List<Path> entries) {
+    return rulePatterns != null && entries.isEmpty();
+  }
+
   /**
    * Checks if a value has been ignored by a rule set in the configuration file
    * of the application.
@@ -73,16 +147,14 @@ public class IgnoredFilter {
    * @return True if the value is ignored, false otherwise.
    */
   private static boolean isIgnored(String value) {
-    boolean result = false;
-    for (String rule : rules) {
-      Pattern p = rulesPatterns.get(rule);
-      Matcher m = p.matcher(value);
-      if (m.matches()) {
-        result = true;
-        break;
+    Boolean result = cachedNames.get(value);
+    if (result == null) {
+      result = rulePatterns.matches(value);
+      if (cachedNames.size() >= MAX_CACHED_NAMES) {
+        cachedNames.clear();
       }
+      cachedNames.put(value, result);
     }
-
     return result;
   }
 
@@ -130,4 +202,68 @@ public class IgnoredFilter {
     }
     return isEmpty;
   }
+
+  /*
+   * Combining the rules as (?:r1)|(?:r2) renumbers the groups of the rules
+   * after the first one, which breaks their back-references (\1, \k<name>),
+   * and a group name can only be used once in a pattern.
+   */
+  private static boolean canBeCombined(String rule) {
+    boolean quoted = false;
+    for (int i = 0; i < rule.length(); i++) {
+      char c = rule.charAt(i);
+      if (quoted) {
+        if (c == '\\' && rule.startsWith("E", i + 1)) {
+          quoted = false;
+          i++;
+        }
+      } else if (c == '\\' && i + 1 < rule.length()) {
+        char next = rule.charAt(++i);
+        if ((next >= '1' && next <= '9') || next == 'k') {
+          return false;
+        }
+        quoted = next == 'Q';
+      } else if (c == '(' && rule.startsWith("(?<", i) && i + 3 < rule.length()
+        && Character.isLetter(rule.charAt(i + 3))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static class RulePatterns {
+    // the rules that can be combined, null if there are none
+    private final Pattern combined;
+    // the rules matched on their own
+    private final List<Pattern> separate;
+
+    RulePatterns(Set<String> rules) {
+      StringBuilder combinedRules = new StringBuilder();
+      List<Pattern> separateRules = new ArrayList<>();
+      for (String rule : rules) {
+        if (canBeCombined(rule)) {
+          if (combinedRules.length() > 0) {
+            combinedRules.append('|');
+          }
+          combinedRules.append("(?:").append(rule).append(')');
+        } else {
+          separateRules.add(Pattern.compile(rule));
+        }
+      }
+      combined = combinedRules.length() == 0 ? null : Pattern.compile(combinedRules.toString());
+      separate = Collections.unmodifiableList(separateRules);
+    }
+
+    boolean matches(String value) {
+      if (combined != null && combined.matcher(value).matches()) {
+        return true;
+      }
+      for (Pattern pattern : separate) {
+        if (pattern.matcher(value).matches()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
 }
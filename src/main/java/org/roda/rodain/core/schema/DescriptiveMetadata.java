@@ -1,7 +1,10 @@
 package org.roda.rodain.core.schema;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -18,6 +21,7 @@ import org.roda.rodain.core.Constants.MetadataOption;
 import org.roda.rodain.core.Controller;
 import org.roda.rodain.core.template.TemplateFieldValue;
 import org.roda.rodain.core.template.TemplateUtils;
+import org.roda.rodain.core.utils.ContentStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,7 +37,14 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 @JsonIgnoreProperties({"path", "loaded", "values"})
 public class DescriptiveMetadata {
   private static final Logger LOGGER = LoggerFactory.getLogger(DescriptiveMetadata.class.getName());
-  private String id, content, contentEncoding, metadataType;
+  private static final int INLINE_CONTENT_LIMIT = 2 * 1024;
+
+  private String id, contentEncoding, metadataType;
+  // the content is kept in UTF-8 and is only encoded in Base64 when serialized
+  // to JSON, see getContent/setContent. Small contents are kept here, the
+  // others in the ContentStore
+  private byte[] contentBytes;
+  private String contentKey;
   private List<String> relatedTags = new ArrayList<>();
   private Map<String, Object> additionalProperties = new HashMap<>();
   private TreeSet<TemplateFieldValue> values;
@@ -169,7 +180,11 @@ public class DescriptiveMetadata {
    * @return The content
    */
   public String getContent() {
-    return this.content;
+    byte[] bytes = getContentBytes();
+    if (bytes == null) {
+      return null;
+    }
+    return new String(Base64.encodeBase64(bytes), StandardCharsets.US_ASCII);
   }
 
   /**
@@ -182,32 +197,50 @@ public class DescriptiveMetadata {
     if (!loaded) {
       loadMetadata();
     }
-    if (content != null) {
-      byte[] decoded = Base64.decodeBase64(content);
-      return new String(decoded);
-    } else {
-      return "";
+    byte[] bytes = getContentBytes();
+    if (bytes != null) {
+      return new String(bytes, StandardCharsets.UTF_8);
+    } else if (!loaded && path != null) {
+      // the content of an unmodified file isn't kept, it's read when needed
+      try {
+        return Controller.loadMetadataFile(path);
+      } catch (IOException e) {
+        LOGGER.error("Error reading metadata file", e);
+      }
     }
+    return "";
   }
 
-  private void loadMetadata() {
-    try {
-      if (creatorOption == MetadataOption.TEMPLATE) {
-        if (getTemplateType() != null && getContent() == null) {
-          String tempContent = ConfigurationManager.getTemplateContent(getTemplateType());
-          setContentDecoded(TemplateUtils.getXMLFromTemplate(tempContent));
-          loaded = true;
-        } else {
-          loaded = true;
-        }
-      } else if (path != null) {
-        String tempContent = Controller.loadMetadataFile(path);
-        setContentDecoded(tempContent);
-        loaded = true;
+  /**
+   * Gets the content of the description object metadata as a stream, without
+   * loading it to memory when it's in a file.
+   *
+   * @return The content
+   * @throws IOException
+   *           if the content can't be read
+   */
+  @JsonIgnore
+  public InputStream getContentStream() throws IOException {
+    if (!loaded) {
+      loadMetadata();
+    }
+    if (contentKey != null) {
+      return ContentStore.open(contentKey);
+    } else if (contentBytes != null) {
+      return new ByteArrayInputStream(contentBytes);
+    } else if (!loaded && path != null) {
+      return Files.newInputStream(path);
+    }
+    return new ByteArrayInputStream(new byte[0]);
+  }
 
+  private void loadMetadata() {
+    if (creatorOption == MetadataOption.TEMPLATE) {
+      if (getTemplateType() != null && !hasContent()) {
+        String tempContent = ConfigurationManager.getTemplateContent(getTemplateType());
+        setContentDecoded(TemplateUtils.getXMLFromTemplate(tempContent));
       }
-    } catch (IOException e) {
-      LOGGER.error("Error reading metadata file", e);
+      loaded = true;
     }
   }
 
@@ -218,19 +251,49 @@ public class DescriptiveMetadata {
    *          The content encoded in Base64
    */
   public void setContent(String content) {
-    this.content = content;
+    setContentBytes(content == null ? null : Base64.decodeBase64(content));
   }
 
   /**
-   * Sets the content of the description object metadata.
+   * Sets the content of the description object metadata. From then on, the
+   * content replaces the file the metadata was created from, if any.
    *
    * @param content
    *          The decoded content
    */
   public void setContentDecoded(String content) {
     if (content != null) {
-      byte[] encoded = Base64.encodeBase64(content.getBytes());
-      this.content = new String(encoded);
+      setContentBytes(content.getBytes(StandardCharsets.UTF_8));
+      loaded = true;
+    }
+  }
+
+  private boolean hasContent() {
+    return contentKey != null || contentBytes != null;
+  }
+
+  private byte[] getContentBytes() {
+    if (contentKey == null) {
+      return contentBytes;
+    }
+    try {
+      return ContentStore.get(contentKey);
+    } catch (IOException e) {
+      LOGGER.error("Error reading metadata content from the store", e);
+      return null;
+    }
+  }
+
+  private void setContentBytes(byte[] bytes) {
+    contentBytes = bytes;
+    contentKey = null;
+    if (bytes != null && bytes.length > INLINE_CONTENT_LIMIT) {
+      try {
+        contentKey = ContentStore.put(bytes);
+        contentBytes = null;
+      } catch (IOException e) {
+        LOGGER.debug("Unable to add the metadata content to the store, keeping it in memory", e);
+      }
     }
   }
 
@@ -255,13 +318,24 @@ public class DescriptiveMetadata {
 
   @JsonIgnore
   public InputStream getSchema() {
+    String schemaName = getSchemaName();
+    return schemaName == null ? null : ConfigurationManager.getSchemaFile(schemaName);
+  }
+
+  /**
+   * @return The name of the schema of the metadata, the template type or, when
+   *         there's none, the name of the metadata file without extension.
+   *         Null if the metadata has neither.
+   */
+  @JsonIgnore
+  public String getSchemaName() {
     // FIXME 20170307 hsilva: possible NPE
-    InputStream result = null;
+    String result = null;
     if (templateType != null) {
-      result = ConfigurationManager.getSchemaFile(templateType);
+      result = templateType;
     } else {
       if (path != null)
-        result = ConfigurationManager.getSchemaFile(FilenameUtils.removeExtension(path.getFileName().toString()));
+        result = FilenameUtils.removeExtension(path.getFileName().toString());
     }
     return result;
   }
@@ -300,7 +374,10 @@ public class DescriptiveMetadata {
     DescriptiveMetadata result = new DescriptiveMetadata();
     result.setCreatorOption(creatorOption);
     result.setId(id);
-    result.setContent(content);
+    // the content is never modified in place, so it can be shared
+    result.contentBytes = contentBytes;
+    result.contentKey = contentKey;
+    result.loaded = loaded;
     result.setContentEncoding(contentEncoding);
     result.setValues((TreeSet<TemplateFieldValue>) values.clone());
     result.setPath(path);
@@ -313,7 +390,7 @@ public class DescriptiveMetadata {
 
   @Override
   public String toString() {
-    return "DescObjMetadata [id=" + id + ", content=" + content + ", contentEncoding=" + contentEncoding
+    return "DescObjMetadata [id=" + id + ", content=" + getContent() + ", contentEncoding=" + contentEncoding
       + ", metadataType=" + metadataType + ", additionalProperties=" + additionalProperties + ", values=" + values
       + ", path=" + path + ", loaded=" + loaded + ", creatorOption=" + creatorOption + ", metadataVersion="
       + metadataVersion + ", templateType=" + templateType + ", relatedTags=" + relatedTags + "]";
@@ -1,10 +1,17 @@
 package org.roda.rodain.core.sip;
 
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
@@ -15,6 +22,7 @@ import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.PathState;
 import org.roda.rodain.core.PathCollection;
 import org.roda.rodain.core.rules.TreeNode;
+import org.roda.rodain.core.rules.filters.IgnoredFilter;
 import org.roda.rodain.core.schema.DescriptiveMetadata;
 import org.roda.rodain.core.schema.Sip;
 import org.slf4j.Logger;
@@ -28,6 +36,9 @@ public class SipPreview extends Sip implements Observer {
   private static final Logger LOGGER = LoggerFactory.getLogger(SipPreview.class.getName());
   private Set<SipRepresentation> representations;
   private Set<TreeNode> documentation;
+  // the directories added by addCreatedContent, which aren't watched, so the
+  // content created in them afterwards is only found by walking them again
+  private final Set<Path> createdDirectories = new LinkedHashSet<>();
   private boolean contentModified = false;
   private boolean removed = false;
 
@@ -86,18 +97,188 @@ public class SipPreview extends Sip implements Observer {
    *          The set of paths to be removed
    */
   public void ignoreContent(Set<Path> paths) {
-    Set<String> ignored = new HashSet<>();
+    PathCollection.addPaths(removeContent(paths), PathState.NORMAL);
+  }
+
+  /**
+   * Removes from the SIP's content and documentation the paths that were
+   * deleted from the file system. Unlike {@link #ignoreContent(Set)}, the paths
+   * aren't set back as NORMAL, since they no longer exist.
+   *
+   * @param paths
+   *          The set of paths that were deleted
+   */
+  public synchronized void removeDeletedContent(Set<Path> paths) {
+    createdDirectories.removeAll(paths);
+    removeContent(paths);
+    removeDocumentation(paths);
+  }
+
+  /**
+   * Adds to the SIP's content a file or directory that was created in one of
+   * its directories.
+   *
+   * @param created
+   *          The node of the path that was created, with its content
+   * @return True if the path's directory is part of the SIP's content, false
+   *         otherwise
+   */
+  public synchronized boolean addCreatedContent(TreeNode created) {
+    Path path = created.getPath();
+    TreeNode node = findContentNode(path.getParent());
+    if (node == null || !node.isDirectory()) {
+      return false;
+    }
+    if (node.get(path.toString()) == null) {
+      node.add(created);
+    }
+    if (created.isDirectory()) {
+      createdDirectories.add(path);
+    }
+    return true;
+  }
+
+  /**
+   * Walks again the directories added with {@link #addCreatedContent(TreeNode)},
+   * adding the content created in them after they were walked. Must be called
+   * before the SIP is exported.
+   */
+  public synchronized void refreshCreatedContent() {
+    for (Path path : createdDirectories) {
+      TreeNode node = findContentNode(path);
+      if (node == null || !node.isDirectory()) {
+        // removed from the SIP or deleted
+        continue;
+      }
+      TreeNode walked = createContentNode(path);
+      if (walked != null) {
+        addMissingContent(node, walked);
+      }
+    }
+  }
+
+  /*
+   * Adds the children of the walked node that the SIP's node doesn't have,
+   * unless they were removed from the SIP (set as NORMAL) or ignored.
+   */
+  private static void addMissingContent(TreeNode node, TreeNode walked) {
+    for (TreeNode child : walked.getChildNodes()) {
+      Path childPath = child.getPath();
+      TreeNode existing = node.get(childPath.toString());
+      if (existing == null) {
+        if (PathCollection.peekState(childPath) == PathState.MAPPED) {
+          node.add(child);
+        }
+      } else if (existing.isDirectory() && child.isDirectory()) {
+        addMissingContent(existing, child);
+      }
+    }
+  }
+
+  /**
+   * Walks a file or directory that was created in the file system, to be added
+   * to the SIP that contains its directory, skipping the ignored files.
+   *
+   * @param path
+   *          The path that was created
+   * @return The node of the path, with its content, or null if the path can't
+   *         be walked
+   * @see #addCreatedContent(TreeNode)
+   */
+  public static TreeNode createContentNode(Path path) {
+    Deque<TreeNode> nodes = new ArrayDeque<>();
+    List<TreeNode> result = new ArrayList<>();
+    try {
+      Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (IgnoredFilter.isIgnoredName(dir) && !dir.equals(path)) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          nodes.add(new TreeNode(dir, attrs));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (nodes.isEmpty()) {
+            result.add(new TreeNode(file, attrs));
+          } else if (!IgnoredFilter.isIgnoredName(file)) {
+            nodes.peekLast().add(file, attrs);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+          TreeNode node = nodes.removeLast();
+          if (nodes.isEmpty()) {
+            result.add(node);
+          } else {
+            nodes.peekLast().add(node);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      LOGGER.debug("Unable to walk the created path {}", path, e);
+    }
+    return result.isEmpty() ? null : result.get(0);
+  }
+
+  /*
+   * Returns the node of the path in the SIP's content, or null if it's not part
+   * of it.
+   */
+  private TreeNode findContentNode(Path path) {
+    for (SipRepresentation sr : representations) {
+      for (TreeNode tn : sr.getFiles()) {
+        TreeNode node = findNode(tn, path);
+        if (node != null) {
+          return node;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static TreeNode findNode(TreeNode root, Path path) {
+    Path nodePath = root.getPath();
+    if (path == null || !path.startsWith(nodePath)) {
+      return null;
+    }
+    TreeNode node = root;
+    for (Path name : nodePath.relativize(path)) {
+      if (name.toString().isEmpty()) {
+        // the path is the root itself
+        break;
+      }
+      nodePath = nodePath.resolve(name);
+      node = node.get(nodePath.toString());
+      if (node == null) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+  private Set<String> removeContent(Set<Path> paths) {
+    Set<String> removedPaths = new HashSet<>();
     Set<TreeNode> toRemove = new HashSet<>();
     for (SipRepresentation sr : representations) {
       for (TreeNode tn : sr.getFiles()) {
-        ignored.addAll(tn.ignoreContent(paths));
+        removedPaths.addAll(tn.ignoreContent(paths));
         if (paths.contains(tn.getPath()))
           toRemove.add(tn);
       }
       sr.getFiles().removeAll(toRemove);
     }
-
-    PathCollection.addPaths(ignored, PathState.NORMAL);
+    return removedPaths;
   }
 
   public void addRepresentation(SipRepresentation sipRep) {
@@ -134,15 +315,15 @@ public class SipPreview extends Sip implements Observer {
     // prepare
     for (SipRepresentation sr : representations) {
       for (TreeNode tn : sr.getFiles()) {
-        paths += tn.getFullTreePaths().size();
+        paths += tn.getFullTreeSize();
       }
     }
     // remove
     int update = 0;
     for (SipRepresentation sr : representations) {
       for (TreeNode tn : sr.getFiles()) {
-        for (String path : tn.getFullTreePaths()) {
-          PathCollection.addPath(Paths.get(path), PathState.NORMAL);
+        for (Path path : tn.fullTree()) {
+          PathCollection.addPath(path, PathState.NORMAL);
           removedPaths++;
           update++;
           if (update >= 10) {
@@ -174,7 +355,7 @@ public class SipPreview extends Sip implements Observer {
    */
   @Override
   public void update(Observable o, Object arg) {
-    if (o instanceof TreeNode) {
+    if (arg instanceof TreeNode) {
       contentModified = true;
       setChanged();
       notifyObservers();
@@ -184,7 +365,9 @@ public class SipPreview extends Sip implements Observer {
   public void removeRepresentation(SipRepresentation representation) {
     Set<Path> paths = new HashSet<>();
     for (TreeNode tn : representation.getFiles()) {
-      paths.addAll(tn.getFullTreePathsAsPaths());
+      for (Path path : tn.fullTree()) {
+        paths.add(path);
+      }
     }
     ignoreContent(paths);
     representations.remove(representation);
@@ -0,0 +1,188 @@
+package org.roda.rodain.core.sip.creators;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.io.FilenameUtils;
+import org.roda.rodain.core.Constants.MetadataOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the metadata files of the SIPs of a rule, for the metadata options that
+ * search for them in the file system.
+ * <ul>
+ * <li>DIFF_DIRECTORY: the metadata folder is indexed by file name (without
+ * extension) in a separate thread, in parallel with the walk of the rule's
+ * content.</li>
+ * <li>SAME_DIRECTORY: the metadata files matching the glob are kept for the
+ * most recently used folders, so a folder is listed at most once while its
+ * SIPs are created. The folders listed by the walk itself are given with
+ * {@link #directoryListed(Path, Collection)} and don't have to be listed
+ * again.</li>
+ * </ul>
+ */
+class MetadataResolver {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetadataResolver.class.getName());
+  private static final int MAX_CACHED_FOLDERS = 1024;
+
+  private final MetadataOption metadataOption;
+  private final PathMatcher matcher;
+  private FutureTask<Map<String, Set<Path>>> index;
+  private final Map<Path, Set<Path>> folderMatches = Collections
+    .synchronizedMap(new LinkedHashMap<Path, Set<Path>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, Set<Path>> eldest) {
+        return size() > MAX_CACHED_FOLDERS;
+      }
+    });
+
+  /**
+   * @param metadataOption
+   *          The metadata option of the rule
+   * @param metadataPath
+   *          The metadata folder, used with DIFF_DIRECTORY
+   * @param matcher
+   *          The matcher of the metadata files, used with SAME_DIRECTORY
+   */
+  MetadataResolver(MetadataOption metadataOption, Path metadataPath, PathMatcher matcher) {
+    this.metadataOption = metadataOption;
+    this.matcher = matcher;
+    if (metadataPath != null && metadataOption == MetadataOption.DIFF_DIRECTORY) {
+      index = new FutureTask<>(() -> indexFolder(metadataPath));
+      Thread indexer = new Thread(index, "metadata-indexer");
+      indexer.setDaemon(true);
+      indexer.start();
+    }
+  }
+
+  /**
+   * Gives the entries of a folder that has been listed elsewhere, so it doesn't
+   * have to be listed again.
+   *
+   * @param folder
+   *          The folder
+   * @param entries
+   *          The paths of the folder's entries
+   */
+  void directoryListed(Path folder, Collection<Path> entries) {
+    if (metadataOption != MetadataOption.SAME_DIRECTORY) {
+      return;
+    }
+    Set<Path> matches = null;
+    for (Path entry : entries) {
+      if (matcher.matches(entry.getFileName())) {
+        if (matches == null) {
+          matches = new HashSet<>();
+        }
+        matches.add(entry);
+      }
+    }
+    folderMatches.put(folder, matches == null ? Collections.emptySet() : matches);
+  }
+
+  /**
+   * @param sipPath
+   *          The path of the SIP
+   * @param directory
+   *          True if the path is a directory
+   * @return The metadata files of the SIP, a new set that can be modified
+   */
+  Set<Path> resolve(Path sipPath, boolean directory) {
+    switch (metadataOption) {
+      case DIFF_DIRECTORY:
+        return getFromIndex(sipPath);
+      case SAME_DIRECTORY:
+        return new HashSet<>(getFolderMatches(directory ? sipPath : sipPath.getParent()));
+      default:
+        return new HashSet<>();
+    }
+  }
+
+  private Set<Path> getFolderMatches(Path folder) {
+    if (folder == null) {
+      return Collections.emptySet();
+    }
+    Set<Path> matches = folderMatches.get(folder);
+    if (matches == null) {
+      matches = new HashSet<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+        for (Path entry : stream) {
+          if (matcher.matches(entry.getFileName())) {
+            matches.add(entry);
+          }
+        }
+      } catch (IOException e) {
+        LOGGER.debug("Unable to list the metadata files of '{}'", folder, e);
+      }
+      folderMatches.put(folder, matches);
+    }
+    return matches;
+  }
+
+  private Set<Path> getFromIndex(Path path) {
+    String fileNameWithExtension = path.getFileName().toString();
+    String fileName = FilenameUtils.removeExtension(fileNameWithExtension);
+
+    Set<Path> result = new HashSet<>();
+    Set<Path> paths = getIndex().get(fileName);
+    if (paths != null) {
+      for (Path p : paths) {
+        if (!p.getFileName().toString().equals(fileNameWithExtension))
+          result.add(p);
+      }
+    }
+    return result;
+  }
+
+  private Map<String, Set<Path>> getIndex() {
+    if (index == null) {
+      return Collections.emptyMap();
+    }
+    try {
+      return index.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOGGER.error("Error indexing the metadata folder", e);
+    }
+    return Collections.emptyMap();
+  }
+
+  private static Map<String, Set<Path>> indexFolder(Path metadataPath) {
+    Map<String, Set<Path>> metadata = new HashMap<>();
+    try {
+      Files.walkFileTree(metadataPath, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          String key = FilenameUtils.removeExtension(file.getFileName().toString());
+          metadata.computeIfAbsent(key, k -> new HashSet<>()).add(file);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (AccessDeniedException e) {
+      LOGGER.info("Access denied to file", e);
+    } catch (IOException e) {
+      LOGGER.error("Error walking the file tree", e);
+    }
+    return metadata;
+  }
+}
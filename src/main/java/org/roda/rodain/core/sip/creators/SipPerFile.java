@@ -1,34 +1,31 @@
 package org.roda.rodain.core.sip.creators;
 
-import java.io.IOException;
-import java.nio.file.AccessDeniedException;
-import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.MetadataOption;
 import org.roda.rodain.core.Constants.PathState;
 import org.roda.rodain.core.PathCollection;
 import org.roda.rodain.core.rules.TreeNode;
 import org.roda.rodain.core.rules.filters.ContentFilter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * @author Andre Pereira apereira@keep.pt
  * @since 05-10-2015.
  */
 public class SipPerFile extends SipPreviewCreator {
-  private static final Logger LOGGER = LoggerFactory.getLogger(SipPerFile.class.getName());
   private static final int UPDATEFREQUENCY = 500; // in milliseconds
   private long lastUIUpdate = 0;
+  // entry of a listed directory -> whether it's filtered, so the entries
+  // aren't checked again when they're visited
+  private final Map<Path, Boolean> filteredEntries = new HashMap<>();
 
   /**
    * Creates a new SipPreviewCreator where there's a new SIP created for each
@@ -50,37 +47,57 @@ public class SipPerFile extends SipPreviewCreator {
     super(id, filters, metadataOption, metadataType, metadataPath, templateType, metadataVersion);
   }
 
+  /**
+   * Adds the start path to the PathCollection. Its content is added while the
+   * tree is walked, see {@link #directoryEntries(Path, List)}.
+   *
+   * @param path
+   *          The path where the tree visit starts.
+   */
   @Override
   public void setStartPath(String path) {
-    try {
-      Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-          if (!filter(file))
-            PathCollection.simpleAddPath(file);
-          return isTerminated();
-        }
+    super.setStartPath(path);
+    Path start = Paths.get(path);
+    if (!filter(start))
+      PathCollection.simpleAddPath(start);
+  }
 
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-          if (!filter(dir))
-            PathCollection.simpleAddPath(dir);
-          return isTerminated();
-        }
-      });
-    } catch (AccessDeniedException e) {
-      LOGGER.info("Access denied to file", e);
-    } catch (IOException e) {
-      LOGGER.error("Error walking the file tree", e);
+  /**
+   * Adds the entries of the directory to the PathCollection before they're
+   * visited, so the state of the directory is only computed when all its
+   * content is known.
+   *
+   * @param path
+   *          The path of the directory.
+   * @param entries
+   *          The paths of the directory's entries
+   */
+  @Override
+  public void directoryEntries(Path path, List<Path> entries) {
+    super.directoryEntries(path, entries);
+    List<Path> toAdd = new ArrayList<>(entries.size());
+    for (Path entry : entries) {
+      boolean filtered = filter(entry);
+      filteredEntries.put(entry, filtered);
+      if (!filtered)
+        toAdd.add(entry);
     }
+    PathCollection.simpleAddPaths(toAdd);
   }
 
-  private FileVisitResult isTerminated() {
-    // terminate if the thread has been interrupted
-    if (Thread.interrupted() || cancelled) {
-      return FileVisitResult.TERMINATE;
-    }
-    return FileVisitResult.CONTINUE;
+  /**
+   * Skips the directories filtered by the content filters.
+   *
+   * @param path
+   *          The path of the directory.
+   * @param attrs
+   *          The attributes of the directory.
+   * @return The result of {@link #directoryVisitResult(Path)}
+   */
+  @Override
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    filteredEntries.remove(path);
+    return super.preVisitDirectory(path, attrs);
   }
 
   /**
@@ -92,7 +109,7 @@ public class SipPerFile extends SipPreviewCreator {
    */
   @Override
   public void postVisitDirectory(Path path) {
-    if (PathCollection.getState(path) == PathState.NORMAL) {
+    if (!isIgnoredEmpty(path) && PathCollection.getState(path) == PathState.NORMAL) {
       PathCollection.addPath(path, PathState.MAPPED);
     }
   }
@@ -107,8 +124,7 @@ public class SipPerFile extends SipPreviewCreator {
       result = true;
     }
     if (templateType != null) {
-      PathMatcher matcher = FileSystems.getDefault().getPathMatcher(Constants.MISC_GLOB + templateType);
-      result = matcher.matches(path.getFileName());
+      result = getTemplateMatcher().matches(path.getFileName());
     }
     return result;
   }
@@ -123,11 +139,13 @@ public class SipPerFile extends SipPreviewCreator {
    */
   @Override
   public void visitFile(Path path, BasicFileAttributes attrs) {
-    if (filter(path) || cancelled) {
+    // the entries were already checked when their directory was listed
+    Boolean filtered = filteredEntries.remove(path);
+    if ((filtered != null ? filtered : filter(path)) || cancelled) {
       return;
     }
 
-    TreeNode node = new TreeNode(path);
+    TreeNode node = new TreeNode(path, attrs);
     createSip(path, node);
 
     long now = System.currentTimeMillis();
@@ -1,12 +1,10 @@
 package org.roda.rodain.core.sip.creators;
 
-import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Set;
 
-import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.MetadataOption;
 import org.roda.rodain.core.rules.TreeNode;
 import org.roda.rodain.core.rules.filters.ContentFilter;
@@ -54,8 +52,7 @@ public class SipPerSelection extends SipPreviewCreator {
       result = true;
     }
     if (templateType != null) {
-      PathMatcher matcher = FileSystems.getDefault().getPathMatcher(Constants.MISC_GLOB + templateType);
-      result = matcher.matches(path.getFileName());
+      result = getTemplateMatcher().matches(path.getFileName());
     }
     return result;
   }
@@ -70,11 +67,13 @@ public class SipPerSelection extends SipPreviewCreator {
    *          The attributes of the directory.
    */
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    if (filter(path) || cancelled)
-      return;
-    TreeNode newNode = new TreeNode(path);
-    nodes.add(newNode);
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    FileVisitResult result = directoryVisitResult(path);
+    if (result == FileVisitResult.CONTINUE && !filter(path)) {
+      TreeNode newNode = new TreeNode(path, attrs);
+      nodes.add(newNode);
+    }
+    return result;
   }
 
   /**
@@ -91,6 +90,8 @@ public class SipPerSelection extends SipPreviewCreator {
 
     // pop the node of this directory and add it to its parent (if it exists)
     TreeNode node = nodes.removeLast();
+    if (isIgnoredEmpty(path))
+      return;
     if (!nodes.isEmpty())
       nodes.peekLast().add(node);
 
@@ -121,12 +122,12 @@ public class SipPerSelection extends SipPreviewCreator {
     if (filter(path) || cancelled)
       return;
     if (selectedPaths.contains(path.toString())) {
-      createSip(path, new TreeNode(path));
+      createSip(path, new TreeNode(path, attrs));
     } else {
       if (nodes.isEmpty()) {
         nodes.add(new TreeNode(path.getParent()));
       }
-      nodes.peekLast().add(path);
+      nodes.peekLast().add(path, attrs);
     }
   }
 }
@@ -1,15 +1,11 @@
 package org.roda.rodain.core.sip.creators;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.AccessDeniedException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -21,13 +17,13 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Set;
 
-import org.apache.commons.io.FilenameUtils;
 import org.roda.rodain.core.ConfigurationManager;
 import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.MetadataOption;
 import org.roda.rodain.core.Controller;
 import org.roda.rodain.core.rules.TreeNode;
 import org.roda.rodain.core.rules.filters.ContentFilter;
+import org.roda.rodain.core.rules.filters.IgnoredFilter;
 import org.roda.rodain.core.schema.DescriptiveMetadata;
 import org.roda.rodain.core.sip.SipPreview;
 import org.roda.rodain.core.sip.SipRepresentation;
@@ -42,6 +38,11 @@ import org.slf4j.LoggerFactory;
 public class SipPreviewCreator extends Observable implements TreeVisitor {
   private static final Logger LOGGER = LoggerFactory.getLogger(SipPreviewCreator.class.getName());
   private String startPath;
+  // the start path of the current walk, the only path whose ancestors haven't
+  // been checked by the content filters
+  private Path walkStart;
+  // the directories the walk listed without entries, see isIgnoredEmpty(Path)
+  private final Set<Path> emptyDirectories = new HashSet<>();
   // This map is returned, in full, to the SipPreviewNode when there's an update
   protected Map<String, SipPreview> sipsMap;
   // This ArrayList is used to keep the SIPs ordered.
@@ -58,7 +59,8 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   protected MetadataOption metadataOption;
   protected Path metadataPath;
   protected String templateType, metadataVersion;
-  private Map<String, Set<Path>> metadata;
+  private MetadataResolver metadataResolver;
+  private PathMatcher templateMatcher;
 
   protected boolean cancelled = false;
 
@@ -90,28 +92,8 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
     this.templateType = templateType;
     this.metadataVersion = metadataVersion;
     files = new HashSet<>();
-    metadata = new HashMap<>();
-
-    if (metadataPath != null && metadataOption == MetadataOption.DIFF_DIRECTORY) {
-      try {
-        Files.walkFileTree(metadataPath, new SimpleFileVisitor<Path>() {
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            String key = FilenameUtils.removeExtension(file.getFileName().toString());
-            Set<Path> paths = metadata.get(key);
-            if (paths == null)
-              paths = new HashSet<>();
-            paths.add(file);
-            metadata.put(key, paths);
-            return FileVisitResult.CONTINUE;
-          }
-        });
-      } catch (AccessDeniedException e) {
-        LOGGER.info("Access denied to file", e);
-      } catch (IOException e) {
-        LOGGER.error("Error walking the file tree", e);
-      }
-    }
+    metadataResolver = new MetadataResolver(metadataOption, metadataPath,
+      metadataOption == MetadataOption.SAME_DIRECTORY ? getTemplateMatcher() : null);
   }
 
   /**
@@ -147,14 +129,49 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   }
 
   protected boolean filter(Path path) {
-    String pathString = path.toString();
+    return filterContent(path);
+  }
+
+  /**
+   * Checks the path only with the content filters. When a directory is
+   * filtered by them, all its descendants are filtered too, so the walk never
+   * reaches them and only the start path is checked with its ancestors (see
+   * {@link ContentFilter#filterWalked(Path)}).
+   */
+  protected final boolean filterContent(Path path) {
+    boolean walked = walkStart != null && !walkStart.equals(path);
     for (ContentFilter cf : filters) {
-      if (cf.filter(pathString))
+      if (walked ? cf.filterWalked(path) : cf.filter(path))
         return true;
     }
     return false;
   }
 
+  /**
+   * Checks if the walk listed the directory without entries, which makes it
+   * ignored like the directories filtered by the content filters. Meant to be
+   * called once per directory, when it's post visited.
+   *
+   * @param path
+   *          The path of the directory.
+   * @return True if the directory is empty and ignored
+   */
+  protected boolean isIgnoredEmpty(Path path) {
+    return emptyDirectories.remove(path);
+  }
+
+  /**
+   * @return TERMINATE if the visitor has been cancelled, SKIP_SUBTREE if the
+   *         directory is filtered by the content filters (so there's nothing
+   *         to visit inside it) and CONTINUE otherwise.
+   */
+  protected FileVisitResult directoryVisitResult(Path path) {
+    if (cancelled) {
+      return FileVisitResult.TERMINATE;
+    }
+    return filterContent(path) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+  }
+
   /**
    * Sets the starting path of this TreeVisitor.
    *
@@ -164,6 +181,7 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   @Override
   public void setStartPath(String st) {
     startPath = st;
+    walkStart = Paths.get(st);
   }
 
   public String getStartPath() {
@@ -171,17 +189,35 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   }
 
   /**
-   * Creates a new TreeNode and adds it to the nodes Deque if the path isn't
-   * mapped or ignored.
+   * Gives the entries of the directory to the metadata resolver, so it doesn't
+   * list the directory again when searching for metadata files, and keeps the
+   * directory if it's empty, see {@link #isIgnoredEmpty(Path)}.
+   *
+   * @param path
+   *          The path of the directory.
+   * @param entries
+   *          The paths of the directory's entries
+   */
+  @Override
+  public void directoryEntries(Path path, List<Path> entries) {
+    metadataResolver.directoryListed(path, entries);
+    if (IgnoredFilter.isIgnoredEmptyDirectory(entries)) {
+      emptyDirectories.add(path);
+    }
+  }
+
+  /**
+   * Skips the directories filtered by the content filters.
    *
    * @param path
    *          The path of the directory.
    * @param attrs
    *          The attributes of the directory.
+   * @return The result of {@link #directoryVisitResult(Path)}
    */
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    // do nothing
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    return directoryVisitResult(path);
   }
 
   /**
@@ -233,7 +269,7 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   }
 
   protected SipPreview createSip(Path path, TreeNode node) {
-    Set<Path> metaPath = getMetadataPath(path);
+    Set<Path> metaPath = getMetadataPath(path, node.isDirectory());
 
     boolean jumpBaseFolder = ConfigurationManager.getConfigAsBoolean(Constants.CONF_K_SIP_CREATION_ALWAYS_JUMP_FOLDER,
       false);
@@ -245,11 +281,11 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
     // in that case we will jump the folder and add the files to the root of the
     // representation
 
-    if (Files.isDirectory(node.getPath())) {
+    if (node.isDirectory()) {
       onlyFiles = true;
       if (!jumpBaseFolder) {
-        for (String pt : node.getKeys()) {
-          if (Files.isDirectory(Paths.get(pt))) {
+        for (TreeNode child : node.getChildNodes()) {
+          if (child.isDirectory()) {
             onlyFiles = false;
             break;
           }
@@ -258,7 +294,7 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
     }
 
     if (onlyFiles) {
-      filesSet.addAll(node.getChildren().values());
+      filesSet.addAll(node.getChildNodes());
     } else {
       filesSet.add(node);
     }
@@ -297,16 +333,18 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
   }
 
   protected Set<Path> getMetadataPath(Path sipPath) {
+    return getMetadataPath(sipPath, Files.isDirectory(sipPath));
+  }
+
+  protected Set<Path> getMetadataPath(Path sipPath, boolean directory) {
     Set<Path> result = new HashSet<>();
     switch (metadataOption) {
       case SINGLE_FILE:
         result.add(metadataPath);
         break;
       case DIFF_DIRECTORY:
-        result = getFileFromDir(sipPath);
-        break;
       case SAME_DIRECTORY:
-        result.addAll(searchMetadata(sipPath));
+        result = metadataResolver.resolve(sipPath, directory);
         break;
       default:
         return null;
@@ -314,37 +352,15 @@ public class SipPreviewCreator extends Observable implements TreeVisitor {
     return result;
   }
 
-  private Set<Path> searchMetadata(Path sipPath) {
-    File dir = sipPath.toFile();
-    if (!dir.isDirectory()) {
-      dir = sipPath.getParent().toFile();
-    }
-
-    PathMatcher matcher = FileSystems.getDefault().getPathMatcher(Constants.MISC_GLOB + templateType);
-    File[] foundFiles = dir.listFiles((dir1, name) -> matcher.matches(Paths.get(name)));
-
-    Set<Path> result = new HashSet<>();
-    if (foundFiles != null && foundFiles.length > 0) {
-      for (File foundFile : foundFiles) {
-        result.add(foundFile.toPath());
-      }
-    }
-    return result;
-  }
-
-  private Set<Path> getFileFromDir(Path path) {
-    String fileNameWithExtension = path.getFileName().toString();
-    String fileName = FilenameUtils.removeExtension(fileNameWithExtension);
-
-    Set<Path> paths = metadata.get(fileName);
-    Set<Path> result = new HashSet<>();
-    if (paths != null) {
-      for (Path p : paths) {
-        if (!p.getFileName().toString().equals(fileNameWithExtension))
-          result.add(p);
-      }
+  /**
+   * @return The matcher of the metadata files' glob, compiled only once since
+   *         it's used for every visited path.
+   */
+  protected PathMatcher getTemplateMatcher() {
+    if (templateMatcher == null) {
+      templateMatcher = FileSystems.getDefault().getPathMatcher(Constants.MISC_GLOB + templateType);
     }
-    return result;
+    return templateMatcher;
   }
 
   /**
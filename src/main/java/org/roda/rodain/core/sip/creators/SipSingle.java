@@ -1,5 +1,6 @@
 package org.roda.rodain.core.sip.creators;
 
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -50,11 +51,13 @@ public class SipSingle extends SipPreviewCreator {
    *          The attributes of the directory.
    */
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    if (filter(path) || cancelled)
-      return;
-    TreeNode newNode = new TreeNode(path);
-    nodes.add(newNode);
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    FileVisitResult result = directoryVisitResult(path);
+    if (result == FileVisitResult.CONTINUE) {
+      TreeNode newNode = new TreeNode(path, attrs);
+      nodes.add(newNode);
+    }
+    return result;
   }
 
   /**
@@ -70,6 +73,8 @@ public class SipSingle extends SipPreviewCreator {
       return;
     // pop the node of this directory and add it to its parent (if it exists)
     TreeNode node = nodes.removeLast();
+    if (isIgnoredEmpty(path))
+      return;
     if (!nodes.isEmpty())
       nodes.peekLast().add(node);
     else
@@ -91,9 +96,9 @@ public class SipSingle extends SipPreviewCreator {
       return;
     }
     if (nodes.isEmpty())
-      files.add(new TreeNode(path));
+      files.add(new TreeNode(path, attrs));
     else
-      nodes.peekLast().add(path);
+      nodes.peekLast().add(path, attrs);
   }
 
   /**
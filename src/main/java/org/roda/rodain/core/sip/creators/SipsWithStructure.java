@@ -1,17 +1,15 @@
 package org.roda.rodain.core.sip.creators;
 
-import java.io.IOException;
-import java.nio.file.AccessDeniedException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -78,34 +76,41 @@ public class SipsWithStructure extends SipPreviewCreator {
    *          The attributes of the directory.
    */
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
-    if (filter(path) || cancelled)
-      return;
-    Folder newFolder = new Folder(path);
-    folders.add(newFolder);
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    FileVisitResult result = directoryVisitResult(path);
+    if (result == FileVisitResult.CONTINUE) {
+      Folder newFolder = new Folder(path, attrs);
+      folders.add(newFolder);
+    }
+    return result;
   }
 
+  /**
+   * Adds the start path to the PathCollection. Its content is added while the
+   * tree is walked, see {@link #directoryEntries(Path, List)}.
+   *
+   * @param path
+   *          The path where the tree visit starts.
+   */
   @Override
   public void setStartPath(String path) {
-    try {
-      Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-          PathCollection.simpleAddPath(file);
-          return isTerminated();
-        }
+    super.setStartPath(path);
+    PathCollection.simpleAddPath(Paths.get(path));
+  }
 
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-          PathCollection.simpleAddPath(dir);
-          return isTerminated();
-        }
-      });
-    } catch (AccessDeniedException e) {
-      LOGGER.info("Access denied to file", e);
-    } catch (IOException e) {
-      LOGGER.error("Error walking the file tree", e);
-    }
+  /**
+   * Adds the entries of the directory to the PathCollection before they're
+   * visited.
+   *
+   * @param path
+   *          The path of the directory.
+   * @param entries
+   *          The paths of the directory's entries
+   */
+  @Override
+  public void directoryEntries(Path path, List<Path> entries) {
+    super.directoryEntries(path, entries);
+    PathCollection.simpleAddPaths(entries);
   }
 
   /**
@@ -121,8 +126,10 @@ public class SipsWithStructure extends SipPreviewCreator {
       return;
     // pop the node of this directory and add it to its parent (if it exists)
     Folder folder = folders.removeLast();
+    if (isIgnoredEmpty(path))
+      return;
     if (!folders.isEmpty())
-      folders.peekLast().addItem(folder.getPath());
+      folders.peekLast().addItem(folder.getPath(), folder.getAttributes());
 
     Set<Path> subFiles, subFolders;
     subFiles = folder.getFiles();
@@ -130,12 +137,12 @@ public class SipsWithStructure extends SipPreviewCreator {
 
     // some files and no sub-folders -> single SIP with all the files
     if (!subFiles.isEmpty() && subFolders.isEmpty()) {
-      TreeNode node = new TreeNode(path);
+      TreeNode node = new TreeNode(path, folder.getAttributes());
       for (Path p : subFiles) {
-        TreeNode fileNode = new TreeNode(p);
+        TreeNode fileNode = new TreeNode(p, folder.getFileAttributes(p));
         node.add(fileNode);
       }
-      PseudoSIP pseudoSIP = new PseudoSIP(node, getMetadataPath(path));
+      PseudoSIP pseudoSIP = new PseudoSIP(node, getMetadataPath(path, true));
       record.put(path, pseudoSIP);
       if (folders.isEmpty()) {
         tree.add(pseudoSIP);
@@ -143,7 +150,7 @@ public class SipsWithStructure extends SipPreviewCreator {
     } else {
       // each file will be a SIP
       for (Path p : subFiles) {
-        record.put(p, new PseudoSIP(new TreeNode(p), getMetadataPath(p)));
+        record.put(p, new PseudoSIP(new TreeNode(p, folder.getFileAttributes(p)), getMetadataPath(p, false)));
       }
 
       // make this node a description object
@@ -199,11 +206,11 @@ public class SipsWithStructure extends SipPreviewCreator {
       return;
     }
     if (folders.isEmpty()) {
-      PseudoSIP pseudoSIP = new PseudoSIP(new TreeNode(path), getMetadataPath(path));
+      PseudoSIP pseudoSIP = new PseudoSIP(new TreeNode(path, attrs), getMetadataPath(path, false));
       record.put(path, pseudoSIP);
       tree.add(pseudoSIP);
     } else {
-      folders.peekLast().addItem(path);
+      folders.peekLast().addItem(path, attrs);
     }
   }
 
@@ -259,21 +266,16 @@ public class SipsWithStructure extends SipPreviewCreator {
     return sipPreviewMap;
   }
 
-  private FileVisitResult isTerminated() {
-    // terminate if the thread has been interrupted
-    if (Thread.interrupted() || cancelled) {
-      return FileVisitResult.TERMINATE;
-    }
-    return FileVisitResult.CONTINUE;
-  }
-
   class Folder {
     private Path path;
-    private Set<Path> files, folders;
+    private BasicFileAttributes attributes;
+    private Map<Path, BasicFileAttributes> files;
+    private Set<Path> folders;
 
-    public Folder(Path path) {
+    public Folder(Path path, BasicFileAttributes attributes) {
       this.path = path;
-      files = new HashSet<>();
+      this.attributes = attributes;
+      files = new HashMap<>();
       folders = new HashSet<>();
     }
 
@@ -281,19 +283,28 @@ public class SipsWithStructure extends SipPreviewCreator {
       return path;
     }
 
+    public BasicFileAttributes getAttributes() {
+      return attributes;
+    }
+
     public Set<Path> getFiles() {
-      return files;
+      return files.keySet();
+    }
+
+    public BasicFileAttributes getFileAttributes(Path file) {
+      return files.get(file);
     }
 
     public Set<Path> getFolders() {
       return folders;
     }
 
-    public void addItem(Path path) {
-      if (Files.isDirectory(path)) {
+    public void addItem(Path path, BasicFileAttributes attrs) {
+      boolean directory = attrs != null ? attrs.isDirectory() : Files.isDirectory(path);
+      if (directory) {
         folders.add(path);
       } else
-        files.add(path);
+        files.put(path, attrs);
     }
   }
 }
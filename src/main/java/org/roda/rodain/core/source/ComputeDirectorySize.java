@@ -1,12 +1,22 @@
 package org.roda.rodain.core.source;
 
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
 import java.util.Observable;
+import java.util.Set;
 
 import org.roda.rodain.core.utils.TreeVisitor;
 
 /**
+ * Computes the size of a directory.
+ * <p>
+ * Can be used as a {@link TreeVisitor} or with {@link #compute(Set)}, that uses
+ * the {@link DirectorySizeIndex}.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 24-09-2015.
  */
@@ -14,6 +24,7 @@ public class ComputeDirectorySize extends Observable implements TreeVisitor {
   private static final int UPDATE_FREQUENCY = 500; // in milliseconds
   private long filesCount = 0, directoryCount, size = 0;
   private long lastUIUpdate = 0;
+  private volatile boolean cancelled = false;
 
   /**
    * Creates a new ComputeDirectorySize object.
@@ -21,8 +32,80 @@ public class ComputeDirectorySize extends Observable implements TreeVisitor {
   public ComputeDirectorySize() {
   }
 
+  /**
+   * Computes the size of the paths with the {@link DirectorySizeIndex}. The
+   * indexed sizes are notified right away and then the sizes are checked
+   * against the file system, so the observers are notified again when the
+   * computation ends. The progress is only notified for the paths that weren't
+   * indexed.
+   *
+   * @param paths
+   *          The paths of the directories and files
+   * @throws InterruptedException
+   *           if the thread is interrupted during the computation, the
+   *           observers aren't notified of the partial result
+   */
+  public void compute(Set<String> paths) throws InterruptedException {
+    Set<Path> indexed = new HashSet<>();
+    for (String path : paths) {
+      Path p = Paths.get(path);
+      DirectorySizeIndex.Totals cached = DirectorySizeIndex.getCached(p);
+      if (cached != null) {
+        indexed.add(p);
+        synchronized (this) {
+          filesCount += cached.getFiles();
+          directoryCount += cached.getDirs();
+          size += cached.getBytes();
+        }
+      }
+    }
+    if (!indexed.isEmpty()) {
+      end();
+    }
+
+    long files = 0, dirs = 0, bytes = 0;
+    for (String path : paths) {
+      Path p = Paths.get(path);
+      DirectorySizeIndex.Totals totals = DirectorySizeIndex.compute(p,
+        indexed.contains(p) ? null : this::add);
+      files += totals.getFiles();
+      dirs += totals.getDirs();
+      bytes += totals.getBytes();
+    }
+    synchronized (this) {
+      filesCount = files;
+      directoryCount = dirs;
+      size = bytes;
+    }
+    end();
+  }
+
+  /**
+   * Stops notifying the observers, e.g. when the computation is replaced by
+   * another one. The counts of the tasks still running are discarded.
+   */
+  public void cancel() {
+    cancelled = true;
+    deleteObservers();
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  private synchronized void add(long files, long dirs, long bytes) {
+    if (cancelled) {
+      return;
+    }
+    filesCount += files;
+    directoryCount += dirs;
+    size += bytes;
+    update();
+  }
+
   @Override
-  public void preVisitDirectory(Path path, BasicFileAttributes attrs) {
+  public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+    return FileVisitResult.CONTINUE;
   }
 
   @Override
@@ -47,6 +130,9 @@ public class ComputeDirectorySize extends Observable implements TreeVisitor {
 
   @Override
   public void end() {
+    if (cancelled) {
+      return;
+    }
     setChanged();
     notifyObservers();
   }
@@ -60,22 +146,22 @@ public class ComputeDirectorySize extends Observable implements TreeVisitor {
 
   private void update() {
     long now = System.currentTimeMillis();
-    if (now - lastUIUpdate > UPDATE_FREQUENCY) {
+    if (!cancelled && now - lastUIUpdate > UPDATE_FREQUENCY) {
       setChanged();
       notifyObservers();
       lastUIUpdate = now;
     }
   }
 
-  public long getFilesCount() {
+  public synchronized long getFilesCount() {
     return filesCount;
   }
 
-  public long getDirectoryCount() {
+  public synchronized long getDirectoryCount() {
     return directoryCount;
   }
 
-  public long getSize() {
+  public synchronized long getSize() {
     return size;
   }
 
@@ -0,0 +1,430 @@
+package org.roda.rodain.core.source;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent index of the size of the directories, kept in the RODA-in folder,
+ * so the size of a large directory doesn't have to be computed again each time
+ * it's selected.
+ * <p>
+ * Each entry has the direct content of a directory (files, bytes and the names
+ * of its sub-directories) and the totals of its whole tree. An entry is only
+ * valid while the modification time of its directory stays the same, so
+ * computing the size of a directory only stats the directories of its tree and
+ * lists again the ones that changed. Changes that don't update the
+ * modification time of a directory (e.g. a file whose content changed) aren't
+ * detected.
+ * </p>
+ * <p>
+ * Every file and directory is counted, the ignored ones included, as the
+ * footer always did, so the index doesn't depend on the ignore rules.
+ * </p>
+ */
+public class DirectorySizeIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySizeIndex.class.getName());
+
+  private static final int DEFAULT_MAX_ENTRIES = 200000;
+  private static final int DEFAULT_THREADS = 8;
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final String NAME_SEPARATOR = "/";
+  // the first line of the file, an index with another one is discarded
+  private static final String HEADER = "#version" + FIELD_SEPARATOR + "2";
+
+  private static Map<String, Entry> entries;
+  private static boolean modified = false;
+  private static Path indexFile;
+  // shared by all the computations, created when the first one starts
+  private static ForkJoinPool pool;
+
+  private DirectorySizeIndex() {
+  }
+
+  /**
+   * Gets the size of a directory or file from the index, without accessing the
+   * file system. The value may be outdated.
+   *
+   * @param path
+   *          The directory
+   * @return The totals of the directory's tree or null if it's not in the index
+   */
+  public static synchronized Totals getCached(Path path) {
+    Entry entry = getEntries().get(path.toAbsolutePath().toString());
+    return entry == null ? null : entry.totals;
+  }
+
+  /**
+   * Computes the size of a directory or file, updating the index.
+   *
+   * @param path
+   *          The directory or file
+   * @param listener
+   *          Receives the counts as each directory is processed, can be null
+   * @return The totals of the path's tree
+   * @throws InterruptedException
+   *           if the thread is interrupted during the computation
+   */
+  public static Totals compute(Path path, Listener listener) throws InterruptedException {
+    BasicFileAttributes attrs;
+    try {
+      attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read attributes of {}", path, e);
+      return Totals.EMPTY;
+    }
+    if (!attrs.isDirectory()) {
+      Totals totals = new Totals(1, 0, attrs.size(), attrs.lastModifiedTime().toMillis());
+      if (listener != null) {
+        listener.scanned(1, 0, attrs.size());
+      }
+      return totals;
+    }
+
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    try {
+      return getPool().submit(new ScanTask(path.toAbsolutePath(), attrs, listener, cancelled)).get();
+    } catch (InterruptedException e) {
+      // the tasks still queued return without listing their directories
+      cancelled.set(true);
+      throw e;
+    } catch (ExecutionException | CancellationException e) {
+      LOGGER.error("Error computing the size of {}", path, e);
+      return Totals.EMPTY;
+    }
+  }
+
+  /**
+   * Writes the index to disk, if it has been modified.
+   */
+  public static synchronized void save() {
+    if (!modified) {
+      return;
+    }
+    Path file = getIndexFile();
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+      writer.write(HEADER);
+      writer.newLine();
+      for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+        String line = mapEntry.getValue().toLine(mapEntry.getKey());
+        if (line != null) {
+          writer.write(line);
+          writer.newLine();
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to save the directory size index", e);
+      return;
+    }
+    try {
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+      modified = false;
+    } catch (IOException e) {
+      LOGGER.warn("Unable to save the directory size index", e);
+    }
+  }
+
+  private static synchronized Entry getEntry(String key) {
+    return getEntries().get(key);
+  }
+
+  private static synchronized void putEntry(String key, Entry entry) {
+    getEntries().put(key, entry);
+    modified = true;
+  }
+
+  /*
+   * Lists the directory, reading its direct content. Returns null if the
+   * directory can't be listed.
+   */
+  private static Entry list(Path dir, long lastModified) {
+    long files = 0, bytes = 0, maxLastModified = lastModified;
+    List<String> subDirectories = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path child : stream) {
+        BasicFileAttributes attrs;
+        try {
+          attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+          LOGGER.debug("Unable to read attributes of {}", child, e);
+          continue;
+        }
+        if (attrs.isDirectory()) {
+          subDirectories.add(child.getFileName().toString());
+        } else {
+          files++;
+          bytes += attrs.size();
+          maxLastModified = Math.max(maxLastModified, attrs.lastModifiedTime().toMillis());
+        }
+      }
+    } catch (IOException | DirectoryIteratorException e) {
+      LOGGER.debug("Unable to list {}", dir, e);
+      return null;
+    }
+    return new Entry(lastModified, files, bytes, maxLastModified, subDirectories.toArray(new String[0]), null);
+  }
+
+  /**
+   * Discards the index kept in memory, so it's read again from the file.
+   *
+   * @param file
+   *          The file of the index, null to use the one in the RODA-in folder
+   */
+  static synchronized void reset(Path file) {
+    entries = null;
+    modified = false;
+    indexFile = file;
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      int threads = Math.max(1,
+        ConfigurationManager.getConfigAsInt(Constants.CONF_K_WALK_FILE_TREE_THREADS, DEFAULT_THREADS));
+      pool = new ForkJoinPool(threads);
+    }
+    return pool;
+  }
+
+  private static Path getIndexFile() {
+    if (indexFile != null) {
+      return indexFile;
+    }
+    return ConfigurationManager.getRodainPath().resolve(Constants.DIRECTORY_SIZE_INDEX_FILE);
+  }
+
+  private static Map<String, Entry> getEntries() {
+    if (entries == null) {
+      int maxEntries = ConfigurationManager.getConfigAsInt(Constants.CONF_K_DIRECTORY_SIZE_INDEX_MAX_ENTRIES,
+        DEFAULT_MAX_ENTRIES);
+      entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > maxEntries;
+        }
+      };
+      load();
+    }
+    return entries;
+  }
+
+  private static void load() {
+    Path file = getIndexFile();
+    if (!Files.exists(file)) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (!HEADER.equals(line)) {
+        // written by another version, the entries are computed again
+        return;
+      }
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(FIELD_SEPARATOR, -1);
+        if (fields.length < 10) {
+          continue;
+        }
+        try {
+          String[] subDirectories = fields[9].isEmpty() ? new String[0] : fields[9].split(NAME_SEPARATOR);
+          Totals totals = new Totals(Long.parseLong(fields[5]), Long.parseLong(fields[6]),
+            Long.parseLong(fields[7]), Long.parseLong(fields[8]));
+          entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+            Long.parseLong(fields[3]), Long.parseLong(fields[4]), subDirectories, totals));
+        } catch (NumberFormatException e) {
+          LOGGER.debug("Ignoring malformed directory size index line", e);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to load the directory size index", e);
+    }
+  }
+
+  /**
+   * Receives the counts of a computation as it progresses.
+   */
+  public interface Listener {
+    /**
+     * @param files
+     *          The number of files found since the last call
+     * @param dirs
+     *          The number of directories found since the last call
+     * @param bytes
+     *          The size of the files found since the last call
+     */
+    void scanned(long files, long dirs, long bytes);
+  }
+
+  /**
+   * The totals of a directory's tree, the directory included.
+   */
+  public static final class Totals {
+    static final Totals EMPTY = new Totals(0, 0, 0, 0);
+
+    private final long files, dirs, bytes, lastModified;
+
+    Totals(long files, long dirs, long bytes, long lastModified) {
+      this.files = files;
+      this.dirs = dirs;
+      this.bytes = bytes;
+      this.lastModified = lastModified;
+    }
+
+    public long getFiles() {
+      return files;
+    }
+
+    public long getDirs() {
+      return dirs;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return The most recent modification time in the tree, in milliseconds
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  private static final class Entry {
+    private final long lastModified, files, bytes, filesLastModified;
+    private final String[] subDirectories;
+    private final Totals totals;
+
+    Entry(long lastModified, long files, long bytes, long filesLastModified, String[] subDirectories,
+      Totals totals) {
+      this.lastModified = lastModified;
+      this.files = files;
+      this.bytes = bytes;
+      this.filesLastModified = filesLastModified;
+      this.subDirectories = subDirectories;
+      this.totals = totals;
+    }
+
+    Entry withTotals(Totals newTotals) {
+      return new Entry(lastModified, files, bytes, filesLastModified, subDirectories, newTotals);
+    }
+
+    /*
+     * Returns null for the entries that can't be persisted, because of the
+     * separators in the names.
+     */
+    String toLine(String key) {
+      if (totals == null || key.contains(FIELD_SEPARATOR) || key.contains("\n") || key.contains("\r")) {
+        return null;
+      }
+      StringBuilder names = new StringBuilder();
+      for (String name : subDirectories) {
+        if (name.contains(FIELD_SEPARATOR) || name.contains(NAME_SEPARATOR) || name.contains("\n")
+          || name.contains("\r")) {
+          return null;
+        }
+        if (names.length() > 0) {
+          names.append(NAME_SEPARATOR);
+        }
+        names.append(name);
+      }
+      return String.join(FIELD_SEPARATOR, key, Long.toString(lastModified), Long.toString(files),
+        Long.toString(bytes), Long.toString(filesLastModified), Long.toString(totals.files),
+        Long.toString(totals.dirs), Long.toString(totals.bytes), Long.toString(totals.lastModified),
+        names.toString());
+    }
+  }
+
+  /**
+   * Computes the totals of a directory, reusing its entry if the directory
+   * hasn't changed and computing its sub-directories in parallel.
+   */
+  private static class ScanTask extends RecursiveTask<Totals> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path dir;
+    private final transient BasicFileAttributes attrs;
+    private final transient Listener listener;
+    private final AtomicBoolean cancelled;
+
+    ScanTask(Path dir, BasicFileAttributes attrs, Listener listener, AtomicBoolean cancelled) {
+      this.dir = dir;
+      this.attrs = attrs;
+      this.listener = listener;
+      this.cancelled = cancelled;
+    }
+
+    @Override
+    protected Totals compute() {
+      if (cancelled.get()) {
+        return Totals.EMPTY;
+      }
+      String key = dir.toString();
+      long lastModified = attrs.lastModifiedTime().toMillis();
+      Entry entry = getEntry(key);
+      if (entry == null || entry.lastModified != lastModified) {
+        entry = list(dir, lastModified);
+        if (entry == null) {
+          // like a failed visit, the directory isn't counted
+          return Totals.EMPTY;
+        }
+      }
+      if (listener != null) {
+        listener.scanned(entry.files, 1, entry.bytes);
+      }
+
+      List<ScanTask> subTasks = new ArrayList<>(entry.subDirectories.length);
+      for (String name : entry.subDirectories) {
+        Path subDirectory = dir.resolve(name);
+        try {
+          BasicFileAttributes subAttrs = Files.readAttributes(subDirectory, BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+          if (subAttrs.isDirectory()) {
+            subTasks.add(new ScanTask(subDirectory, subAttrs, listener, cancelled));
+          }
+        } catch (IOException e) {
+          // removed without changing this directory's modification time
+          LOGGER.debug("Unable to read attributes of {}", subDirectory, e);
+        }
+      }
+      invokeAll(subTasks);
+
+      long files = entry.files, dirs = 1, bytes = entry.bytes, maxLastModified = entry.filesLastModified;
+      for (ScanTask subTask : subTasks) {
+        Totals subTotals = subTask.join();
+        files += subTotals.files;
+        dirs += subTotals.dirs;
+        bytes += subTotals.bytes;
+        maxLastModified = Math.max(maxLastModified, subTotals.lastModified);
+      }
+      Totals totals = new Totals(files, dirs, bytes, maxLastModified);
+      if (!cancelled.get()) {
+        putEntry(key, entry.withTotals(totals));
+      }
+      return totals;
+    }
+  }
+}
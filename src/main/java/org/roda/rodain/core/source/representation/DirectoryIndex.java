@@ -0,0 +1,111 @@
+package org.roda.rodain.core.source.representation;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorted index of the entries of a directory, listed once, so the entries can be
+ * loaded page by page in the order they are shown: the directories first and
+ * then the files, each sorted by {@link SourceDirectory#NAME_ORDER}.
+ * <p>
+ * Only the names of the entries are kept, the directories before the files, so
+ * the type of an entry is given by its position.
+ * </p>
+ */
+class DirectoryIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryIndex.class.getName());
+
+  private final String[] names;
+  private final int directoryCount;
+
+  private DirectoryIndex(String[] names, int directoryCount) {
+    this.names = names;
+    this.directoryCount = directoryCount;
+  }
+
+  /**
+   * Lists a directory.
+   *
+   * @param path
+   *          The directory
+   * @param includeFiles
+   *          Whether to include the files or only the directories
+   * @return The index of the directory, empty if it can't be listed
+   */
+  static DirectoryIndex create(Path path, boolean includeFiles) {
+    List<String> directories = new ArrayList<>();
+    List<String> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+      for (Path entry : stream) {
+        if (isDirectory(entry)) {
+          directories.add(entry.getFileName().toString());
+        } else if (includeFiles) {
+          files.add(entry.getFileName().toString());
+        }
+      }
+    } catch (AccessDeniedException e) {
+      LOGGER.info("No access to file", e);
+    } catch (IOException | DirectoryIteratorException e) {
+      LOGGER.error("Error accessing file", e);
+    }
+    directories.sort(SourceDirectory.NAME_ORDER);
+    files.sort(SourceDirectory.NAME_ORDER);
+
+    String[] names = new String[directories.size() + files.size()];
+    int i = 0;
+    for (String name : directories) {
+      names[i++] = name;
+    }
+    for (String name : files) {
+      names[i++] = name;
+    }
+    return new DirectoryIndex(names, directories.size());
+  }
+
+  /*
+   * Like Files.isDirectory, following the links, but reading the attributes
+   * once.
+   */
+  private static boolean isDirectory(Path entry) {
+    try {
+      return Files.readAttributes(entry, BasicFileAttributes.class).isDirectory();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return The number of entries
+   */
+  int size() {
+    return names.length;
+  }
+
+  /**
+   * @param index
+   *          The position of the entry
+   * @return The name of the entry
+   */
+  String getName(int index) {
+    return names[index];
+  }
+
+  /**
+   * @param index
+   *          The position of the entry
+   * @return True if the entry is a directory
+   */
+  boolean isDirectory(int index) {
+    return index < directoryCount;
+  }
+}
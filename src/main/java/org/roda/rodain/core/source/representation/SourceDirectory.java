@@ -1,29 +1,37 @@
 package org.roda.rodain.core.source.representation;
 
-import java.io.IOException;
-import java.nio.file.AccessDeniedException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * @author Andre Pereira apereira@keep.pt
  * @since 17-09-2015.
  */
 public class SourceDirectory implements SourceItem {
-  private static final Logger LOGGER = LoggerFactory.getLogger(SourceDirectory.class.getName());
+  /**
+   * The order of the names of the entries, the one they are loaded in and
+   * shown in the file explorer, which inserts the loaded entries with a binary
+   * search.
+   */
+  public static final Comparator<String> NAME_ORDER = String.CASE_INSENSITIVE_ORDER;
   private static final int LOADING_SIZE = 100;
   private Path path;
-  private int itemsToLoad = 0;
   private TreeMap<String, SourceItem> children;
-  private DirectoryStream<Path> directoryStream;
-  private Iterator<Path> iterator;
+  // the entries of the directory, in the order they are loaded, released
+  // once all of them have been loaded
+  private DirectoryIndex index;
+  private int nextIndex = 0;
+  // names created or deleted since the index was created, skipped when
+  // loading from the index
+  private Set<String> changedNames = new HashSet<>();
+  private boolean firstLoaded = false;
   private boolean showFiles;
 
   /**
@@ -78,16 +86,17 @@ public class SourceDirectory implements SourceItem {
    *         directory.
    */
   public SourceDirectory getChildDirectory(Path p) {
-    if (Files.isDirectory(p))
-      return (SourceDirectory) children.get(p.toString());
+    SourceItem child = children.get(p.toString());
+    if (child instanceof SourceDirectory)
+      return (SourceDirectory) child;
     return null;
   }
 
   /**
-   * @return True if the iterator isn't closed, false otherwise.
+   * @return True if there are more items to load, false otherwise.
    */
   public boolean isStreamOpen() {
-    return iterator.hasNext();
+    return index != null;
   }
 
   /**
@@ -103,76 +112,105 @@ public class SourceDirectory implements SourceItem {
   }
 
   /**
-   * Closes the directory stream if it hasn't been closed yet.
+   * @return True if the diretory has been loaded at least once, false
+   *         otherwise.
    */
-  public void closeDirectoryStream() {
-    try {
-      if (directoryStream != null)
-        directoryStream.close();
-    } catch (IOException e) {
-      LOGGER.error("Error closing directory stream", e);
-    }
+  public boolean isFirstLoaded() {
+    return firstLoaded;
   }
 
-  private void startDirectoryStream() {
-    if (directoryStream != null)
-      return;
-
-    try {
-      directoryStream = Files.newDirectoryStream(path);
-      iterator = directoryStream.iterator();
-    } catch (AccessDeniedException e) {
-      LOGGER.info("No access to file", e);
-    } catch (IOException e) {
-      LOGGER.error("Error accessing file", e);
+  /**
+   * Loads more items to the children map. The first call lists the whole
+   * directory and each call loads the next page of items, in the order they
+   * are shown: the directories first and then the files, sorted by name.
+   *
+   * @return The map with the newly added items, in the order they were loaded
+   */
+  public synchronized Map<String, SourceItem> loadMore() {
+    if (!firstLoaded) {
+      index = DirectoryIndex.create(path, showFiles);
+      firstLoaded = true;
+    }
+    Map<String, SourceItem> result = new LinkedHashMap<>();
+    if (index != null) {
+      for (; nextIndex < index.size() && result.size() < LOADING_SIZE; nextIndex++) {
+        String name = index.getName(nextIndex);
+        if (!changedNames.contains(name)) {
+          Path file = path.resolve(name);
+          result.put(file.toString(), loadChild(file, index.isDirectory(nextIndex)));
+        }
+      }
+      // the index isn't needed after all the items have been loaded
+      if (nextIndex >= index.size()) {
+        index = null;
+        changedNames.clear();
+      }
     }
+    return result;
   }
 
   /**
-   * @return True if the diretory has been loaded at least once, false
-   *         otherwise.
+   * Adds a child that was created in the directory after it was listed.
+   *
+   * @param file
+   *          The path of the new child
+   * @param isDirectory
+   *          True if the new child is a directory
+   * @return The new child or null if it was already loaded, is a file and the
+   *         files aren't shown, or the directory hasn't been loaded yet
    */
-  public boolean isFirstLoaded() {
-    return iterator != null;
+  public synchronized SourceItem childCreated(Path file, boolean isDirectory) {
+    // before the first load the child is found when the directory is listed
+    if (!firstLoaded || children.containsKey(file.toString()) || (!showFiles && !isDirectory)) {
+      return null;
+    }
+    if (index != null) {
+      changedNames.add(file.getFileName().toString());
+    }
+    return loadChild(file, isDirectory);
   }
 
   /**
-   * Loads more items to the children map.
+   * Removes a child that was deleted from the directory after it was listed.
    *
-   * @return The map with the newly added items
+   * @param file
+   *          The path of the deleted child
    */
-  public SortedMap<String, SourceItem> loadMore() {
-    startDirectoryStream();
-    int loaded = 0, childrenSize = children.size();
-    TreeMap<String, SourceItem> result = new TreeMap<>();
-    if (iterator != null) {
-      itemsToLoad += LOADING_SIZE;
-      while (iterator.hasNext() && (childrenSize + loaded < itemsToLoad)) {
-        Path file = iterator.next();
-        if (!showFiles && !Files.isDirectory(file))
-          continue;
-        SourceItem added = loadChild(file);
-        result.put(file.toString(), added);
-        loaded++;
+  public synchronized void childDeleted(Path file) {
+    children.remove(file.toString());
+    if (index != null) {
+      changedNames.add(file.getFileName().toString());
+    }
+  }
+
+  /**
+   * @return The names of the children that have been loaded or are still to
+   *         be loaded, to be compared with a new listing of the directory
+   */
+  public synchronized Set<String> getKnownNames() {
+    Set<String> result = new HashSet<>();
+    for (String child : children.keySet()) {
+      result.add(Paths.get(child).getFileName().toString());
+    }
+    if (index != null) {
+      for (int i = nextIndex; i < index.size(); i++) {
+        String name = index.getName(i);
+        if (!changedNames.contains(name)) {
+          result.add(name);
+        }
       }
-      // we can close the directory stream if there's no more files to load in
-      // the iterator
-      if (!iterator.hasNext())
-        closeDirectoryStream();
     }
     return result;
   }
 
-  public SourceItem loadChild(Path file) {
+  private SourceItem loadChild(Path file, boolean isDirectory) {
     SourceItem item;
-    if (Files.isDirectory(file)) {
+    if (isDirectory) {
       item = new SourceDirectory(file, showFiles);
-      addChild(file, item);
-
     } else {
       item = new SourceFile(file);
-      addChild(file, item);
     }
+    addChild(file, item);
     return item;
   }
 }
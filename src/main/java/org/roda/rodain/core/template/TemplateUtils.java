@@ -4,9 +4,12 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -18,12 +21,15 @@ import org.roda.rodain.core.schema.DescriptiveMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.jknack.handlebars.Context;
 import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Options;
 import com.github.jknack.handlebars.Template;
 
 import net.sf.saxon.s9api.DocumentBuilder;
 import net.sf.saxon.s9api.Processor;
-import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathExecutable;
 import net.sf.saxon.s9api.XPathSelector;
 import net.sf.saxon.s9api.XdmItem;
 import net.sf.saxon.s9api.XdmNode;
@@ -35,15 +41,39 @@ import net.sf.saxon.s9api.XdmValue;
  */
 public class TemplateUtils {
   private static final Logger LOGGER = LoggerFactory.getLogger(TemplateUtils.class.getName());
+  private static final String DATA_FIELDS_COLLECTOR = "rodainFieldsCollector";
+  private static final int MAX_CACHED_TEMPLATES = 64;
+  private static final int MAX_CACHED_XPATHS = 1024;
+
+  // reads the fields of the templates, ignoring unknown helpers
+  private static final Handlebars FIELDS_HANDLEBARS = createHandlebars(true);
+  // applies the metadata values to the templates
+  private static final Handlebars VALUES_HANDLEBARS = createHandlebars(false);
+  // compiled templates, by content
+  private static final Map<String, Template> FIELDS_TEMPLATES = createCache(MAX_CACHED_TEMPLATES);
+  private static final Map<String, Template> VALUES_TEMPLATES = createCache(MAX_CACHED_TEMPLATES);
+  // the processor and the compiled XPath expressions are thread-safe, only the
+  // selectors have to be created for each evaluation
+  private static final Processor XPATH_PROCESSOR = new Processor(false);
+  private static final Map<String, XPathExecutable> XPATH_EXPRESSIONS = createCache(MAX_CACHED_XPATHS);
 
   public static TreeSet<TemplateFieldValue> getTemplateFields(DescriptiveMetadata dom) {
-    TreeSet<TemplateFieldValue> fields = new TreeSet<>();
-    String content = dom.getContentDecoded();
     String templateContent = dom.getTemplateType() != null
       ? ConfigurationManager.getTemplateContent(dom.getTemplateType()) : null;
+    return getTemplateFields(templateContent, dom.getContentDecoded());
+  }
+
+  /*
+   * Gets the fields of the template with the values found in the metadata
+   * content by their XPath expressions.
+   */
+  static TreeSet<TemplateFieldValue> getTemplateFields(String templateContent, String content) {
+    TreeSet<TemplateFieldValue> fields = new TreeSet<>();
     if (templateContent != null) {
       fields = processTemplate(templateContent);
       if (fields != null) {
+        // the document is parsed once for all the fields
+        XdmNode doc = fields.stream().anyMatch(field -> field.get("xpath") != null) ? parseXml(content) : null;
         for (TemplateFieldValue field : fields) {
           String xpathRaw = (String) field.get("xpath");
           if (xpathRaw != null && xpathRaw.length() > 0) {
@@ -51,7 +81,7 @@ public class TemplateUtils {
             String value;
             List<String> allValues = new ArrayList<>();
             for (String xpath : xpaths) {
-              allValues.addAll(applyXpath(content, xpath));
+              allValues.addAll(applyXpath(doc, xpath));
             }
             // if any of the values is different, concatenate all values in a
             // string, otherwise return the value
@@ -73,139 +103,135 @@ public class TemplateUtils {
     if (templateContent == null)
       return null;
 
-    TreeSet<TemplateFieldValue> values = new TreeSet<>();
-    Set<String> addedTags = new HashSet<>();
-    Handlebars handlebars = new Handlebars();
-
-    Template tmpl;
+    FieldsCollector collector = new FieldsCollector();
+    Context context = Context.newContext(new HashMap<>());
     try {
-      handlebars.registerHelper("field", (context, options) -> {
-        if (options.hash.containsKey("name")) {
-          String tagID = (String) options.hash.get("name");
-          if (context != null && !addedTags.contains(tagID)) {
-            HashMap<String, String> newHash = new HashMap<>();
-            for (String hashKey : options.hash.keySet()) {
-              String hashValue = options.hash.get(hashKey).toString();
-              newHash.put(hashKey, hashValue);
-            }
-            values.add(new TemplateFieldValue(tagID, new HashMap<>(newHash)));
-            addedTags.add(tagID);
-          }
-        }
-        return options.fn();
-      });
-      handlebars.registerHelper("ifCond", (context, options) -> {
-        // the first parameter of ifCond is placed in the context field by the
-        // parser
-        String condition = (context == null) ? Constants.MISC_OR_OP : context.toString();
-        List<Object> vals = Arrays.asList(options.params);
-        boolean display;
-        if (condition.equals(Constants.MISC_OR_OP)) {
-          display = false;
-          for (Object value : vals) {
-            if (value != null) {
-              display = true;
-              break;
-            }
-          }
-        } else if (condition.equals(Constants.MISC_AND_OP)) {
-          display = true;
-          for (Object value : vals) {
-            if (value == null) {
-              display = false;
-              break;
-            }
-          }
-        } else {
-          display = false;
-        }
-        return display ? options.fn() : options.inverse();
-      });
-      // Prevent errors from unknown helpers
-      handlebars.registerHelperMissing((o, options) -> options.fn());
-
-      tmpl = handlebars.compileInline(templateContent);
-      tmpl.apply(new HashMap<>());
+      context.data(DATA_FIELDS_COLLECTOR, collector);
+      getTemplate(templateContent, true).apply(context);
     } catch (IOException e) {
       LOGGER.error("Error getting the MetadataValue list from the template", e);
+    } finally {
+      context.destroy();
     }
-    return values;
+    return collector.values;
   }
 
   public static String getXMLFromTemplate(String templateContent) {
-    TreeSet<TemplateFieldValue> values = new TreeSet<>();
-    Set<String> addedTags = new HashSet<>();
-    Handlebars handlebars = new Handlebars();
-
-    Template tmpl;
     String xml = null;
     try {
-      handlebars.registerHelper("field", (context, options) -> {
-        if (options.hash.containsKey("name")) {
-          String tagID = (String) options.hash.get("name");
-          if (context != null && !addedTags.contains(tagID)) {
-            HashMap<String, String> newHash = new HashMap<>();
-            for (String hashKey : options.hash.keySet()) {
-              String hashValue = options.hash.get(hashKey).toString();
-              newHash.put(hashKey, hashValue);
-            }
-            values.add(new TemplateFieldValue(tagID, new HashMap<>(newHash)));
-            addedTags.add(tagID);
-          }
+      xml = getTemplate(templateContent, true).apply(new HashMap<>());
+    } catch (IOException e) {
+      LOGGER.error("Error getting the MetadataValue list from the template", e);
+    }
+    return xml;
+  }
+
+  /**
+   * Gets the compiled template used to apply the metadata values to a
+   * template's content. The templates are compiled once and shared by all the
+   * threads.
+   *
+   * @param templateContent
+   *          The content of the template
+   * @return The compiled template
+   * @throws IOException
+   *           if the template can't be compiled
+   */
+  public static Template getValuesTemplate(String templateContent) throws IOException {
+    return getTemplate(templateContent, false);
+  }
+
+  static Template getTemplate(String templateContent, boolean fields) throws IOException {
+    Map<String, Template> cache = fields ? FIELDS_TEMPLATES : VALUES_TEMPLATES;
+    Template tmpl = cache.get(templateContent);
+    if (tmpl == null) {
+      tmpl = (fields ? FIELDS_HANDLEBARS : VALUES_HANDLEBARS).compileInline(templateContent);
+      cache.put(templateContent, tmpl);
+    }
+    return tmpl;
+  }
+
+  private static Handlebars createHandlebars(boolean fields) {
+    Handlebars handlebars = new Handlebars();
+    handlebars.registerHelper("field", TemplateUtils::fieldHelper);
+    handlebars.registerHelper("ifCond", TemplateUtils::ifCondHelper);
+    if (fields) {
+      // Prevent errors from unknown helpers
+      handlebars.registerHelperMissing((o, options) -> options.fn());
+    }
+    return handlebars;
+  }
+
+  private static <T> Map<String, T> createCache(int maxSize) {
+    return Collections.synchronizedMap(new LinkedHashMap<String, T>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+        return size() > maxSize;
+      }
+    });
+  }
+
+  /*
+   * Adds the field to the collector of the template being applied, if there's
+   * one.
+   */
+  private static Object fieldHelper(Object context, Options options) throws IOException {
+    FieldsCollector collector = options.data(DATA_FIELDS_COLLECTOR);
+    if (collector != null && options.hash.containsKey("name")) {
+      String tagID = (String) options.hash.get("name");
+      if (context != null && collector.addedTags.add(tagID)) {
+        HashMap<String, Object> newHash = new HashMap<>();
+        for (String hashKey : options.hash.keySet()) {
+          String hashValue = options.hash.get(hashKey).toString();
+          newHash.put(hashKey, hashValue);
         }
-        return options.fn();
-      });
-      handlebars.registerHelper("ifCond", (context, options) -> {
-        // the first parameter of ifCond is placed in the context field by the
-        // parser
-        String condition = (context == null) ? Constants.MISC_OR_OP : context.toString();
-        List<Object> vals = Arrays.asList(options.params);
-        boolean display;
-        if (condition.equals(Constants.MISC_OR_OP)) {
-          display = false;
-          for (Object value : vals) {
-            if (value != null) {
-              display = true;
-              break;
-            }
-          }
-        } else if (condition.equals(Constants.MISC_AND_OP)) {
+        collector.values.add(new TemplateFieldValue(tagID, newHash));
+      }
+    }
+    return options.fn();
+  }
+
+  private static Object ifCondHelper(Object context, Options options) throws IOException {
+    // the first parameter of ifCond is placed in the context field by the
+    // parser
+    String condition = (context == null) ? Constants.MISC_OR_OP : context.toString();
+    List<Object> vals = Arrays.asList(options.params);
+    boolean display;
+    if (condition.equals(Constants.MISC_OR_OP)) {
+      display = false;
+      for (Object value : vals) {
+        if (value != null) {
           display = true;
-          for (Object value : vals) {
-            if (value == null) {
-              display = false;
-              break;
-            }
-          }
-        } else {
+          break;
+        }
+      }
+    } else if (condition.equals(Constants.MISC_AND_OP)) {
+      display = true;
+      for (Object value : vals) {
+        if (value == null) {
           display = false;
+          break;
         }
-        return display ? options.fn() : options.inverse();
-      });
-      // Prevent errors from unknown helpers
-      handlebars.registerHelperMissing((o, options) -> options.fn());
-
-      tmpl = handlebars.compileInline(templateContent);
-      xml = tmpl.apply(new HashMap<>());
-    } catch (IOException e) {
-      LOGGER.error("Error getting the MetadataValue list from the template", e);
+      }
+    } else {
+      display = false;
     }
-    return xml;
+    return display ? options.fn() : options.inverse();
   }
 
   public static List<String> applyXpath(String xml, String xpathString) {
+    return applyXpath(parseXml(xml), xpathString);
+  }
+
+  private static List<String> applyXpath(XdmNode doc, String xpathString) {
     List<String> result = new ArrayList<>();
+    if (doc == null) {
+      return result;
+    }
     try {
-      Processor proc = new Processor(false);
-      XPathCompiler xpath = proc.newXPathCompiler();
-      DocumentBuilder builder = proc.newDocumentBuilder();
-
-      // Load the XML document.
-      StringReader reader = new StringReader(xml);
-      XdmNode doc = builder.build(new StreamSource(reader));
-
-      // Compile the xpath
-      XPathSelector selector = xpath.compile(xpathString).load();
+      XPathSelector selector = getXpathExpression(xpathString).load();
       selector.setContextItem(doc);
 
       // Evaluate the expression.
@@ -221,4 +247,33 @@ public class TemplateUtils {
     return result;
   }
 
+  /*
+   * @return The parsed document or null if the XML isn't well-formed
+   */
+  private static XdmNode parseXml(String xml) {
+    try {
+      DocumentBuilder builder = XPATH_PROCESSOR.newDocumentBuilder();
+      return builder.build(new StreamSource(new StringReader(xml)));
+    } catch (Exception e) {
+      LOGGER.error("Error applying XPath", e);
+      return null;
+    }
+  }
+
+  static XPathExecutable getXpathExpression(String xpathString) throws SaxonApiException {
+    XPathExecutable expression = XPATH_EXPRESSIONS.get(xpathString);
+    if (expression == null) {
+      expression = XPATH_PROCESSOR.newXPathCompiler().compile(xpathString);
+      XPATH_EXPRESSIONS.put(xpathString, expression);
+    }
+    return expression;
+  }
+
+  /**
+   * The fields found while applying a template.
+   */
+  private static class FieldsCollector {
+    private final TreeSet<TemplateFieldValue> values = new TreeSet<>();
+    private final Set<String> addedTags = new HashSet<>();
+  }
 }
@@ -0,0 +1,304 @@
+package org.roda.rodain.core.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of file checksums, kept in the RODA-in folder.
+ * <p>
+ * The entries are keyed by the path of the file and are only valid while the
+ * file's size, modification time and file key (the inode, where available)
+ * stay the same. The least recently used entries are evicted when the cache
+ * has more than {@link Constants#CONF_K_CHECKSUM_CACHE_MAX_ENTRIES} entries.
+ * </p>
+ * <p>
+ * The SIP library hashes each file while zipping it, so the SIP creators add
+ * the checksums it computed and the inventory report only reads a file when
+ * the library left its checksum empty and it isn't in the cache.
+ * </p>
+ */
+public class ChecksumCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumCache.class.getName());
+  public static final String MD5 = "MD5";
+  public static final String SHA256 = "SHA-256";
+
+  private static final int DEFAULT_MAX_ENTRIES = 100000;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final String CHECKSUM_SEPARATOR = "=";
+
+  private static Map<String, Entry> entries;
+  private static boolean modified = false;
+  // overrides the file in the RODA-in folder, see reset(Path)
+  private static Path cacheFile;
+
+  private ChecksumCache() {
+  }
+
+  /**
+   * Gets the checksum of a file, computing it (along with the checksums of the
+   * other supported algorithms, in the same read) if it's not in the cache.
+   *
+   * @param file
+   *          The file
+   * @param algorithm
+   *          {@link #MD5} or {@link #SHA256}
+   * @return The checksum as an hexadecimal string
+   * @throws IOException
+   *           if the file can't be read
+   */
+  public static String getChecksum(Path file, String algorithm) throws IOException {
+    algorithm = algorithm.toUpperCase();
+    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+    String checksum = getCached(file, attrs, algorithm);
+    if (checksum == null) {
+      Map<String, String> checksums = computeChecksums(file);
+      synchronized (ChecksumCache.class) {
+        getValidEntry(file, attrs).checksums.putAll(checksums);
+        modified = true;
+      }
+      checksum = checksums.get(algorithm);
+    }
+    return checksum;
+  }
+
+  /**
+   * @return The cached checksum of the file or null if there's none or the
+   *         file has changed since it was computed.
+   */
+  public static String getCachedChecksum(Path file, String algorithm) {
+    try {
+      return getCached(file, Files.readAttributes(file, BasicFileAttributes.class), algorithm);
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read attributes of {}", file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Adds a checksum computed elsewhere (e.g. while creating a SIP) to the
+   * cache.
+   *
+   * @param file
+   *          The file
+   * @param algorithm
+   *          The algorithm used to compute the checksum
+   * @param checksum
+   *          The checksum as an hexadecimal string
+   */
+  public static void putChecksum(Path file, String algorithm, String checksum) {
+    if (algorithm == null || checksum == null || checksum.isEmpty()) {
+      return;
+    }
+    algorithm = algorithm.toUpperCase();
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+      synchronized (ChecksumCache.class) {
+        Entry entry = getValidEntry(file, attrs);
+        if (!checksum.equalsIgnoreCase(entry.checksums.get(algorithm))) {
+          entry.checksums.put(algorithm, checksum.toLowerCase());
+          modified = true;
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read attributes of {}", file, e);
+    }
+  }
+
+  /**
+   * Writes the cache to disk, if it has been modified.
+   */
+  public static synchronized void save() {
+    if (!modified) {
+      return;
+    }
+    Path file = getCacheFile();
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+        Entry entry = mapEntry.getValue();
+        StringBuilder line = new StringBuilder(mapEntry.getKey());
+        line.append(FIELD_SEPARATOR).append(entry.size);
+        line.append(FIELD_SEPARATOR).append(entry.lastModified);
+        line.append(FIELD_SEPARATOR).append(entry.fileKey == null ? "" : entry.fileKey);
+        for (Map.Entry<String, String> checksum : entry.checksums.entrySet()) {
+          line.append(FIELD_SEPARATOR).append(checksum.getKey()).append(CHECKSUM_SEPARATOR)
+            .append(checksum.getValue());
+        }
+        writer.write(line.toString());
+        writer.newLine();
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to save the checksum cache", e);
+      return;
+    }
+    try {
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+      modified = false;
+    } catch (IOException e) {
+      LOGGER.warn("Unable to save the checksum cache", e);
+    }
+  }
+
+  /*
+   * Forgets the loaded entries, so they're loaded again from the given file
+   * (or from the RODA-in folder if null).
+   */
+  static synchronized void reset(Path file) {
+    entries = null;
+    modified = false;
+    cacheFile = file;
+  }
+
+  private static synchronized String getCached(Path file, BasicFileAttributes attrs, String algorithm) {
+    Entry entry = getEntries().get(file.toAbsolutePath().toString());
+    if (entry != null && entry.matches(attrs)) {
+      return entry.checksums.get(algorithm.toUpperCase());
+    }
+    return null;
+  }
+
+  /*
+   * Returns the entry of the file, replacing it if the file has changed. Must
+   * be called while holding the class lock.
+   */
+  private static Entry getValidEntry(Path file, BasicFileAttributes attrs) {
+    String key = file.toAbsolutePath().toString();
+    Entry entry = getEntries().get(key);
+    if (entry == null || !entry.matches(attrs)) {
+      entry = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey(attrs));
+      // paths with the field separator or line breaks are not persisted
+      if (!key.contains(FIELD_SEPARATOR) && !key.contains("\n") && !key.contains("\r")) {
+        entries.put(key, entry);
+      }
+    }
+    return entry;
+  }
+
+  private static Map<String, String> computeChecksums(Path file) throws IOException {
+    try {
+      MessageDigest md5 = MessageDigest.getInstance(MD5);
+      MessageDigest sha256 = MessageDigest.getInstance(SHA256);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      try (InputStream input = Files.newInputStream(file)) {
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+          md5.update(buffer, 0, read);
+          sha256.update(buffer, 0, read);
+        }
+      }
+      Map<String, String> result = new HashMap<>();
+      result.put(MD5, toHex(md5.digest()));
+      result.put(SHA256, toHex(sha256.digest()));
+      return result;
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support both algorithms
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder result = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return result.toString();
+  }
+
+  private static String fileKey(BasicFileAttributes attrs) {
+    Object fileKey = attrs.fileKey();
+    return fileKey == null ? null : fileKey.toString();
+  }
+
+  private static Path getCacheFile() {
+    if (cacheFile != null) {
+      return cacheFile;
+    }
+    return ConfigurationManager.getRodainPath().resolve(Constants.CHECKSUM_CACHE_FILE);
+  }
+
+  private static Map<String, Entry> getEntries() {
+    if (entries == null) {
+      int maxEntries = ConfigurationManager.getConfigAsInt(Constants.CONF_K_CHECKSUM_CACHE_MAX_ENTRIES,
+        DEFAULT_MAX_ENTRIES);
+      entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > maxEntries;
+        }
+      };
+      load();
+    }
+    return entries;
+  }
+
+  private static void load() {
+    Path file = getCacheFile();
+    if (!Files.exists(file)) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(FIELD_SEPARATOR);
+        if (fields.length < 4) {
+          continue;
+        }
+        try {
+          Entry entry = new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+            fields[3].isEmpty() ? null : fields[3]);
+          for (int i = 4; i < fields.length; i++) {
+            int separator = fields[i].indexOf(CHECKSUM_SEPARATOR);
+            if (separator > 0) {
+              entry.checksums.put(fields[i].substring(0, separator), fields[i].substring(separator + 1));
+            }
+          }
+          entries.put(Paths.get(fields[0]).toString(), entry);
+        } catch (NumberFormatException e) {
+          LOGGER.debug("Ignoring malformed checksum cache line", e);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to load the checksum cache", e);
+    }
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    private final Map<String, String> checksums = new HashMap<>();
+
+    Entry(long size, long lastModified, String fileKey) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+    }
+
+    boolean matches(BasicFileAttributes attrs) {
+      return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis()
+        && Objects.equals(fileKey, ChecksumCache.fileKey(attrs));
+    }
+  }
+}
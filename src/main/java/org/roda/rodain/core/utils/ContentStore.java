@@ -0,0 +1,173 @@
+package org.roda.rodain.core.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.roda.rodain.core.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressed store for the metadata content, so it doesn't have to be
+ * kept in the heap for each SIP.
+ * <p>
+ * Each content is written once to a temporary folder, named by its SHA-256
+ * digest (SIPs created from the same template share the same content), and
+ * only the digest has to be kept by the owner. The most recently used contents
+ * are also kept in memory, up to {@link #MAX_CACHED_BYTES}. The folder is
+ * deleted when the application exits.
+ * </p>
+ */
+public class ContentStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ContentStore.class.getName());
+
+  static final long MAX_CACHED_BYTES = 16L * 1024 * 1024;
+
+  private static final Map<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private static long cachedBytes = 0;
+  private static Path storeDir;
+
+  private ContentStore() {
+  }
+
+  /**
+   * Adds a content to the store.
+   *
+   * @param content
+   *          The content, must not be modified afterwards
+   * @return The key of the content in the store
+   * @throws IOException
+   *           if the content can't be written to the store
+   */
+  public static String put(byte[] content) throws IOException {
+    String key = digest(content);
+    Path file = getStoreDir().resolve(key);
+    if (!Files.exists(file)) {
+      Path tempFile = Files.createTempFile(getStoreDir(), key, ".tmp");
+      Files.write(tempFile, content);
+      try {
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) {
+        // written by another thread in the meantime
+        Files.deleteIfExists(tempFile);
+      }
+    }
+    cache(key, content);
+    return key;
+  }
+
+  /**
+   * @param key
+   *          The key returned by {@link #put(byte[])}
+   * @return The content, must not be modified
+   * @throws IOException
+   *           if the content can't be read from the store
+   */
+  public static byte[] get(String key) throws IOException {
+    byte[] content;
+    synchronized (ContentStore.class) {
+      content = cache.get(key);
+    }
+    if (content == null) {
+      content = Files.readAllBytes(getStoreDir().resolve(key));
+      cache(key, content);
+    }
+    return content;
+  }
+
+  /**
+   * @param key
+   *          The key returned by {@link #put(byte[])}
+   * @return A stream to read the content, without loading it to memory if it
+   *         isn't already there
+   * @throws IOException
+   *           if the content can't be read from the store
+   */
+  public static InputStream open(String key) throws IOException {
+    byte[] content;
+    synchronized (ContentStore.class) {
+      content = cache.get(key);
+    }
+    if (content != null) {
+      return new ByteArrayInputStream(content);
+    }
+    return Files.newInputStream(getStoreDir().resolve(key));
+  }
+
+  /**
+   * Forgets the contents kept in memory and uses another folder, for the tests.
+   *
+   * @param dir
+   *          The folder of the store, null for a new temporary folder
+   */
+  static synchronized void reset(Path dir) {
+    cache.clear();
+    cachedBytes = 0;
+    storeDir = dir;
+  }
+
+  /**
+   * @return true if the content is kept in memory.
+   */
+  static synchronized boolean isCached(String key) {
+    return cache.containsKey(key);
+  }
+
+  /**
+   * @return The size of the contents kept in memory.
+   */
+  static synchronized long getCachedBytes() {
+    return cachedBytes;
+  }
+
+  private static synchronized void cache(String key, byte[] content) {
+    if (content.length > MAX_CACHED_BYTES / 4) {
+      return;
+    }
+    byte[] previous = cache.put(key, content);
+    if (previous != null) {
+      cachedBytes -= previous.length;
+    }
+    cachedBytes += content.length;
+    Iterator<byte[]> eldest = cache.values().iterator();
+    while (cachedBytes > MAX_CACHED_BYTES && eldest.hasNext()) {
+      cachedBytes -= eldest.next().length;
+      eldest.remove();
+    }
+  }
+
+  private static synchronized Path getStoreDir() throws IOException {
+    if (storeDir == null) {
+      Path dir = Files.createTempDirectory(Constants.RODAIN_TEMP_DIR_PREFIX);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> FileUtils.deleteQuietly(dir.toFile())));
+      storeDir = dir;
+      LOGGER.debug("Metadata content store created in '{}'", dir);
+    }
+    return storeDir;
+  }
+
+  private static String digest(byte[] content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+      StringBuilder result = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return result.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
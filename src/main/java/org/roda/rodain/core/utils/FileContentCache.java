@@ -0,0 +1,218 @@
+package org.roda.rodain.core.utils;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache of the content of small files, like the templates and
+ * schemas in the RODA-in folder.
+ * <p>
+ * The folders of the cached files are registered in a {@link WatchService} and
+ * any change in them invalidates the cache, so a cached file is returned
+ * without touching the file system. When a folder can't be watched, the
+ * entries of its files are checked against the file's size and modification
+ * time instead.
+ * </p>
+ */
+public class FileContentCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileContentCache.class.getName());
+
+  private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+  private final Set<Path> watchedFolders = ConcurrentHashMap.newKeySet();
+  private final Set<Path> unwatchableFolders = ConcurrentHashMap.newKeySet();
+  // incremented on every change in a watched folder, entries from an older
+  // generation are stale
+  private final AtomicLong generation = new AtomicLong();
+  private final String name;
+  private WatchService watchService;
+  private boolean watchUnavailable = false;
+
+  /**
+   * @param name
+   *          The name of the cache, used in the watcher thread's name
+   */
+  public FileContentCache(String name) {
+    this.name = name;
+  }
+
+  /*
+   * Creates a cache that checks the files on each access, as if the watch
+   * service wasn't available.
+   */
+  FileContentCache(String name, boolean watch) {
+    this(name);
+    watchUnavailable = !watch;
+  }
+
+  /**
+   * @param file
+   *          The file
+   * @return The content of the file or null if it doesn't exist
+   * @throws IOException
+   *           if the file exists but can't be read
+   */
+  public byte[] getContent(Path file) throws IOException {
+    return getEntry(file).content;
+  }
+
+  /**
+   * @param file
+   *          The file
+   * @return true if the file exists and is readable, false otherwise
+   */
+  public boolean exists(Path file) {
+    try {
+      return getEntry(file).content != null;
+    } catch (IOException e) {
+      LOGGER.debug("Unable to read file '{}'", file, e);
+      return false;
+    }
+  }
+
+  /**
+   * Removes all the entries of the cache.
+   */
+  public void clear() {
+    generation.incrementAndGet();
+    entries.clear();
+  }
+
+  private Entry getEntry(Path file) throws IOException {
+    file = file.toAbsolutePath().normalize();
+    boolean watched = watch(file.getParent());
+    // the generation is read before the file, so a change made while reading
+    // makes the new entry stale right away
+    long currentGeneration = generation.get();
+    Entry entry = entries.get(file);
+    if (entry != null && entry.isValid(file, watched, currentGeneration)) {
+      return entry;
+    }
+
+    BasicFileAttributes attrs = null;
+    byte[] content = null;
+    try {
+      attrs = Files.readAttributes(file, BasicFileAttributes.class);
+      if (attrs.isRegularFile()) {
+        content = Files.readAllBytes(file);
+      }
+    } catch (NoSuchFileException e) {
+      LOGGER.trace("File '{}' doesn't exist", file);
+    }
+    entry = new Entry(content, attrs, watched ? currentGeneration : -1);
+    entries.put(file, entry);
+    return entry;
+  }
+
+  /*
+   * Registers the folder in the watch service, if it isn't already.
+   *
+   * @return true if the folder is being watched
+   */
+  private boolean watch(Path folder) {
+    if (folder == null || unwatchableFolders.contains(folder)) {
+      return false;
+    }
+    if (watchedFolders.contains(folder)) {
+      return true;
+    }
+    synchronized (this) {
+      if (watchedFolders.contains(folder)) {
+        return true;
+      }
+      WatchService service = getWatchService();
+      if (service == null) {
+        return false;
+      }
+      try {
+        folder.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedFolders.add(folder);
+        return true;
+      } catch (IOException e) {
+        // folders that don't exist (yet) are checked again on the next access
+        if (Files.isDirectory(folder)) {
+          LOGGER.debug("Unable to watch folder '{}', its files will be checked on each access", folder, e);
+          unwatchableFolders.add(folder);
+        }
+        return false;
+      }
+    }
+  }
+
+  private WatchService getWatchService() {
+    if (watchService == null && !watchUnavailable) {
+      try {
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread watcher = new Thread(this::processEvents, name + "-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+      } catch (IOException | UnsupportedOperationException e) {
+        LOGGER.debug("Unable to create watch service, files will be checked on each access", e);
+        watchUnavailable = true;
+      }
+    }
+    return watchService;
+  }
+
+  private void processEvents() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        key.pollEvents();
+        Path folder = (Path) key.watchable();
+        generation.incrementAndGet();
+        entries.keySet().removeIf(file -> folder.equals(file.getParent()));
+        if (!key.reset()) {
+          // the folder was removed, it has to be registered again if recreated
+          watchedFolders.remove(folder);
+          generation.incrementAndGet();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      LOGGER.debug("Watch service closed", e);
+    }
+  }
+
+  private static class Entry {
+    private final byte[] content;
+    private final long size;
+    private final long lastModified;
+    private final long generation;
+
+    Entry(byte[] content, BasicFileAttributes attrs, long generation) {
+      this.content = content;
+      this.size = attrs == null ? -1 : attrs.size();
+      this.lastModified = attrs == null ? -1 : attrs.lastModifiedTime().toMillis();
+      this.generation = generation;
+    }
+
+    boolean isValid(Path file, boolean watched, long currentGeneration) {
+      if (watched) {
+        return generation == currentGeneration;
+      }
+      try {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis();
+      } catch (IOException e) {
+        return size == -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package org.roda.rodain.core.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Cache of compiled XML schemas, so the same XSD isn't compiled for each
+ * validation.
+ * <p>
+ * The schemas are kept by the path of their file, with the content they were
+ * compiled from, so a schema file that changes is compiled again. Each schema
+ * keeps a pool of {@link Validator}s, since a validator can only be used by one
+ * thread at a time.
+ * </p>
+ */
+public class SchemaCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SchemaCache.class.getName());
+
+  private static final int MAX_SCHEMAS = 32;
+
+  private static final Map<Path, Entry> schemas = Collections
+    .synchronizedMap(new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+        return size() > MAX_SCHEMAS;
+      }
+    });
+  // schemas being compiled, so concurrent validations wait for the same
+  // compilation instead of compiling the schema again
+  private static final Map<Path, Object> compiling = new ConcurrentHashMap<>();
+
+  private SchemaCache() {
+  }
+
+  /**
+   * Validates a XML against a schema.
+   *
+   * @param content
+   *          The String content of the XML to be validated.
+   * @param schemaPath
+   *          The path of the schema file, identifies the schema in the cache
+   * @param schemaContent
+   *          The content of the schema file, only compiled if the schema isn't
+   *          in the cache or its content changed
+   * @throws IOException
+   *           if the XML can't be read
+   * @throws SAXException
+   *           if the schema can't be compiled or the XML isn't valid
+   */
+  public static void validate(String content, Path schemaPath, byte[] schemaContent)
+    throws IOException, SAXException {
+    getEntry(schemaPath, schemaContent).validate(content);
+  }
+
+  /**
+   * Validates several XMLs on a pool of at most one thread per processor. Each
+   * schema is compiled once and its validators are shared by the threads.
+   *
+   * @param contents
+   *          The XMLs to be validated, by key
+   * @param schemas
+   *          Gives the schema of each XML
+   * @return The errors of the XMLs that aren't valid, by key
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting for the validations
+   */
+  public static <T> Map<T, Exception> validateAll(Map<T, String> contents, SchemaProvider<T> schemas)
+    throws InterruptedException {
+    Map<T, Exception> errors = new ConcurrentHashMap<>();
+    if (contents.isEmpty()) {
+      return errors;
+    }
+    int threads = Math.min(contents.size(), Runtime.getRuntime().availableProcessors());
+    AtomicInteger workerCount = new AtomicInteger();
+    ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "schema-validation-" + workerCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Map.Entry<T, String> item : contents.entrySet()) {
+        futures.add(workers.submit(() -> {
+          try {
+            Path schemaPath = schemas.getSchemaPath(item.getKey());
+            if (schemaPath != null) {
+              byte[] schemaContent = schemas.getSchemaContent(item.getKey());
+              if (schemaContent == null) {
+                throw new SAXException("There's no schema file " + schemaPath);
+              }
+              validate(item.getValue(), schemaPath, schemaContent);
+            }
+          } catch (IOException | SAXException | RuntimeException e) {
+            errors.put(item.getKey(), e);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      // the tasks catch their own exceptions, this should never happen
+      LOGGER.error("Error validating XMLs", e);
+    } finally {
+      workers.shutdownNow();
+    }
+    return errors;
+  }
+
+  /**
+   * @return The compiled schema, compiling it if it isn't in the cache.
+   */
+  static Schema getSchema(Path schemaPath, byte[] schemaContent) throws SAXException {
+    return getEntry(schemaPath, schemaContent).schema;
+  }
+
+  /**
+   * @return The number of validators of the schema waiting to be used.
+   */
+  static int getPooledValidatorsCount(Path schemaPath) {
+    Entry entry = schemas.get(schemaPath);
+    return entry == null ? 0 : entry.validators.size();
+  }
+
+  private static Entry getEntry(Path schemaPath, byte[] schemaContent) throws SAXException {
+    Entry entry = schemas.get(schemaPath);
+    if (entry != null && entry.isCompiledFrom(schemaContent)) {
+      return entry;
+    }
+    Object lock = compiling.computeIfAbsent(schemaPath, k -> new Object());
+    try {
+      synchronized (lock) {
+        entry = schemas.get(schemaPath);
+        if (entry == null || !entry.isCompiledFrom(schemaContent)) {
+          entry = new Entry(compile(schemaPath, schemaContent), schemaContent);
+          schemas.put(schemaPath, entry);
+        }
+        return entry;
+      }
+    } finally {
+      compiling.remove(schemaPath, lock);
+    }
+  }
+
+  private static Schema compile(Path schemaPath, byte[] schemaContent) throws SAXException {
+    long start = System.currentTimeMillis();
+    SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+    factory.setResourceResolver(new ResourceResolver());
+    Schema schema = factory.newSchema(new StreamSource(new ByteArrayInputStream(schemaContent)));
+    LOGGER.debug("Compiled schema {} in {} ms", schemaPath, System.currentTimeMillis() - start);
+    return schema;
+  }
+
+  /**
+   * Gives the schema of the XMLs validated by
+   * {@link SchemaCache#validateAll(Map, SchemaProvider)}.
+   */
+  public interface SchemaProvider<T> {
+    /**
+     * @return The path of the schema file of the XML, identifies the schema in
+     *         the cache. Null if the XML has no schema and isn't validated.
+     */
+    Path getSchemaPath(T item);
+
+    /**
+     * @return The content of the schema file of the XML, null if it can't be
+     *         read.
+     */
+    byte[] getSchemaContent(T item);
+  }
+
+  private static class Entry {
+    private final Schema schema;
+    private final byte[] source;
+    private final ConcurrentLinkedQueue<Validator> validators = new ConcurrentLinkedQueue<>();
+
+    Entry(Schema schema, byte[] source) {
+      this.schema = schema;
+      this.source = source;
+    }
+
+    /*
+     * The file contents are cached, so the same array is usually given while
+     * the file doesn't change.
+     */
+    boolean isCompiledFrom(byte[] content) {
+      return source == content || Arrays.equals(source, content);
+    }
+
+    void validate(String content) throws IOException, SAXException {
+      Validator validator = validators.poll();
+      if (validator == null) {
+        validator = schema.newValidator();
+      }
+      try {
+        validator.validate(new StreamSource(new StringReader(content)));
+      } finally {
+        // a validator that failed is reset before being used again
+        validator.reset();
+        validators.offer(validator);
+      }
+    }
+  }
+}
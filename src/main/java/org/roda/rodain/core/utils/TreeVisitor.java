@@ -1,7 +1,9 @@
 package org.roda.rodain.core.utils;
 
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
 
 /**
  * @author Andre Pereira apereira@keep.pt
@@ -12,11 +14,26 @@ public interface TreeVisitor {
    * Method called before visiting a directory.
    * @param path The path of the directory
    * @param attrs The attributes of the directory
+   * @return CONTINUE to visit the content of the directory, SKIP_SUBTREE to
+   *         skip it (SKIP_SIBLINGS is handled the same way) or TERMINATE to
+   *         stop the walk
    */
-  void preVisitDirectory(Path path, BasicFileAttributes attrs);
+  FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs);
 
   /**
-   * Method called after visiting a directory
+   * Method called after preVisitDirectory, when the content of the directory
+   * is going to be visited, with all its entries. Used by the visitors that
+   * need to know the whole content of a directory before visiting it, so they
+   * don't have to walk the tree on their own.
+   * @param path The path of the directory
+   * @param entries The paths of the directory's entries
+   */
+  default void directoryEntries(Path path, List<Path> entries) {
+  }
+
+  /**
+   * Method called after visiting a directory. Not called for the directories
+   * skipped in {@link #preVisitDirectory(Path, BasicFileAttributes)}.
    * @param path The path of the directory
    */
   void postVisitDirectory(Path path);
@@ -2,32 +2,67 @@ package org.roda.rodain.core.utils;
 
 import java.io.IOException;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.roda.rodain.core.ConfigurationManager;
+import org.roda.rodain.core.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Walks the file tree of a set of paths, calling a {@link TreeVisitor} for each
+ * directory and file found.
+ * <p>
+ * The visitor is always called from this thread, in depth-first order, exactly
+ * as {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)} would. The
+ * attributes of the entries of a directory are read concurrently by a bounded
+ * pool, since reading them one by one is bound by the latency of each stat
+ * (e.g. on network shares), not by the CPU.
+ * </p>
+ * <p>
+ * A directory is only listed after the visitor decided to visit its content,
+ * so a skipped tree costs the stat of the directory alone.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 01-10-2015.
  */
 public class WalkFileTree extends Thread {
   private static final Logger LOGGER = LoggerFactory.getLogger(WalkFileTree.class.getName());
+  private static final int DEFAULT_THREADS = 8;
+  // number of entries whose attributes are read by each task of the pool
+  private static final int ATTRIBUTES_PER_TASK = 64;
+
   private Set<String> paths;
   private TreeVisitor handler;
-  private boolean cancelled = false;
+  private volatile boolean cancelled = false;
+
+  private final AtomicInteger processedFiles = new AtomicInteger();
+  private final AtomicInteger processedDirs = new AtomicInteger();
 
-  private int processedFiles = 0, processedDirs = 0;
+  private ExecutorService readers;
 
   /**
    * Creates a new WalkFileTree object.
-   * 
+   *
    * @param startPath
    *          The Set of paths used to start the file tree walking.
    * @param handler
@@ -40,56 +75,171 @@ public class WalkFileTree extends Thread {
   }
 
   /**
-   * Iterates the paths received in the constructor and uses each one in
-   * Files.walkFileTree().
+   * Iterates the paths received in the constructor and walks the file tree of
+   * each one.
    */
   @Override
   public void run() {
-    for (String startPath : paths) {
-      handler.setStartPath(startPath);
-      final Path path = Paths.get(startPath);
-      // walkFileTree doesn't work if the start path is a file, so we call the
-      // method directly
-      try {
-        if (!Files.isDirectory(path)) {
-          handler.visitFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+    int threads = Math.max(1,
+      ConfigurationManager.getConfigAsInt(Constants.CONF_K_WALK_FILE_TREE_THREADS, DEFAULT_THREADS));
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, getName() + "-reader");
+        thread.setDaemon(true);
+        return thread;
+      });
+    pool.allowCoreThreadTimeOut(true);
+    readers = pool;
+
+    try {
+      for (String startPath : paths) {
+        if (isTerminated()) {
+          break;
+        }
+        handler.setStartPath(startPath);
+        final Path path = Paths.get(startPath);
+        // the start path can be a file, in that case we visit it directly
+        try {
+          BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+          if (!attrs.isDirectory()) {
+            handler.visitFile(path, attrs);
+          } else {
+            walk(path, attrs);
+          }
+        } catch (AccessDeniedException e) {
+          LOGGER.info("Access denied to file", e);
+        } catch (IOException e) {
+          LOGGER.error("Error walking the file tree", e);
+        }
+      }
+    } finally {
+      readers.shutdownNow();
+    }
+
+    handler.end();
+  }
+
+  /**
+   * Visits a directory, listing it if the visitor doesn't skip it.
+   *
+   * @return false if the walk has been terminated
+   */
+  private boolean walk(Path dir, BasicFileAttributes attrs) {
+    FileVisitResult decision = handler.preVisitDirectory(dir, attrs);
+    if (decision == FileVisitResult.TERMINATE) {
+      cancelled = true;
+    }
+    if (isTerminated()) {
+      return false;
+    }
+    if (decision == FileVisitResult.SKIP_SUBTREE || decision == FileVisitResult.SKIP_SIBLINGS) {
+      return true;
+    }
+
+    DirectoryListing listing = list(dir);
+    if (isTerminated()) {
+      return false;
+    }
+    if (listing.error != null) {
+      // like Files.walkFileTree when a directory can't be read, the visit of
+      // the directory ends without its content
+      LOGGER.debug("Unable to list {}", dir, listing.error);
+      handler.visitFileFailed(dir);
+    } else {
+      List<Path> entries = new ArrayList<>(listing.entries.size());
+      for (Entry entry : listing.entries) {
+        if (entry.attrs != null) {
+          entries.add(entry.path);
+        }
+      }
+      handler.directoryEntries(dir, entries);
+
+      for (Entry entry : listing.entries) {
+        if (entry.attrs == null) {
+          handler.visitFileFailed(entry.path);
+        } else if (entry.attrs.isDirectory()) {
+          if (!walk(entry.path, entry.attrs)) {
+            return false;
+          }
+          continue;
         } else {
-          Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-              processedFiles++;
-              handler.visitFile(file, attrs);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-              handler.preVisitDirectory(dir, attrs);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-              processedDirs++;
-              handler.postVisitDirectory(dir);
-              return isTerminated();
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-              handler.visitFileFailed(file);
-              return isTerminated();
-            }
-          });
+          processedFiles.incrementAndGet();
+          handler.visitFile(entry.path, entry.attrs);
+        }
+        if (isTerminated()) {
+          return false;
         }
-      } catch (AccessDeniedException e) {
-        LOGGER.info("Access denied to file", e);
+      }
+    }
+
+    processedDirs.incrementAndGet();
+    handler.postVisitDirectory(dir);
+    return !isTerminated();
+  }
+
+  /**
+   * Lists a directory, reading the attributes of its entries in the pool when
+   * there are many.
+   */
+  private DirectoryListing list(Path dir) {
+    DirectoryListing result = new DirectoryListing();
+    try (DirectoryStream<Path> stream = newDirectoryStream(dir)) {
+      for (Path child : stream) {
+        result.entries.add(new Entry(child));
+      }
+    } catch (IOException | DirectoryIteratorException e) {
+      result.error = e instanceof IOException ? (IOException) e : ((DirectoryIteratorException) e).getCause();
+      return result;
+    }
+
+    List<Future<?>> tasks = new ArrayList<>();
+    int size = result.entries.size();
+    try {
+      // the first entries are read in this thread, while the pool reads the
+      // others
+      for (int from = ATTRIBUTES_PER_TASK; from < size; from += ATTRIBUTES_PER_TASK) {
+        List<Entry> part = result.entries.subList(from, Math.min(size, from + ATTRIBUTES_PER_TASK));
+        tasks.add(readers.submit(() -> readAttributes(part)));
+      }
+    } catch (RejectedExecutionException e) {
+      // the pool has been shut down, the walk is ending
+      cancelled = true;
+    }
+    readAttributes(result.entries.subList(0, Math.min(size, ATTRIBUTES_PER_TASK)));
+    for (Future<?> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException e) {
+        LOGGER.debug("Walk interrupted while listing {}", dir);
+        cancelled = true;
+        break;
+      } catch (ExecutionException e) {
+        // the entries that weren't read are visited as failed
+        LOGGER.debug("Error reading the attributes of the entries of {}", dir, e);
+      }
+    }
+    return result;
+  }
+
+  private void readAttributes(List<Entry> entries) {
+    for (Entry entry : entries) {
+      if (cancelled) {
+        return;
+      }
+      try {
+        entry.attrs = Files.readAttributes(entry.path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
       } catch (IOException e) {
-        LOGGER.error("Error walking the file tree", e);
+        LOGGER.debug("Unable to read attributes of {}", entry.path, e);
       }
     }
+  }
 
-    handler.end();
+  /**
+   * Opens a directory to be listed, overridden by the tests to know which
+   * directories are listed.
+   */
+  DirectoryStream<Path> newDirectoryStream(Path dir) throws IOException {
+    return Files.newDirectoryStream(dir);
   }
 
   /**
@@ -103,21 +253,35 @@ public class WalkFileTree extends Thread {
    * @return The count of processed directories
    */
   public int getProcessedDirs() {
-    return processedDirs;
+    return processedDirs.get();
   }
 
   /**
    * @return The count of processed files
    */
   public int getProcessedFiles() {
-    return processedFiles;
+    return processedFiles.get();
   }
 
-  private FileVisitResult isTerminated() {
+  private boolean isTerminated() {
     // terminate if the thread has been interrupted
-    if (Thread.interrupted() || cancelled) {
-      return FileVisitResult.TERMINATE;
+    if (Thread.interrupted()) {
+      cancelled = true;
+    }
+    return cancelled;
+  }
+
+  private static class DirectoryListing {
+    private final List<Entry> entries = new ArrayList<>();
+    private IOException error;
+  }
+
+  private static class Entry {
+    private final Path path;
+    private volatile BasicFileAttributes attrs;
+
+    Entry(Path path) {
+      this.path = path;
     }
-    return FileVisitResult.CONTINUE;
   }
 }
@@ -19,6 +19,7 @@ import org.roda.rodain.core.I18n;
 import org.roda.rodain.core.PathCollection;
 import org.roda.rodain.core.schema.Sip;
 import org.roda.rodain.core.sip.SipRepresentation;
+import org.roda.rodain.core.source.DirectorySizeIndex;
 import org.roda.rodain.core.utils.OpenPathInExplorer;
 import org.roda.rodain.ui.creation.CreationModalPreparation;
 import org.roda.rodain.ui.creation.CreationModalStage;
@@ -27,6 +28,7 @@ import org.roda.rodain.ui.creation.RenameModalStage;
 import org.roda.rodain.ui.inspection.InspectionPane;
 import org.roda.rodain.ui.rules.VisitorStack;
 import org.roda.rodain.ui.schema.ui.SchemaPane;
+import org.roda.rodain.ui.source.DirectoryWatcher;
 import org.roda.rodain.ui.source.FileExplorerPane;
 import org.roda.rodain.ui.source.items.SourceTreeItem;
 import org.roda.rodain.ui.utils.FontAwesomeImageCreator;
@@ -595,9 +597,9 @@ public class RodaInApplication extends Application {
   private static void closeApp() {
     Controller.exportClassificationScheme(schemePane.getSchemaNodes(),
       ConfigurationManager.getRodainPath().resolve(".plan.temp").toString());
-    // 20170308 hsilva: disabled watchservice
-    // fileExplorer.closeWatcher();
+    DirectoryWatcher.close();
     VisitorStack.end();
+    DirectorySizeIndex.save();
     Footer.getInstance().cancelMemoryAutoUpdater();
     Platform.exit();
   }
@@ -336,7 +336,7 @@ public class AddMetadataPane extends BorderPane {
             Pair metaType = comboTypesSingleFile.getSelectionModel().getSelectedItem();
             addTypeAndVersionToMetadata(metaType, metadataToAdd);
             try {
-              if (!Controller.validateSchema(selectedPath, metadataToAdd.getSchema())) {
+              if (!Controller.validateSchema(selectedPath, metadataToAdd)) {
                 metadataToAdd = null;
               }
             } catch (IOException | SAXException e) {
@@ -3,7 +3,6 @@ package org.roda.rodain.ui.inspection;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
@@ -58,6 +57,7 @@ import org.roda.rodain.ui.schema.ui.SipPreviewNode;
 import org.roda.rodain.ui.source.SourceTreeCell;
 import org.roda.rodain.ui.source.items.SourceTreeItem;
 import org.roda.rodain.ui.utils.FontAwesomeImageCreator;
+import org.roda.rodain.ui.utils.UITaskScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
@@ -115,6 +115,10 @@ import javafx.util.converter.LocalDateStringConverter;
  */
 public class InspectionPane extends BorderPane {
   private static final Logger LOGGER = LoggerFactory.getLogger(InspectionPane.class.getName());
+  private static final String TASK_VALIDATION = "validation";
+  private static final String TASK_CONTENT = "content";
+  private static final String TASK_DOCUMENTATION = "documentation";
+  private static final String TASK_METADATA = "metadata";
   private HBox topBox;
   private VBox center;
   private HBox topSubtitle;
@@ -532,7 +536,7 @@ public class InspectionPane extends BorderPane {
             Pair selectedInCombo = metadataCombo.getSelectionModel().getSelectedItem();
             if (selectedInCombo != null) {
               DescriptiveMetadata dom = (DescriptiveMetadata) selectedInCombo.getKey();
-              if (Controller.validateSchema(metaText.getText(), dom.getSchema())) {
+              if (Controller.validateSchema(metaText.getText(), dom)) {
                 result = true;
               }
             }
@@ -546,7 +550,7 @@ public class InspectionPane extends BorderPane {
     };
 
     validationTask.setOnSucceeded(Void -> popOver.updateContent(validationTask.getValue(), message.toString()));
-    new Thread(validationTask).start();
+    UITaskScheduler.submit(this, TASK_VALIDATION, validationTask);
   }
 
   private void updateForm() {
@@ -565,7 +569,7 @@ public class InspectionPane extends BorderPane {
       DescriptiveMetadata dom = (DescriptiveMetadata) selectedInCombo.getKey();
       try {
         if ((dom.getCreatorOption() != MetadataOption.TEMPLATE)
-          && !Controller.validateSchema(metaText.getText(), dom.getSchema())) {
+          && !Controller.validateSchema(metaText.getText(), dom)) {
           noForm();
           return;
         }
@@ -1431,7 +1435,7 @@ public class InspectionPane extends BorderPane {
         content.setBottom(contentBottom);
       }
     });
-    new Thread(contentTask).start();
+    UITaskScheduler.submit(this, TASK_CONTENT, contentTask);
   }
 
   private void createDocumentation(SipPreviewNode sip, boolean active) {
@@ -1469,19 +1473,19 @@ public class InspectionPane extends BorderPane {
       }
     });
 
-    new Thread(docsTask).start();
+    UITaskScheduler.submit(this, TASK_DOCUMENTATION, docsTask);
   }
 
   private TreeItem<Object> recCreateSipContent(TreeNode node, TreeItem parent) {
     SipContentDirectory result;
     Path path = node.getPath();
-    if (Files.isDirectory(path))
+    if (node.isDirectory())
       result = new SipContentDirectory(node, parent);
     else
       return new SipContentFile(path, parent);
 
-    for (String key : node.getKeys()) {
-      TreeItem<Object> temp = recCreateSipContent(node.get(key), result);
+    for (TreeNode child : node.getChildNodes()) {
+      TreeItem<Object> temp = recCreateSipContent(child, result);
       result.getChildren().add(temp);
     }
     result.sortChildren();
@@ -1614,7 +1618,7 @@ public class InspectionPane extends BorderPane {
       updateMetadataCombo(false);
       metadataCombo.getSelectionModel().select(selectedIndex);
     });
-    new Thread(metadataTask).start();
+    UITaskScheduler.submit(this, TASK_METADATA, metadataTask);
   }
 
   /**
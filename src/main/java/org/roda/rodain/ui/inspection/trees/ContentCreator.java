@@ -63,6 +63,10 @@ public class ContentCreator extends Observable {
 
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+              // nothing inside a filtered directory would be added
+              if (refToThis.filter(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+              }
               refToThis.preVisitDirectory(dir, attrs);
               return isTerminated();
             }
@@ -93,9 +97,8 @@ public class ContentCreator extends Observable {
   }
 
   private boolean filter(Path path) {
-    String pathString = path.toString();
     for (ContentFilter cf : filters) {
-      if (cf.filter(pathString))
+      if (cf.filter(path))
         return true;
     }
     return false;
@@ -113,7 +116,7 @@ public class ContentCreator extends Observable {
   private void preVisitDirectory(Path path, BasicFileAttributes attrs) {
     if (filter(path) || cancelled)
       return;
-    TreeNode newNode = new TreeNode(path);
+    TreeNode newNode = new TreeNode(path, attrs);
     nodes.add(newNode);
   }
 
@@ -149,9 +152,9 @@ public class ContentCreator extends Observable {
       return;
     }
     if (nodes.isEmpty())
-      files.add(new TreeNode(path));
+      files.add(new TreeNode(path, attrs));
     else
-      nodes.peekLast().add(path);
+      nodes.peekLast().add(path, attrs);
   }
 
   /**
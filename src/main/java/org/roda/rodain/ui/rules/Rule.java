@@ -1,7 +1,6 @@
 package org.roda.rodain.ui.rules;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -375,7 +374,7 @@ public class Rule extends Observable implements Observer, Comparable {
           sip.setRemoved();
           for (SipRepresentation sr : sip.getRepresentations()) {
             for (TreeNode tn : sr.getFiles()) {
-              paths += tn.getFullTreePaths().size();
+              paths += tn.getFullTreeSize();
             }
           }
         }
@@ -384,8 +383,8 @@ public class Rule extends Observable implements Observer, Comparable {
         for (SipPreview sip : sips.values()) {
           for (SipRepresentation sr : sip.getRepresentations()) {
             for (TreeNode tn : sr.getFiles()) {
-              for (String path : tn.getFullTreePaths()) {
-                PathCollection.addPath(Paths.get(path), PathState.NORMAL);
+              for (Path path : tn.fullTree()) {
+                PathCollection.addPath(path, PathState.NORMAL);
                 removedPaths++;
                 float result = (float) removedPaths / paths;
                 setChanged();
@@ -31,6 +31,7 @@ import org.roda.rodain.ui.source.items.SourceTreeDirectory;
 import org.roda.rodain.ui.source.items.SourceTreeFile;
 import org.roda.rodain.ui.source.items.SourceTreeItem;
 import org.roda.rodain.ui.utils.AutoscrollTreeView;
+import org.roda.rodain.ui.utils.UITaskScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,6 +76,7 @@ import javafx.stage.StageStyle;
  */
 public class SchemaPane extends BorderPane {
   private static final Logger LOGGER = LoggerFactory.getLogger(SchemaPane.class.getName());
+  private static final String TASK_REMOVE = "remove";
 
   private TreeView<String> treeView;
   private VBox treeBox;
@@ -559,7 +561,7 @@ public class SchemaPane extends BorderPane {
         // remove the nodes from the tree
         removeTask.setOnSucceeded(event -> selectedItems.forEach(this::removeNode));
 
-        new Thread(removeTask).start();
+        UITaskScheduler.submit(currentSIP, TASK_REMOVE, removeTask);
       }
     }
   }
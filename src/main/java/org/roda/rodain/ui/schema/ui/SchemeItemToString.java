@@ -1,9 +1,6 @@
 package org.roda.rodain.ui.schema.ui;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -91,20 +88,21 @@ public class SchemeItemToString {
   private void compute(Set<SipPreview> sipPreviews) {
     for (SipPreview sip : sipPreviews) {
       representations += sip.getRepresentations().size();
-      Set<Path> paths = new HashSet<>();
+      Set<TreeNode> nodes = new HashSet<>();
       for (SipRepresentation rep : sip.getRepresentations()) {
         for (TreeNode tn : rep.getFiles()) {
-          paths.add(tn.getPath());
-          paths.addAll(tn.getFullTreePathsAsPaths());
+          for (TreeNode node : tn.fullTreeNodes()) {
+            nodes.add(node);
+          }
         }
       }
       try {
-        for (Path p : paths) {
-          if (Files.isDirectory(p)) {
+        for (TreeNode node : nodes) {
+          if (node.isDirectory()) {
             folders++;
           } else {
             files++;
-            size += Files.readAttributes(p, BasicFileAttributes.class).size();
+            size += node.getSize();
           }
         }
       } catch (IOException e) {
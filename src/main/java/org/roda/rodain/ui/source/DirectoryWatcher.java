@@ -1,75 +1,381 @@
 package org.roda.rodain.ui.source;
 
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.roda.rodain.core.PathCollection;
+import org.roda.rodain.core.source.representation.SourceDirectory;
+import org.roda.rodain.ui.source.items.SourceTreeDirectory;
+import org.roda.rodain.ui.utils.UITaskScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * FIXME 20170310 hsilva: this class will/should/must be removed
- * 
+ * Watches the expanded directories of the file explorer and applies the
+ * children created and deleted in the file system to their items, see
+ * {@link SourceTreeDirectory#childrenChanged(java.util.Collection, java.util.Collection)}.
+ * <p>
+ * Only the expanded directories are registered in the WatchService, and the
+ * events of a directory are applied together, when no new event arrives for a
+ * short time, so copying many files doesn't update the tree for each file. When
+ * a directory can't be registered (e.g. the limit of inotify watches has been
+ * reached), its modification time is polled instead, and when events are lost
+ * (OVERFLOW), only the directory that lost them is listed again and compared
+ * with its known children.
+ * </p>
+ *
  * @author Andre Pereira apereira@keep.pt
  * @since 29-08-2016.
  */
-@Deprecated
-public class DirectoryWatcher extends Thread {
+public class DirectoryWatcher {
   private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryWatcher.class.getName());
+  private static final String TASK_RESCAN = "rescan";
+  // the events of a directory are applied when no event arrives for
+  // QUIET_MILLIS, or at most MAX_DELAY_MILLIS after the first one
+  private static final long QUIET_MILLIS = 250;
+  private static final long MAX_DELAY_MILLIS = 2000;
+  private static final long POLL_MILLIS = 5000;
+
+  // guarded by the class
+  private static final Map<Path, Watched> watched = new HashMap<>();
+  private static final Map<WatchKey, Watched> watchedByKey = new HashMap<>();
+  private static final Set<Watched> pending = new LinkedHashSet<>();
+  private static WatchService watchService;
+  private static Thread thread;
+  private static boolean closed = false;
+
+  private DirectoryWatcher() {
+  }
+
+  /**
+   * Starts watching an expanded directory. If the directory has been loaded
+   * before, it's listed again, since it may have changed while it wasn't
+   * watched.
+   *
+   * @param item
+   *          The item of the directory
+   */
+  public static void watch(SourceTreeDirectory item) {
+    SourceDirectory directory = item.getDirectory();
+    if (directory == null) {
+      return;
+    }
+    Path path = directory.getPath();
+    synchronized (DirectoryWatcher.class) {
+      if (closed || watched.containsKey(path)) {
+        return;
+      }
+      start();
+      Watched w = new Watched(path, item);
+      if (watchService != null) {
+        try {
+          w.key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE);
+          watchedByKey.put(w.key, w);
+        } catch (IOException | UnsupportedOperationException e) {
+          LOGGER.debug("Can't register {} in the WatchService, its modification time will be polled", path, e);
+        }
+      }
+      if (w.key == null) {
+        w.lastModified = getLastModified(path);
+      }
+      watched.put(path, w);
+    }
+
+    if (directory.isFirstLoaded()) {
+      // changes may have been missed while the directory wasn't watched
+      UITaskScheduler.submit(item, TASK_RESCAN, () -> rescan(item), changes -> apply(item, changes));
+    }
+  }
+
+  /**
+   * Stops watching a directory that was collapsed.
+   *
+   * @param item
+   *          The item of the directory
+   */
+  public static synchronized void unwatch(SourceTreeDirectory item) {
+    SourceDirectory directory = item.getDirectory();
+    if (directory != null) {
+      Watched w = watched.get(directory.getPath());
+      if (w != null && w.item == item) {
+        remove(w);
+      }
+    }
+  }
+
+  /**
+   * Stops watching a directory and all the directories inside it, when it's
+   * removed from the file explorer.
+   *
+   * @param path
+   *          The path of the directory
+   */
+  public static synchronized void unwatchAll(Path path) {
+    for (Watched w : new ArrayList<>(watched.values())) {
+      if (w.path.startsWith(path)) {
+        remove(w);
+      }
+    }
+  }
+
+  /**
+   * Stops watching all the directories and closes the WatchService.
+   */
+  public static synchronized void close() {
+    closed = true;
+    watched.clear();
+    watchedByKey.clear();
+    pending.clear();
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        LOGGER.debug("Error closing the directory watcher", e);
+      }
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private static void start() {
+    if (thread != null) {
+      return;
+    }
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      LOGGER.warn("Can't create a WatchService, the modification time of the expanded directories will be polled", e);
+    }
+    thread = new Thread(DirectoryWatcher::run, "directory-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void remove(Watched w) {
+    watched.remove(w.path);
+    pending.remove(w);
+    if (w.key != null) {
+      w.key.cancel();
+      watchedByKey.remove(w.key);
+    }
+  }
+
+  private static void run() {
+    long nextPoll = System.currentTimeMillis() + POLL_MILLIS;
+    while (!Thread.currentThread().isInterrupted()) {
+      long timeout = Math.max(1, Math.min(nextPoll, nextFlush()) - System.currentTimeMillis());
+      try {
+        if (watchService != null) {
+          WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+          if (key != null) {
+            collect(key);
+          }
+        } else {
+          Thread.sleep(timeout);
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      flushDue();
+      if (System.currentTimeMillis() >= nextPoll) {
+        pollModified();
+        nextPoll = System.currentTimeMillis() + POLL_MILLIS;
+      }
+    }
+  }
+
+  private static void collect(WatchKey key) {
+    List<WatchEvent<?>> events = key.pollEvents();
+    boolean valid = key.reset();
+    synchronized (DirectoryWatcher.class) {
+      Watched w = watchedByKey.get(key);
+      if (w == null) {
+        return;
+      }
+      if (!valid) {
+        // the directory is no longer accessible, its deletion is applied by
+        // the watcher of its parent
+        remove(w);
+        return;
+      }
+      for (WatchEvent<?> event : events) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          w.rescan = true;
+        } else {
+          Path child = w.path.resolve((Path) event.context());
+          // the last event of each child is the one that counts
+          w.changes.remove(child);
+          w.changes.put(child, event.kind() == StandardWatchEventKinds.ENTRY_CREATE);
+        }
+      }
+      w.eventReceived(System.currentTimeMillis());
+      pending.add(w);
+    }
+  }
+
+  private static synchronized long nextFlush() {
+    long result = Long.MAX_VALUE;
+    for (Watched w : pending) {
+      result = Math.min(result, w.getFlushTime());
+    }
+    return result;
+  }
+
+  private static void flushDue() {
+    List<Watched> due = new ArrayList<>();
+    List<Map<Path, Boolean>> dueChanges = new ArrayList<>();
+    List<Boolean> dueRescans = new ArrayList<>();
+    synchronized (DirectoryWatcher.class) {
+      long now = System.currentTimeMillis();
+      Iterator<Watched> it = pending.iterator();
+      while (it.hasNext()) {
+        Watched w = it.next();
+        if (w.getFlushTime() <= now) {
+          it.remove();
+          due.add(w);
+          dueChanges.add(w.changes);
+          dueRescans.add(w.rescan);
+          w.changes = new LinkedHashMap<>();
+          w.rescan = false;
+          w.firstEvent = 0;
+        }
+      }
+    }
+
+    for (int i = 0; i < due.size(); i++) {
+      Watched w = due.get(i);
+      if (PathCollection.getItem(w.path) != w.item) {
+        // the directory was removed from the file explorer
+        unwatch(w.item);
+        continue;
+      }
+      if (dueRescans.get(i)) {
+        // listing the directory may take long, it's done in the background
+        // so the events of the other directories aren't delayed
+        SourceTreeDirectory item = w.item;
+        UITaskScheduler.submit(item, TASK_RESCAN, () -> rescan(item), changes -> apply(item, changes));
+      } else {
+        Changes changes = new Changes();
+        for (Map.Entry<Path, Boolean> change : dueChanges.get(i).entrySet()) {
+          (change.getValue() ? changes.created : changes.deleted).add(change.getKey());
+        }
+        apply(w.item, changes);
+      }
+    }
+  }
+
+  private static void apply(SourceTreeDirectory item, Changes changes) {
+    if (!changes.created.isEmpty() || !changes.deleted.isEmpty()) {
+      item.childrenChanged(changes.created, changes.deleted);
+    }
+  }
+
+  private static void pollModified() {
+    List<Watched> polled = new ArrayList<>();
+    synchronized (DirectoryWatcher.class) {
+      for (Watched w : watched.values()) {
+        if (w.key == null) {
+          polled.add(w);
+        }
+      }
+    }
+    long now = System.currentTimeMillis();
+    for (Watched w : polled) {
+      long lastModified = getLastModified(w.path);
+      synchronized (DirectoryWatcher.class) {
+        if (lastModified != w.lastModified && watched.get(w.path) == w) {
+          w.lastModified = lastModified;
+          w.rescan = true;
+          w.eventReceived(now);
+          pending.add(w);
+        }
+      }
+    }
+  }
+
+  /*
+   * Lists the directory again and compares it with the children that are
+   * known, loaded or still to be loaded.
+   */
+  private static Changes rescan(SourceTreeDirectory item) {
+    SourceDirectory directory = item.getDirectory();
+    Set<String> known = directory.getKnownNames();
+    Changes changes = new Changes();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.getPath())) {
+      for (Path entry : stream) {
+        if (!known.remove(entry.getFileName().toString())) {
+          changes.created.add(entry);
+        }
+      }
+    } catch (IOException | DirectoryIteratorException e) {
+      LOGGER.debug("Unable to list {} again", directory.getPath(), e);
+      return new Changes();
+    }
+    for (String name : known) {
+      changes.deleted.add(directory.getPath().resolve(name));
+    }
+    return changes;
+  }
+
+  private static long getLastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private static class Changes {
+    private final List<Path> created = new ArrayList<>();
+    private final List<Path> deleted = new ArrayList<>();
+  }
+
+  private static class Watched {
+    private final Path path;
+    private final SourceTreeDirectory item;
+    private WatchKey key;
+    // used when the directory is polled instead of registered
+    private long lastModified;
+    // the children that changed and whether they were created or deleted
+    private Map<Path, Boolean> changes = new LinkedHashMap<>();
+    private boolean rescan = false;
+    private long firstEvent = 0, lastEvent = 0;
+
+    Watched(Path path, SourceTreeDirectory item) {
+      this.path = path;
+      this.item = item;
+    }
+
+    void eventReceived(long now) {
+      if (firstEvent == 0) {
+        firstEvent = now;
+      }
+      lastEvent = now;
+    }
 
-  @Override
-  public void run() {
-    // 20170308 hsilva: disabled watchservice
-    // for (;;) {
-    //
-    // // wait for key to be signaled
-    // WatchKey key;
-    // try {
-    // key = watcher.take();
-    // } catch (InterruptedException | ClosedWatchServiceException x) {
-    // return;
-    // }
-    //
-    // // WatchKey watchable returns the calling Path object of Path.register
-    // Path watchedPath = (Path) key.watchable();
-    //
-    // for (WatchEvent<?> event : key.pollEvents()) {
-    // WatchEvent.Kind<?> kind = event.kind();
-    //
-    // // This key is registered only
-    // // for ENTRY_CREATE and ENTRY_DELETE events,
-    // // but an OVERFLOW event can
-    // // occur regardless if events
-    // // are lost or discarded.
-    // if (kind == OVERFLOW) {
-    // continue;
-    // }
-    //
-    // // The filename is the
-    // // context of the event.
-    // WatchEvent<Path> ev = (WatchEvent<Path>) event;
-    // Path filename = ev.context();
-    //
-    // String fullPath = watchedPath.resolve(filename).toString();
-    // SourceTreeItem sourceTreeItem = PathCollection.getItem(watchedPath);
-    // if (sourceTreeItem instanceof SourceTreeDirectory) {
-    // SourceTreeDirectory directory = ((SourceTreeDirectory) sourceTreeItem);
-    // if (kind == ENTRY_CREATE) {
-    // directory.addChild(fullPath);
-    // } else if (kind == ENTRY_DELETE) {
-    // SourceTreeItem itemToDelete =
-    // PathCollection.getItem(Paths.get(fullPath));
-    // if (itemToDelete != null) {
-    // directory.removeChild(itemToDelete);
-    // }
-    // PathCollection.removePathAndItem(Paths.get(fullPath));
-    // }
-    // }
-    // }
-    //
-    // // Reset the key -- this step is critical if you want to
-    // // receive further watch events. If the key is no longer valid,
-    // // the directory is inaccessible so exit the loop.
-    // boolean valid = key.reset();
-    // if (!valid) {
-    // break;
-    // }
-    // }
+    long getFlushTime() {
+      return Math.min(lastEvent + QUIET_MILLIS, firstEvent + MAX_DELAY_MILLIS);
+    }
   }
 }
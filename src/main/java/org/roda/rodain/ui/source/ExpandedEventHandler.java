@@ -26,5 +26,8 @@ public class ExpandedEventHandler implements EventHandler<TreeItem.TreeModificat
     if (!source.getDirectory().isFirstLoaded()) {
       source.loadMore();
     }
+    // the children created and deleted while the item is expanded are applied
+    // without loading the directory again
+    DirectoryWatcher.watch(source);
   }
 }
@@ -22,7 +22,6 @@ import org.roda.rodain.core.I18n;
 import org.roda.rodain.core.PathCollection;
 import org.roda.rodain.core.source.ComputeDirectorySize;
 import org.roda.rodain.core.source.representation.SourceDirectory;
-import org.roda.rodain.core.utils.WalkFileTree;
 import org.roda.rodain.ui.Footer;
 import org.roda.rodain.ui.RodaInApplication;
 import org.roda.rodain.ui.source.items.SourceTreeDirectory;
@@ -62,8 +61,6 @@ import javafx.stage.StageStyle;
  */
 public class FileExplorerPane extends BorderPane implements Observer {
   private static final Logger LOGGER = LoggerFactory.getLogger(FileExplorerPane.class.getName());
-  // 20170308 hsilva: disabled watchservice
-  // public static final WatchService watcher = createWatcher();
   private Stage stage;
   private HBox top;
   private StackPane fileExplorer;
@@ -78,8 +75,7 @@ public class FileExplorerPane extends BorderPane implements Observer {
   private boolean selectedIsIgnored;
 
   // Threads
-  private ComputeDirectorySize computeSize;
-  private static DirectoryWatcher directoryWatcher;
+  private volatile ComputeDirectorySize computeSize;
 
   // Filter control
   private static boolean showFiles = true;
@@ -88,7 +84,7 @@ public class FileExplorerPane extends BorderPane implements Observer {
 
   // This thread is used to walk a directory's file tree and update the UI
   // periodically with the SIZE and file count
-  private WalkFileTree computeThread;
+  private Thread computeThread;
 
   /**
    * Creates a new FileExplorerPane object.
@@ -188,6 +184,7 @@ public class FileExplorerPane extends BorderPane implements Observer {
 
       dummyRoot.getChildren().remove(selectedItem);
       realRoots.remove(selectedItem.getPath());
+      DirectoryWatcher.unwatchAll(Paths.get(selectedItem.getPath()));
       if (realRoots.isEmpty()) {
         this.setTop(top);
         this.setCenter(centerHelp);
@@ -372,15 +369,26 @@ public class FileExplorerPane extends BorderPane implements Observer {
     // we need to stop the directory size compute thread to avoid more than one
     // thread updating the ui at the same time
     stopComputeThread();
-    computeSize = new ComputeDirectorySize();
-    computeSize.addObserver(this);
-    computeThread = new WalkFileTree(paths, computeSize);
+    ComputeDirectorySize compute = new ComputeDirectorySize();
+    compute.addObserver(this);
+    computeSize = compute;
+    computeThread = new Thread(() -> {
+      try {
+        compute.compute(paths);
+      } catch (InterruptedException e) {
+        // replaced by the computation of the new selection
+        Thread.currentThread().interrupt();
+      }
+    }, "compute-directory-size");
+    computeThread.setDaemon(true);
     computeThread.start();
   }
 
   @Override
   public void update(Observable o, Object arg) {
-    if (o == computeSize) {
+    // a notification of a replaced computation may still be on its way
+    ComputeDirectorySize compute = computeSize;
+    if (o == compute && !compute.isCancelled()) {
       ObservableList<TreeItem<String>> items = treeView.getSelectionModel().getSelectedItems();
       String start = null;
       if (!items.isEmpty()) {
@@ -390,7 +398,7 @@ public class FileExplorerPane extends BorderPane implements Observer {
           start = items.size() + " " + I18n.t(Constants.I18N_ITEMS);
         }
       }
-      updateSize(start, computeSize.getFilesCount(), computeSize.getDirectoryCount(), computeSize.getSize());
+      updateSize(start, compute.getFilesCount(), compute.getDirectoryCount(), compute.getSize());
     }
   }
 
@@ -404,6 +412,8 @@ public class FileExplorerPane extends BorderPane implements Observer {
   }
 
   private void stopComputeThread() {
+    if (computeSize != null)
+      computeSize.cancel();
     if (computeThread != null)
       computeThread.interrupt();
   }
@@ -593,30 +603,4 @@ public class FileExplorerPane extends BorderPane implements Observer {
       ignore.setText(I18n.t(Constants.I18N_IGNORE));
     }
   }
-
-  // 20170308 hsilva: disabled watchservice
-  // private static WatchService createWatcher() {
-  // WatchService watchService = null;
-  // try {
-  // watchService = FileSystems.getDefault().newWatchService();
-  // directoryWatcher = new DirectoryWatcher();
-  // directoryWatcher.start();
-  // } catch (IOException e) {
-  // LOGGER.warn(
-  // "Can't create a WatchService. The application will be unable to update the
-  // files of the file explorer", e);
-  // }
-  // return watchService;
-  // }
-  //
-  // /**
-  // * Calls the close() method to close the WatchService
-  // */
-  // public void closeWatcher() {
-  // try {
-  // watcher.close();
-  // } catch (IOException e) {
-  // LOGGER.debug("Error closing file explorer watcher", e);
-  // }
-  // }
 }
@@ -1,33 +1,41 @@
 package org.roda.rodain.ui.source.items;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.WatchKey;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.stream.Collectors;
 
 import org.roda.rodain.core.Constants;
 import org.roda.rodain.core.Constants.PathState;
 import org.roda.rodain.core.PathCollection;
-import org.roda.rodain.core.rules.filters.IgnoredFilter;
+import org.roda.rodain.core.rules.TreeNode;
+import org.roda.rodain.core.schema.Sip;
+import org.roda.rodain.core.sip.SipPreview;
 import org.roda.rodain.core.source.representation.SourceDirectory;
 import org.roda.rodain.core.source.representation.SourceItem;
+import org.roda.rodain.ui.RodaInApplication;
 import org.roda.rodain.ui.rules.Rule;
+import org.roda.rodain.ui.source.DirectoryWatcher;
 import org.roda.rodain.ui.source.ExpandedEventHandler;
 import org.roda.rodain.ui.source.FileExplorerPane;
+import org.roda.rodain.ui.utils.UITaskScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javafx.application.Platform;
-import javafx.concurrent.Task;
 import javafx.scene.control.TreeItem;
 import javafx.scene.image.Image;
 
@@ -42,16 +50,28 @@ public class SourceTreeDirectory extends SourceTreeItem {
   public static final Image folderExpandImage = new Image(
     ClassLoader.getSystemResourceAsStream(Constants.RSC_ICON_FOLDER_EXPAND));
   public static final Comparator<? super TreeItem> comparator = createComparator();
+  // kinds of the background tasks, a newer task replaces a pending one of the
+  // same kind
+  private static final String TASK_LOAD_MORE = "loadMore";
+  private static final String TASK_MAPPED = "mapped";
+  private static final String TASK_IGNORED = "ignored";
+  private static final String TASK_FILES = "files";
+  private static final String TASK_CHANGES = "changes";
 
   public boolean expanded = false;
   private SourceDirectory directory;
   private String fullPath;
-  private WatchKey watchKey;
+  // children created or deleted in the file system, waiting to be applied
+  private final Set<Path> createdPaths = new LinkedHashSet<>();
+  private final Set<Path> deletedPaths = new LinkedHashSet<>();
 
   private HashSet<SourceTreeItem> ignored;
   private HashSet<SourceTreeItem> mapped;
   private HashSet<SourceTreeFile> files;
 
+  // pages requested by loadMore() that haven't been loaded yet
+  private int pagesToLoad = 0;
+
   public SourceTreeDirectory(Path file, SourceDirectory directory, PathState st, SourceTreeDirectory parent) {
     this(file, directory, parent);
     state = st;
@@ -86,6 +106,7 @@ public class SourceTreeDirectory extends SourceTreeItem {
       SourceTreeDirectory source = SourceTreeDirectory.class.cast(event.getSource());
       if (!source.isExpanded()) {
         source.expanded = false;
+        DirectoryWatcher.unwatch(source);
       }
     });
   }
@@ -112,27 +133,20 @@ public class SourceTreeDirectory extends SourceTreeItem {
    * @see #showMapped()
    */
   public synchronized void hideMapped() {
-    final ArrayList<TreeItem<String>> newChildren = new ArrayList<>(getChildren());
-    Task<Void> task = new Task<Void>() {
-      @Override
-      protected Void call() throws Exception {
-        Set<TreeItem> toRemove = new HashSet<>();
-        for (TreeItem sti : newChildren) {
-          SourceTreeItem item = (SourceTreeItem) sti;
-          if (item.getState() == PathState.MAPPED || item instanceof SourceTreeLoadMore) {
-            mapped.add(item);
-            toRemove.add(sti);
-          }
-          if (item instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) item).hideMapped();
+    UITaskScheduler.submit(this, TASK_MAPPED, this::copyChildren, newChildren -> {
+      Set<TreeItem> toRemove = new HashSet<>();
+      for (TreeItem sti : newChildren) {
+        SourceTreeItem item = (SourceTreeItem) sti;
+        if (item.getState() == PathState.MAPPED || item instanceof SourceTreeLoadMore) {
+          mapped.add(item);
+          toRemove.add(sti);
         }
-        newChildren.removeAll(toRemove);
-        return null;
+        if (item instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) item).hideMapped();
       }
-    };
-    task.setOnSucceeded(event -> getChildren().setAll(newChildren));
-
-    new Thread(task).start();
+      newChildren.removeAll(toRemove);
+      return newChildren;
+    }, newChildren -> getChildren().setAll(newChildren));
   }
 
   /**
@@ -150,35 +164,25 @@ public class SourceTreeDirectory extends SourceTreeItem {
    * @see #hideMapped()
    */
   public synchronized void showMapped() {
-    final ArrayList<TreeItem<String>> newChildren = new ArrayList<>(getChildren());
-    Task<Void> task = new Task<Void>() {
-      @Override
-      protected Void call() throws Exception {
-        for (SourceTreeItem sti : mapped) {
-          if (sti instanceof SourceTreeFile && !FileExplorerPane.isShowFiles()) {
-            files.add((SourceTreeFile) sti);
-          } else
-            newChildren.add(sti);
-        }
-        mapped.clear();
-        for (TreeItem sti : newChildren) {
-          if (sti instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) sti).showMapped();
-        }
-        for (SourceTreeItem sti : ignored) {
-          if (sti instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) sti).showMapped();
-        }
-        return null;
+    UITaskScheduler.submit(this, TASK_MAPPED, this::copyChildren, newChildren -> {
+      for (SourceTreeItem sti : mapped) {
+        if (sti instanceof SourceTreeFile && !FileExplorerPane.isShowFiles()) {
+          files.add((SourceTreeFile) sti);
+        } else
+          newChildren.add(sti);
       }
-    };
-
-    task.setOnSucceeded(event -> {
-      getChildren().setAll(newChildren);
-      sortChildren();
-    });
-
-    new Thread(task).start();
+      mapped.clear();
+      for (TreeItem sti : newChildren) {
+        if (sti instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) sti).showMapped();
+      }
+      for (SourceTreeItem sti : ignored) {
+        if (sti instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) sti).showMapped();
+      }
+      Collections.sort(newChildren, comparator);
+      return newChildren;
+    }, newChildren -> getChildren().setAll(newChildren));
   }
 
   /**
@@ -194,31 +198,24 @@ public class SourceTreeDirectory extends SourceTreeItem {
    * @see #showIgnored()
    */
   public synchronized void hideIgnored() {
-    final ArrayList<TreeItem<String>> children = new ArrayList<>(getChildren());
-    Task<Void> task = new Task<Void>() {
-      @Override
-      protected Void call() throws Exception {
-        Set<TreeItem> toRemove = new HashSet<>();
-        for (TreeItem sti : children) {
-          SourceTreeItem item = (SourceTreeItem) sti;
-          if (item.getState() == PathState.IGNORED || sti instanceof SourceTreeLoadMore) {
-            ignored.add(item);
-            toRemove.add(sti);
-          }
-          if (item instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) item).hideIgnored();
-        }
-        children.removeAll(toRemove);
-        for (SourceTreeItem item : mapped) {
-          if (item instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) item).hideIgnored();
+    UITaskScheduler.submit(this, TASK_IGNORED, this::copyChildren, children -> {
+      Set<TreeItem> toRemove = new HashSet<>();
+      for (TreeItem sti : children) {
+        SourceTreeItem item = (SourceTreeItem) sti;
+        if (item.getState() == PathState.IGNORED || sti instanceof SourceTreeLoadMore) {
+          ignored.add(item);
+          toRemove.add(sti);
         }
-        return null;
+        if (item instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) item).hideIgnored();
       }
-    };
-    task.setOnSucceeded(event -> getChildren().setAll(children));
-
-    new Thread(task).start();
+      children.removeAll(toRemove);
+      for (SourceTreeItem item : mapped) {
+        if (item instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) item).hideIgnored();
+      }
+      return children;
+    }, children -> getChildren().setAll(children));
   }
 
   /**
@@ -236,33 +233,25 @@ public class SourceTreeDirectory extends SourceTreeItem {
    * @see #hideIgnored()
    */
   public synchronized void showIgnored() {
-    final ArrayList<TreeItem<String>> newChildren = new ArrayList<>(getChildren());
-    Task<Void> task = new Task<Void>() {
-      @Override
-      protected Void call() throws Exception {
-        for (SourceTreeItem sti : ignored) {
-          if (sti instanceof SourceTreeFile && !FileExplorerPane.isShowFiles()) {
-            files.add((SourceTreeFile) sti);
-          } else
-            newChildren.add(sti);
-        }
-        ignored.clear();
-        for (TreeItem sti : newChildren) {
-          if (sti instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) sti).showIgnored();
-        }
-        for (SourceTreeItem sti : mapped) {
-          if (sti instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) sti).showIgnored();
-        }
-        return null;
+    UITaskScheduler.submit(this, TASK_IGNORED, this::copyChildren, newChildren -> {
+      for (SourceTreeItem sti : ignored) {
+        if (sti instanceof SourceTreeFile && !FileExplorerPane.isShowFiles()) {
+          files.add((SourceTreeFile) sti);
+        } else
+          newChildren.add(sti);
       }
-    };
-    task.setOnSucceeded(event -> {
-      getChildren().setAll(newChildren);
-      sortChildren();
-    });
-    new Thread(task).start();
+      ignored.clear();
+      for (TreeItem sti : newChildren) {
+        if (sti instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) sti).showIgnored();
+      }
+      for (SourceTreeItem sti : mapped) {
+        if (sti instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) sti).showIgnored();
+      }
+      Collections.sort(newChildren, comparator);
+      return newChildren;
+    }, newChildren -> getChildren().setAll(newChildren));
   }
 
   /**
@@ -277,27 +266,21 @@ public class SourceTreeDirectory extends SourceTreeItem {
    * @see #showFiles() ()
    */
   public synchronized void hideFiles() {
-    final ArrayList<TreeItem<String>> children = new ArrayList<>(getChildren());
-    Task<Void> task = new Task<Void>() {
-      @Override
-      protected Void call() throws Exception {
-        Set<TreeItem> toRemove = new HashSet<>();
-        for (TreeItem sti : children) {
-          if (sti instanceof SourceTreeFile) {
-            files.add((SourceTreeFile) sti);
-            toRemove.add(sti);
-          } else {
-            SourceTreeItem item = (SourceTreeItem) sti;
-            if (item instanceof SourceTreeDirectory)
-              ((SourceTreeDirectory) item).hideFiles();
-          }
+    UITaskScheduler.submit(this, TASK_FILES, this::copyChildren, children -> {
+      Set<TreeItem> toRemove = new HashSet<>();
+      for (TreeItem sti : children) {
+        if (sti instanceof SourceTreeFile) {
+          files.add((SourceTreeFile) sti);
+          toRemove.add(sti);
+        } else {
+          SourceTreeItem item = (SourceTreeItem) sti;
+          if (item instanceof SourceTreeDirectory)
+            ((SourceTreeDirectory) item).hideFiles();
         }
-        children.removeAll(toRemove);
-        return null;
       }
-    };
-    task.setOnSucceeded(event -> getChildren().setAll(children));
-    new Thread(task).start();
+      children.removeAll(toRemove);
+      return children;
+    }, children -> getChildren().setAll(children));
   }
 
   /**
@@ -313,34 +296,26 @@ public class SourceTreeDirectory extends SourceTreeItem {
    * @see #hideFiles() ()
    */
   public synchronized void showFiles() {
-    final ArrayList<TreeItem<String>> newChildren = new ArrayList<>(getChildren());
-    Task<Void> task = new Task<Void>() {
-      @Override
-      protected Void call() throws Exception {
-        for (SourceTreeItem sti : files) {
-          newChildren.add(sti);
-        }
-        files.clear();
-        for (TreeItem sti : newChildren) {
-          if (sti instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) sti).showFiles();
-        }
-        for (SourceTreeItem sti : ignored) {
-          if (sti instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) sti).showFiles();
-        }
-        for (SourceTreeItem sti : mapped) {
-          if (sti instanceof SourceTreeDirectory)
-            ((SourceTreeDirectory) sti).showFiles();
-        }
-        return null;
+    UITaskScheduler.submit(this, TASK_FILES, this::copyChildren, newChildren -> {
+      for (SourceTreeItem sti : files) {
+        newChildren.add(sti);
       }
-    };
-    task.setOnSucceeded(event -> {
-      getChildren().setAll(newChildren);
-      sortChildren();
-    });
-    new Thread(task).start();
+      files.clear();
+      for (TreeItem sti : newChildren) {
+        if (sti instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) sti).showFiles();
+      }
+      for (SourceTreeItem sti : ignored) {
+        if (sti instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) sti).showFiles();
+      }
+      for (SourceTreeItem sti : mapped) {
+        if (sti instanceof SourceTreeDirectory)
+          ((SourceTreeDirectory) sti).showFiles();
+      }
+      Collections.sort(newChildren, comparator);
+      return newChildren;
+    }, newChildren -> getChildren().setAll(newChildren));
   }
 
   /**
@@ -392,7 +367,7 @@ public class SourceTreeDirectory extends SourceTreeItem {
           String s1 = (String) o1.getValue();
           String s2 = (String) o2.getValue();
           if (s1 != null && s2 != null)
-            return s1.compareToIgnoreCase(s2);
+            return SourceDirectory.NAME_ORDER.compare(s1, s2);
         }
         // directories must appear first
         if (o1 instanceof SourceTreeDirectory)
@@ -405,6 +380,14 @@ public class SourceTreeDirectory extends SourceTreeItem {
     };
   }
 
+  /*
+   * Copies the children in the JavaFX thread, for the background tasks that
+   * compute the new children.
+   */
+  private ArrayList<TreeItem<String>> copyChildren() {
+    return new ArrayList<>(getChildren());
+  }
+
   /**
    * Sorts the children array
    */
@@ -479,61 +462,79 @@ public class SourceTreeDirectory extends SourceTreeItem {
   /**
    * Creates a task to load the items to a temporary collection, otherwise the
    * UI will hang while accessing the disk. Then, sets the new collection as the
-   * item's children.
+   * item's children. The pages requested while a task is waiting are loaded
+   * by that task.
    */
   public synchronized void loadMore() {
-    final ArrayList<TreeItem<String>> children = new ArrayList<>(getChildren());
-    addToWatcher();
-
-    // Remove "loading" items
-    List<Object> toRemove = children.stream()
-      .filter(p -> p instanceof SourceTreeLoading || p instanceof SourceTreeLoadMore).collect(Collectors.toList());
-    children.removeAll(toRemove);
-
+    pagesToLoad++;
     // First we access the disk and save the loaded items to a temporary
     // collection
-    Task<Integer> task = new Task<Integer>() {
-      @Override
-      protected Integer call() throws Exception {
-        SortedMap<String, SourceItem> loaded = getDirectory().loadMore();
-        long startTime = System.currentTimeMillis();
-
-        if (!loaded.isEmpty()) {
-          // Add new items
-          for (String sourceItem : loaded.keySet()) {
-            addChild(children, sourceItem);
-          }
-          // check if there's more files to load
-          if (directory.isStreamOpen())
-            children.add(new SourceTreeLoadMore());
+    UITaskScheduler.submit(this, TASK_LOAD_MORE, this::copyChildren, children -> {
+      int pages;
+      synchronized (this) {
+        pages = pagesToLoad;
+        pagesToLoad = 0;
+      }
+      if (pages == 0) {
+        // already loaded by the previous task
+        return children;
+      }
+      // Remove "loading" items
+      List<Object> toRemove = children.stream()
+        .filter(p -> p instanceof SourceTreeLoading || p instanceof SourceTreeLoadMore).collect(Collectors.toList());
+      children.removeAll(toRemove);
+
+      Map<String, SourceItem> loaded = new LinkedHashMap<>();
+      for (int page = 0; page < pages; page++) {
+        loaded.putAll(getDirectory().loadMore());
+        if (!directory.isStreamOpen()) {
+          break;
         }
-        Collections.sort(children, comparator);
-        LOGGER.debug("Done adding more child (nr: {} -> millis: {})", loaded.size(),
-          (System.currentTimeMillis() - startTime));
-        return loaded.size();
       }
-    };
+      long startTime = System.currentTimeMillis();
 
-    // After everything is loaded, we add all the items to the TreeView at once.
-    task.setOnSucceeded(event ->
-    // Set the children
-    getChildren().setAll(children));
-
-    new Thread(task).start();
+      if (!loaded.isEmpty()) {
+        // The state of all the new items is resolved at once
+        Map<Path, Boolean> loadedPaths = new LinkedHashMap<>();
+        for (Map.Entry<String, SourceItem> sourceItem : loaded.entrySet()) {
+          loadedPaths.put(Paths.get(sourceItem.getKey()), sourceItem.getValue() instanceof SourceDirectory);
+        }
+        Map<Path, PathState> states = PathCollection.resolveChildren(Paths.get(fullPath), loadedPaths);
+
+        // Add new items, the children are already sorted and the new items
+        // come sorted, so each one is inserted in its place
+        List<SourceTreeItem> added = new ArrayList<>();
+        for (Map.Entry<Path, PathState> state : states.entrySet()) {
+          SourceTreeItem item = addChild(children, state.getKey(), loaded.get(state.getKey().toString()),
+            state.getValue());
+          if (item != null) {
+            added.add(item);
+          }
+        }
+        PathCollection.addItems(added);
+        // check if there's more files to load
+        if (directory.isStreamOpen())
+          children.add(new SourceTreeLoadMore());
+      }
+      LOGGER.debug("Done adding more child (nr: {} -> millis: {})", loaded.size(),
+        (System.currentTimeMillis() - startTime));
+      return children;
+    },
+      // After everything is loaded, we add all the items to the TreeView at
+      // once.
+      children -> getChildren().setAll(children));
   }
 
-  private void addChild(List children, String sourceItem) {
-    Path sourceItemPath = Paths.get(sourceItem);
-
-    PathState newState = PathCollection.getState(sourceItemPath);
-    if (IgnoredFilter.isIgnored(sourceItemPath)) {
-      newState = PathState.IGNORED;
-    }
-
+  /*
+   * Returns the new item, to be added to the PathCollection, or null if no item
+   * was created.
+   */
+  private SourceTreeItem addChild(List<TreeItem<String>> children, Path sourceItemPath, SourceItem sourceItem,
+    PathState newState) {
     SourceTreeItem item;
-    if (Files.isDirectory(sourceItemPath)) {
+    if (sourceItem instanceof SourceDirectory) {
       if (newState != PathState.IGNORED) {
-        item = new SourceTreeDirectory(sourceItemPath, directory.getChildDirectory(sourceItemPath), newState, this);
+        item = new SourceTreeDirectory(sourceItemPath, (SourceDirectory) sourceItem, newState, this);
       } else {
         item = null;
       }
@@ -552,38 +553,166 @@ public class SourceTreeDirectory extends SourceTreeItem {
         case NORMAL:
           if (item instanceof SourceTreeFile)
             if (FileExplorerPane.isShowFiles())
-              children.add(item);
+              insertSorted(children, item);
             else
               files.add((SourceTreeFile) item);
           else
-            children.add(item);
+            insertSorted(children, item);
           break;
         default:
       }
-      PathCollection.addItem(item);
     }
+    return item;
   }
 
-  private void addChildIgnored(List children, SourceTreeItem item) {
+  private void addChildIgnored(List<TreeItem<String>> children, SourceTreeItem item) {
     if (FileExplorerPane.isShowIgnored()) {
       if (item instanceof SourceTreeFile && !FileExplorerPane.isShowFiles()) {
         files.add((SourceTreeFile) item);
       } else
-        children.add(item);
+        insertSorted(children, item);
     } else
       ignored.add(item);
   }
 
-  private void addChildMapped(List children, SourceTreeItem item) {
+  private void addChildMapped(List<TreeItem<String>> children, SourceTreeItem item) {
     if (FileExplorerPane.isShowMapped()) {
       if (item instanceof SourceTreeFile && !FileExplorerPane.isShowFiles()) {
         files.add((SourceTreeFile) item);
       } else
-        children.add(item);
+        insertSorted(children, item);
     } else
       mapped.add(item);
   }
 
+  /*
+   * Inserts the item in its place in the sorted children, instead of sorting
+   * all the children again.
+   */
+  private static void insertSorted(List<TreeItem<String>> children, TreeItem<String> item) {
+    int position = Collections.binarySearch(children, item, comparator);
+    children.add(position < 0 ? -position - 1 : position, item);
+  }
+
+  /**
+   * Applies the children that were created or deleted in the file system after
+   * the directory was listed. The changes are merged with the ones still
+   * waiting to be applied and applied in the background, like
+   * {@link #loadMore()}.
+   * <p/>
+   * The deleted children are removed from the tree, the PathCollection and the
+   * SIPs that contain them. The created children are added to the tree and, if
+   * the directory is mapped, to the SIP that contains the directory, or set as
+   * NORMAL if no SIP contains it.
+   *
+   * @param created
+   *          The paths of the children that were created
+   * @param deleted
+   *          The paths of the children that were deleted
+   */
+  public void childrenChanged(Collection<Path> created, Collection<Path> deleted) {
+    synchronized (this) {
+      // the last change of each path is the one that counts
+      createdPaths.removeAll(deleted);
+      deletedPaths.addAll(deleted);
+      deletedPaths.removeAll(created);
+      createdPaths.addAll(created);
+    }
+
+    UITaskScheduler.submit(this, TASK_CHANGES, () -> new ChildrenChanges(getChildren()), changes -> {
+      Set<Path> toCreate, toDelete;
+      synchronized (this) {
+        toCreate = new LinkedHashSet<>(createdPaths);
+        toDelete = new LinkedHashSet<>(deletedPaths);
+        createdPaths.clear();
+        deletedPaths.clear();
+      }
+
+      for (Path path : toDelete) {
+        directory.childDeleted(path);
+        if (PathCollection.peekState(path) == PathState.MAPPED) {
+          changes.deletedMapped.add(path);
+        }
+        SourceTreeItem item = PathCollection.getItem(path);
+        if (item != null) {
+          changes.children.remove(item);
+          mapped.remove(item);
+          ignored.remove(item);
+          files.remove(item);
+        }
+        PathCollection.removePathAndItem(path);
+      }
+
+      Map<Path, SourceItem> createdItems = new LinkedHashMap<>();
+      Map<Path, Boolean> createdDirectories = new LinkedHashMap<>();
+      for (Path path : toCreate) {
+        boolean isDirectory;
+        try {
+          isDirectory = Files.readAttributes(path, BasicFileAttributes.class).isDirectory();
+        } catch (IOException e) {
+          // deleted again, the delete event comes next
+          continue;
+        }
+        SourceItem sourceItem = directory.childCreated(path, isDirectory);
+        if (sourceItem != null) {
+          createdItems.put(path, sourceItem);
+          createdDirectories.put(path, isDirectory);
+        }
+      }
+      if (!createdItems.isEmpty()) {
+        Map<Path, PathState> states = PathCollection.resolveChildren(Paths.get(fullPath), createdDirectories);
+        List<SourceTreeItem> added = new ArrayList<>();
+        for (Map.Entry<Path, PathState> state : states.entrySet()) {
+          SourceTreeItem item = addChild(changes.children, state.getKey(), createdItems.get(state.getKey()),
+            state.getValue());
+          if (item != null) {
+            added.add(item);
+          }
+          if (state.getValue() == PathState.MAPPED) {
+            TreeNode node = SipPreview.createContentNode(state.getKey());
+            if (node != null) {
+              changes.createdMapped.add(node);
+            }
+          }
+        }
+        PathCollection.addItems(added);
+      }
+      return changes;
+    }, this::applyChanges);
+  }
+
+  private void applyChanges(ChildrenChanges changes) {
+    getChildren().setAll(changes.children);
+    if (changes.deletedMapped.isEmpty() && changes.createdMapped.isEmpty()) {
+      return;
+    }
+    List<SipPreview> sips = new ArrayList<>();
+    for (Sip sip : RodaInApplication.getAllDescriptionObjects().keySet()) {
+      if (sip instanceof SipPreview) {
+        sips.add((SipPreview) sip);
+      }
+    }
+    if (!changes.deletedMapped.isEmpty()) {
+      for (SipPreview sip : sips) {
+        sip.removeDeletedContent(changes.deletedMapped);
+      }
+    }
+    for (TreeNode node : changes.createdMapped) {
+      boolean added = false;
+      for (SipPreview sip : sips) {
+        if (sip.addCreatedContent(node)) {
+          added = true;
+          break;
+        }
+      }
+      if (!added) {
+        // the directory is mapped by SIPs of its children, not by a SIP that
+        // contains it
+        PathCollection.addPath(node.getPath(), PathState.NORMAL);
+      }
+    }
+  }
+
   public synchronized void removeChild(SourceTreeItem item) {
     getChildren().remove(item);
     mapped.remove(item);
@@ -659,16 +788,13 @@ public class SourceTreeDirectory extends SourceTreeItem {
     });
   }
 
-  private void addToWatcher() {
-    // 20170308 hsilva: disabled watchservice
-    // try {
-    // if (watchKey == null) {
-    // watchKey = directory.getPath().register(FileExplorerPane.watcher,
-    // ENTRY_CREATE, ENTRY_DELETE);
-    // }
-    // } catch (IOException e) {
-    // LOGGER.warn("Can't register path to watcher. Will be unable to update the
-    // directory: " + directory.getPath(), e);
-    // }
+  private static class ChildrenChanges {
+    private final List<TreeItem<String>> children;
+    private final Set<Path> deletedMapped = new HashSet<>();
+    private final List<TreeNode> createdMapped = new ArrayList<>();
+
+    ChildrenChanges(List<TreeItem<String>> children) {
+      this.children = new ArrayList<>(children);
+    }
   }
 }
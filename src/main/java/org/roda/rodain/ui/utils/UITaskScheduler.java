@@ -0,0 +1,322 @@
+package org.roda.rodain.ui.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+/**
+ * Runs the background tasks of the interface in a bounded pool of threads,
+ * instead of a new thread for each task.
+ * <p>
+ * The tasks are identified by an owner (e.g. a tree item) and a kind. A task
+ * that hasn't started yet is replaced by a newer one of the same owner and
+ * kind, so repeating an action many times doesn't queue the same work many
+ * times. The results of the tasks submitted with
+ * {@link #submit(Object, String, Callable, Consumer)} are applied in the
+ * JavaFX thread in batches, instead of one {@link Platform#runLater(Runnable)}
+ * for each task. The state of the interface the tasks work on (e.g. the
+ * children of a tree item) can be copied in the JavaFX thread when each task
+ * starts, see {@link #submit(Object, String, Supplier, Function, Consumer)}.
+ * </p>
+ */
+public class UITaskScheduler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(UITaskScheduler.class.getName());
+
+  private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  // maximum time spent applying results in each pulse of the JavaFX thread
+  private static final long MAX_APPLY_MILLIS = 20;
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+  private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+    Thread thread = new Thread(runnable, "ui-task-" + threadCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final Map<Key, Slot> slots = new HashMap<>();
+  private static final Queue<Runnable> results = new ConcurrentLinkedQueue<>();
+  private static final AtomicBoolean applyScheduled = new AtomicBoolean(false);
+  private static final Consumer<Runnable> PLATFORM = runnable -> Platform.runLater(runnable);
+  // runs the code that must run in the JavaFX thread
+  private static volatile Consumer<Runnable> fxThread = PLATFORM;
+
+  private UITaskScheduler() {
+  }
+
+  /**
+   * Replaces the JavaFX thread, so the tests don't need the JavaFX toolkit.
+   *
+   * @param runner
+   *          Runs the code in a single thread, null for the JavaFX thread
+   */
+  static void setFxThread(Consumer<Runnable> runner) {
+    fxThread = runner == null ? PLATFORM : runner;
+  }
+
+  /**
+   * Runs the work in the background and applies its result in the JavaFX
+   * thread. The tasks of the same owner run one at a time, in the order they
+   * were submitted, and the next one only starts after the result of the
+   * previous one has been applied, so the work always sees the changes of the
+   * previous tasks.
+   *
+   * @param owner
+   *          The owner of the task, compared by identity
+   * @param kind
+   *          The kind of the task
+   * @param work
+   *          The work to be done in the background
+   * @param onResult
+   *          Applies the result of the work in the JavaFX thread
+   */
+  public static <T> void submit(Object owner, String kind, Callable<T> work, Consumer<T> onResult) {
+    submit(new Key(owner, null), kind, new Job() {
+      @Override
+      Runnable run() throws Exception {
+        T result = work.call();
+        return () -> onResult.accept(result);
+      }
+    });
+  }
+
+  /**
+   * Like {@link #submit(Object, String, Callable, Consumer)}, but the input of
+   * the work is prepared in the JavaFX thread when the task starts, after the
+   * results of the previous tasks of the owner have been applied.
+   *
+   * @param owner
+   *          The owner of the task, compared by identity
+   * @param kind
+   *          The kind of the task
+   * @param prepare
+   *          Prepares the input of the work in the JavaFX thread
+   * @param work
+   *          The work to be done in the background
+   * @param onResult
+   *          Applies the result of the work in the JavaFX thread
+   */
+  public static <S, T> void submit(Object owner, String kind, Supplier<S> prepare, Function<S, T> work,
+    Consumer<T> onResult) {
+    submit(new Key(owner, null), kind, new Job() {
+      private S input;
+
+      @Override
+      boolean isPreparedInFxThread() {
+        return true;
+      }
+
+      @Override
+      void prepare() {
+        input = prepare.get();
+      }
+
+      @Override
+      Runnable run() {
+        T result = work.apply(input);
+        return () -> onResult.accept(result);
+      }
+    });
+  }
+
+  /**
+   * Runs a JavaFX task in the background. A running task of the same owner and
+   * kind is cancelled, so the new task doesn't wait for it to end.
+   *
+   * @param owner
+   *          The owner of the task, compared by identity
+   * @param kind
+   *          The kind of the task
+   * @param task
+   *          The task
+   */
+  public static void submit(Object owner, String kind, Task<?> task) {
+    submit(new Key(owner, kind), kind, new Job() {
+      @Override
+      Runnable run() {
+        task.run();
+        return null;
+      }
+
+      @Override
+      boolean cancel() {
+        task.cancel(true);
+        return true;
+      }
+    });
+  }
+
+  private static synchronized void submit(Key key, String kind, Job job) {
+    job.kind = kind;
+    Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+    Job replaced = slot.pending.remove(kind);
+    if (replaced != null) {
+      replaced.cancel();
+    }
+    slot.pending.put(kind, job);
+    if (slot.running == null || slot.running.cancel()) {
+      start(key, slot);
+    }
+  }
+
+  private static void start(Key key, Slot slot) {
+    Iterator<Job> next = slot.pending.values().iterator();
+    Job job = next.next();
+    next.remove();
+    slot.running = job;
+    if (!job.isPreparedInFxThread()) {
+      executor.execute(() -> execute(key, job));
+      return;
+    }
+    // not while holding the lock, the preparation may need the owner's lock
+    fxThread.accept(() -> {
+      try {
+        job.prepare();
+      } catch (RuntimeException e) {
+        LOGGER.error("Error preparing background task '{}'", job.kind, e);
+        finished(key, job);
+        return;
+      }
+      executor.execute(() -> execute(key, job));
+    });
+  }
+
+  private static void execute(Key key, Job job) {
+    Runnable apply = null;
+    try {
+      apply = job.run();
+    } catch (Exception e) {
+      LOGGER.error("Error running background task '{}'", job.kind, e);
+    }
+    if (apply == null) {
+      finished(key, job);
+    } else {
+      Runnable result = apply;
+      results.add(() -> {
+        try {
+          result.run();
+        } finally {
+          finished(key, job);
+        }
+      });
+      scheduleApply();
+    }
+  }
+
+  private static synchronized void finished(Key key, Job job) {
+    Slot slot = slots.get(key);
+    if (slot == null || slot.running != job) {
+      // cancelled, the slot already belongs to a newer task
+      return;
+    }
+    slot.running = null;
+    if (!slot.pending.isEmpty()) {
+      start(key, slot);
+    } else {
+      slots.remove(key);
+    }
+  }
+
+  private static void scheduleApply() {
+    if (applyScheduled.compareAndSet(false, true)) {
+      fxThread.accept(UITaskScheduler::applyResults);
+    }
+  }
+
+  private static void applyResults() {
+    long start = System.currentTimeMillis();
+    Runnable result;
+    while (System.currentTimeMillis() - start < MAX_APPLY_MILLIS && (result = results.poll()) != null) {
+      try {
+        result.run();
+      } catch (RuntimeException e) {
+        LOGGER.error("Error applying the result of a background task", e);
+      }
+    }
+    applyScheduled.set(false);
+    if (!results.isEmpty()) {
+      // the remaining results are applied in the next pulse
+      scheduleApply();
+    }
+  }
+
+  private abstract static class Job {
+    private String kind;
+
+    /**
+     * @return true if {@link #prepare()} has to run in the JavaFX thread before
+     *         the job runs
+     */
+    boolean isPreparedInFxThread() {
+      return false;
+    }
+
+    void prepare() {
+      // nothing to prepare
+    }
+
+    /**
+     * @return What has to be applied in the JavaFX thread, or null
+     */
+    abstract Runnable run() throws Exception;
+
+    /**
+     * Cancels the job, when replaced by a newer one.
+     *
+     * @return true if the newer job can start without waiting for this one to
+     *         end
+     */
+    boolean cancel() {
+      return false;
+    }
+  }
+
+  private static class Slot {
+    private Job running;
+    // by kind, in the order they were submitted
+    private final Map<String, Job> pending = new LinkedHashMap<>();
+  }
+
+  /**
+   * Identifies the tasks that run one at a time: the tasks of an owner, or of an
+   * owner and kind.
+   */
+  private static final class Key {
+    private final Object owner;
+    private final String kind;
+
+    Key(Object owner, String kind) {
+      this.owner = owner;
+      this.kind = kind;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return owner == other.owner && (kind == null ? other.kind == null : kind.equals(other.kind));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(owner) + (kind == null ? 0 : kind.hashCode());
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.roda.rodain;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+import org.roda.rodain.core.creation.BatchSipBuilder;
+
+public class HeadlessMainTest {
+  private Path tempDir;
+  private Path plan;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(HeadlessMain.class.getSimpleName());
+    plan = tempDir.resolve("plan.properties");
+    Files.write(plan, Collections.singletonList("output = " + tempDir.resolve("sips").toString().replace('\\', '/')),
+      StandardCharsets.UTF_8);
+  }
+
+  @After
+  public void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  @Test
+  public void testUsage() {
+    Assert.assertEquals(HeadlessMain.EXIT_INVALID_PLAN, HeadlessMain.run(new String[0]));
+    Assert.assertEquals(HeadlessMain.EXIT_INVALID_PLAN, HeadlessMain.run(new String[] {"a", "b"}));
+    Assert.assertEquals(HeadlessMain.EXIT_INVALID_PLAN,
+      HeadlessMain.run(new String[] {tempDir.resolve("missing.properties").toString()}));
+  }
+
+  @Test
+  public void testExitOk() throws Exception {
+    Assert.assertEquals(HeadlessMain.EXIT_OK, HeadlessMain.run(new FakeBuilder(plan, 2, 0, null)));
+  }
+
+  @Test
+  public void testExitInvalidPlan() throws Exception {
+    Assert.assertEquals(HeadlessMain.EXIT_INVALID_PLAN,
+      HeadlessMain.run(new FakeBuilder(plan, 0, 0, new ConfigurationException("rule without source"))));
+    Assert.assertEquals(HeadlessMain.EXIT_INVALID_PLAN,
+      HeadlessMain.run(new FakeBuilder(plan, 0, 0, new IOException("unreadable schema"))));
+  }
+
+  @Test
+  public void testExitNoSips() throws Exception {
+    Assert.assertEquals(HeadlessMain.EXIT_NO_SIPS, HeadlessMain.run(new FakeBuilder(plan, 0, 0, null)));
+    // a plan without rules and without a classification schema
+    Assert.assertEquals(HeadlessMain.EXIT_NO_SIPS, HeadlessMain.run(new BatchSipBuilder(plan)));
+  }
+
+  @Test
+  public void testExitExportErrors() throws Exception {
+    Assert.assertEquals(HeadlessMain.EXIT_EXPORT_ERRORS, HeadlessMain.run(new FakeBuilder(plan, 3, 1, null)));
+    Assert.assertEquals(HeadlessMain.EXIT_EXPORT_ERRORS,
+      HeadlessMain.run(new FakeBuilder(plan, 3, 0, new IllegalStateException("unexpected"))));
+  }
+
+  @Test
+  public void testExitInterrupted() throws Exception {
+    Assert.assertEquals(HeadlessMain.EXIT_INTERRUPTED,
+      HeadlessMain.run(new FakeBuilder(plan, 1, 0, new InterruptedException())));
+    // run() restores the interrupted flag, clear it for the next tests
+    Assert.assertTrue(Thread.interrupted());
+  }
+
+  @Test
+  public void testExitCodesAreDistinct() {
+    Assert.assertEquals(5, new HashSet<>(Arrays.asList(HeadlessMain.EXIT_OK, HeadlessMain.EXIT_INVALID_PLAN,
+      HeadlessMain.EXIT_NO_SIPS, HeadlessMain.EXIT_EXPORT_ERRORS, HeadlessMain.EXIT_INTERRUPTED)).size());
+  }
+
+  /**
+   * Returns the given results instead of applying the rules and exporting the
+   * SIPs. The failure, if any, is thrown by {@link #export()}, or by
+   * {@link #applyRules()} when it's a ConfigurationException or an IOException.
+   */
+  private static class FakeBuilder extends BatchSipBuilder {
+    private final int created;
+    private final int errors;
+    private final Exception failure;
+
+    FakeBuilder(Path plan, int created, int errors, Exception failure) throws ConfigurationException {
+      super(plan);
+      this.created = created;
+      this.errors = errors;
+      this.failure = failure;
+    }
+
+    @Override
+    public int applyRules() throws ConfigurationException, IOException {
+      if (failure instanceof ConfigurationException) {
+        throw (ConfigurationException) failure;
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      return created;
+    }
+
+    @Override
+    public int export() throws InterruptedException {
+      if (failure instanceof InterruptedException) {
+        throw (InterruptedException) failure;
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      return errors;
+    }
+  }
+}
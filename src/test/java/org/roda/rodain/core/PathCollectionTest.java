@@ -0,0 +1,262 @@
+package org.roda.rodain.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.roda.rodain.core.Constants.PathState;
+
+/**
+ * Checks that the states kept in the tree of path segments follow the rules of
+ * the previous implementation, which kept a flat map of paths and counted the
+ * children of a directory by scanning the whole map.
+ */
+public class PathCollectionTest {
+  private Path tempDir;
+
+  @Before
+  public void setup() throws IOException {
+    PathCollection.reset();
+    tempDir = Files.createTempDirectory(PathCollection.class.getSimpleName());
+  }
+
+  @After
+  public void shutdown() {
+    PathCollection.reset();
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testIgnoringDirectoryIgnoresNormalDescendantsOnly() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    Path normal = Files.createFile(Files.createDirectory(dir.resolve("sub")).resolve("normal.txt"));
+    Path mapped = Files.createFile(dir.resolve("mapped.txt"));
+    PathCollection.addPath(normal, PathState.NORMAL);
+    PathCollection.addPath(mapped, PathState.MAPPED);
+
+    PathCollection.addPath(dir, PathState.IGNORED);
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(dir));
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(normal));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(mapped));
+
+    PathCollection.addPath(dir, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(normal));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(mapped));
+  }
+
+  @Test
+  public void testDirectoryStateFollowsItsChildren() {
+    Path dir = tempDir.resolve("dir");
+    Path a = dir.resolve("a");
+    Path b = dir.resolve("b");
+    PathCollection.addPath(dir, PathState.NORMAL);
+    PathCollection.addPath(a, PathState.NORMAL);
+    PathCollection.addPath(b, PathState.NORMAL);
+
+    // only MAPPED children
+    PathCollection.addPath(a, PathState.MAPPED);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+    PathCollection.addPath(b, PathState.MAPPED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(dir));
+
+    // IGNORED and MAPPED children
+    PathCollection.addPath(b, PathState.IGNORED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(dir));
+
+    // only IGNORED children
+    PathCollection.addPath(a, PathState.IGNORED);
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(dir));
+
+    // a NORMAL child
+    PathCollection.addPath(a, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+  }
+
+  @Test
+  public void testAncestorsAreVerifiedUpToTheRoot() {
+    Path top = tempDir.resolve("top");
+    Path middle = top.resolve("middle");
+    Path file = middle.resolve("file.txt");
+    PathCollection.addPath(top, PathState.NORMAL);
+    PathCollection.addPath(middle, PathState.NORMAL);
+    PathCollection.addPath(file, PathState.NORMAL);
+
+    PathCollection.addPath(file, PathState.MAPPED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(middle));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(top));
+
+    PathCollection.addPath(file, PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(middle));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(top));
+  }
+
+  @Test
+  public void testCountsStayConsistentWhenStatesChangeRepeatedly() {
+    Path dir = tempDir.resolve("dir");
+    PathCollection.addPath(dir, PathState.NORMAL);
+    for (int i = 0; i < 100; i++) {
+      PathCollection.addPath(dir.resolve("child" + i), PathState.NORMAL);
+    }
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 100; i++) {
+        PathCollection.addPath(dir.resolve("child" + i), PathState.MAPPED);
+      }
+      Assert.assertEquals(PathState.MAPPED, PathCollection.getState(dir));
+      PathCollection.addPath(dir.resolve("child42"), PathState.NORMAL);
+      Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+      for (int i = 0; i < 100; i++) {
+        PathCollection.addPath(dir.resolve("child" + i), PathState.NORMAL);
+      }
+      Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+    }
+  }
+
+  @Test
+  public void testUnknownPathInheritsTheStateOfItsDirectory() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    Path file = Files.createFile(dir.resolve("file.txt"));
+    PathCollection.addPath(dir, PathState.MAPPED);
+
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(file));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(tempDir.resolve("other")));
+  }
+
+  @Test
+  public void testRemovedPathsAreResolvedAgain() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    Path sub = Files.createDirectory(dir.resolve("sub"));
+    Path file = sub.resolve("file.txt");
+    PathCollection.addPath(dir, PathState.NORMAL);
+    PathCollection.addPath(file, PathState.IGNORED);
+
+    PathCollection.removePathAndItem(sub);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(file));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+  }
+
+  @Test
+  public void testResolveChildrenMatchesGetState() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    Map<Path, Boolean> children = new LinkedHashMap<>();
+    for (int i = 0; i < 5; i++) {
+      children.put(Files.createFile(dir.resolve("file" + i)), false);
+    }
+    children.put(Files.createDirectory(dir.resolve("known")), true);
+    children.put(Files.createDirectory(dir.resolve("withDescendant")), true);
+    Path descendant = dir.resolve("withDescendant").resolve("deep.txt");
+
+    // one child at a time, as the children were resolved before
+    prepare(dir, descendant);
+    Map<Path, PathState> expected = new LinkedHashMap<>();
+    for (Path child : children.keySet()) {
+      expected.put(child, PathCollection.getState(child));
+    }
+    PathState expectedDirState = PathCollection.getState(dir);
+    PathState expectedDescendantState = PathCollection.getState(descendant);
+
+    PathCollection.reset();
+    prepare(dir, descendant);
+    Assert.assertEquals(expected, PathCollection.resolveChildren(dir, children));
+    Assert.assertEquals(expectedDirState, PathCollection.getState(dir));
+    Assert.assertEquals(expectedDescendantState, PathCollection.getState(descendant));
+  }
+
+  @Test
+  public void testResolveChildrenVerifiesTheAncestorsOnce() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    Path known = dir.resolve("known");
+    PathCollection.addPath(dir, PathState.NORMAL);
+    PathCollection.addPath(known, PathState.MAPPED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(dir));
+
+    // a new NORMAL child makes the directory NORMAL again
+    Map<Path, Boolean> children = new LinkedHashMap<>();
+    children.put(known, true);
+    children.put(Files.createFile(dir.resolve("new.txt")), false);
+    Map<Path, PathState> states = PathCollection.resolveChildren(dir, children);
+    Assert.assertEquals(PathState.MAPPED, states.get(known));
+    Assert.assertEquals(PathState.MAPPED, states.get(dir.resolve("new.txt")));
+
+    PathCollection.addPath(dir.resolve("new.txt"), PathState.NORMAL);
+    Assert.assertEquals(PathState.NORMAL, PathCollection.getState(dir));
+  }
+
+  @Test
+  public void testResolveChildrenOfIgnoredDirectory() throws IOException {
+    Path parent = Files.createDirectory(tempDir.resolve("parent"));
+    Path dir = Files.createDirectory(parent.resolve("dir"));
+    Path other = Files.createFile(parent.resolve("other.txt"));
+    PathCollection.addPath(parent, PathState.NORMAL);
+    PathCollection.addPath(other, PathState.MAPPED);
+    PathCollection.addPath(dir, PathState.IGNORED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(parent));
+
+    Map<Path, Boolean> children = new LinkedHashMap<>();
+    children.put(Files.createFile(dir.resolve("a.txt")), false);
+    children.put(Files.createDirectory(dir.resolve("sub")), true);
+    Map<Path, PathState> states = PathCollection.resolveChildren(dir, children);
+    Assert.assertEquals(PathState.IGNORED, states.get(dir.resolve("a.txt")));
+    Assert.assertEquals(PathState.IGNORED, states.get(dir.resolve("sub")));
+    Assert.assertEquals(PathState.IGNORED, PathCollection.getState(dir));
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(parent));
+  }
+
+  @Test
+  public void testResolveChildrenKeepsTheOrderOfTheChildren() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    PathCollection.addPath(dir, PathState.NORMAL);
+    PathCollection.addPath(dir.resolve("k"), PathState.NORMAL);
+    PathCollection.addPath(dir.resolve("m"), PathState.MAPPED);
+
+    // the loaded items are inserted in the tree in the order of the listing
+    Map<Path, Boolean> children = new LinkedHashMap<>();
+    for (String name : new String[] {"z", "m", "a", "k"}) {
+      children.put(Files.createFile(dir.resolve(name)), false);
+    }
+    Map<Path, PathState> states = PathCollection.resolveChildren(dir, children);
+    Assert.assertEquals(new ArrayList<>(children.keySet()), new ArrayList<>(states.keySet()));
+    Assert.assertEquals(PathState.MAPPED, states.get(dir.resolve("m")));
+    Assert.assertEquals(PathState.NORMAL, states.get(dir.resolve("z")));
+  }
+
+  @Test
+  public void testResolveChildrenWithoutChildren() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    PathCollection.addPath(dir, PathState.MAPPED);
+
+    Assert.assertTrue(PathCollection.resolveChildren(dir, new LinkedHashMap<>()).isEmpty());
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(dir));
+  }
+
+  @Test
+  public void testPeekStateDoesNotAddThePath() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    Path known = dir.resolve("known");
+    PathCollection.addPath(dir, PathState.NORMAL);
+    PathCollection.addPath(known, PathState.NORMAL);
+
+    // a deleted child, getState would add it as a NORMAL child
+    Assert.assertEquals(PathState.NORMAL, PathCollection.peekState(dir.resolve("deleted")));
+    PathCollection.addPath(known, PathState.MAPPED);
+    Assert.assertEquals(PathState.MAPPED, PathCollection.getState(dir));
+
+    // the state of the closest ancestor in the collection
+    Assert.assertEquals(PathState.MAPPED, PathCollection.peekState(known.resolve("sub").resolve("file.txt")));
+    Assert.assertEquals(PathState.NORMAL, PathCollection.peekState(tempDir.resolve("other")));
+  }
+
+  private void prepare(Path dir, Path descendant) {
+    PathCollection.addPath(dir, PathState.NORMAL);
+    PathCollection.addPath(dir.resolve("known"), PathState.MAPPED);
+    PathCollection.addPath(descendant, PathState.IGNORED);
+  }
+}
@@ -0,0 +1,109 @@
+package org.roda.rodain.core.creation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.roda.rodain.core.ControllerUtils;
+
+public class BatchSipBuilderTest {
+  private Path tempDir;
+  private Path source;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(BatchSipBuilder.class.getSimpleName());
+    source = Files.createDirectory(tempDir.resolve("source"));
+  }
+
+  @After
+  public void shutdown() {
+    ControllerUtils.deleteQuietly(tempDir);
+  }
+
+  private Path writePlan(String... lines) throws IOException {
+    Path plan = tempDir.resolve("plan.properties");
+    Files.write(plan, Arrays.asList(lines), StandardCharsets.UTF_8);
+    return plan;
+  }
+
+  private String output() {
+    return "output = " + tempDir.resolve("sips").toString().replace('\\', '/');
+  }
+
+  private String ruleSource(String ruleId) {
+    return "rule." + ruleId + ".source = " + source.toString().replace('\\', '/');
+  }
+
+  @Test
+  public void testDefaultOptions() throws Exception {
+    BatchSipBuilder builder = new BatchSipBuilder(writePlan(output()));
+    Assert.assertEquals(tempDir.resolve("sips"), builder.getOutputPath());
+    Assert.assertFalse(builder.isExportItems());
+    Assert.assertEquals(0, builder.applyRules());
+    Assert.assertTrue(builder.getSips().isEmpty());
+  }
+
+  @Test
+  public void testExportItemsOption() throws Exception {
+    BatchSipBuilder builder = new BatchSipBuilder(writePlan(output(), "exportItems = true"));
+    Assert.assertTrue(builder.isExportItems());
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testMissingOutput() throws Exception {
+    new BatchSipBuilder(writePlan("sipType = EARK2"));
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testBlankOutput() throws Exception {
+    new BatchSipBuilder(writePlan("output = "));
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testInvalidSipType() throws Exception {
+    new BatchSipBuilder(writePlan(output(), "sipType = ZIP"));
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testRuleWithoutSource() throws Exception {
+    new BatchSipBuilder(writePlan(output(), "rules = photos", "rule.photos.type = SIP_PER_FILE")).applyRules();
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testRuleWithUnknownParent() throws Exception {
+    new BatchSipBuilder(writePlan(output(), "rules = photos", ruleSource("photos"), "rule.photos.parent = unknown"))
+      .applyRules();
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testInvalidRuleType() throws Exception {
+    new BatchSipBuilder(writePlan(output(), "rules = photos", ruleSource("photos"), "rule.photos.type = SIP_PER_DAY"))
+      .applyRules();
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testInvalidMetadataOption() throws Exception {
+    new BatchSipBuilder(writePlan(output(), "rules = photos", ruleSource("photos"), "rule.photos.metadata = COPY"))
+      .applyRules();
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testMetadataFileWithoutPath() throws Exception {
+    new BatchSipBuilder(
+      writePlan(output(), "rules = photos", ruleSource("photos"), "rule.photos.metadata = SINGLE_FILE")).applyRules();
+  }
+
+  @Test(expected = ConfigurationException.class)
+  public void testNameStrategyNotAllowedForSipType() throws Exception {
+    new BatchSipBuilder(writePlan(output(), "sipType = EARK2", "sipName.strategy = DATE_TRANSFERRING_SERIALNUMBER"))
+      .export();
+  }
+}
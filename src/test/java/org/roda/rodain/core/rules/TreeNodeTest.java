@@ -0,0 +1,82 @@
+package org.roda.rodain.core.rules;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TreeNodeTest {
+  private final Path root = Paths.get("/data/root").toAbsolutePath();
+
+  @Test
+  public void testAddingTheSamePathReplacesTheChild() {
+    TreeNode node = new TreeNode(root);
+    node.add(root.resolve("a.txt"));
+    node.add(root.resolve("b.txt"));
+    TreeNode replacement = new TreeNode(root.resolve("a.txt"));
+    node.add(replacement);
+
+    Assert.assertEquals(2, node.getChildNodes().size());
+    Assert.assertSame(replacement, node.get(root.resolve("a.txt").toString()));
+    Assert.assertEquals(3, node.getFullTreeSize());
+  }
+
+  @Test
+  public void testAddingTheSameNodeTwice() {
+    TreeNode node = new TreeNode(root);
+    TreeNode child = new TreeNode(root.resolve("a.txt"));
+    node.add(child);
+    node.add(child);
+
+    Assert.assertEquals(1, node.getChildNodes().size());
+    Assert.assertEquals(root.resolve("a.txt"), child.getPath());
+  }
+
+  @Test
+  public void testChildrenFromOtherFoldersAreKeptByPath() {
+    TreeNode node = new TreeNode(root);
+    Path other = Paths.get("/data/other/a.txt").toAbsolutePath();
+    node.add(root.resolve("a.txt"));
+    node.add(other);
+
+    Assert.assertEquals(2, node.getChildNodes().size());
+    Assert.assertEquals(other, node.get(other.toString()).getPath());
+    Assert.assertEquals(root.resolve("a.txt"), node.get(root.resolve("a.txt").toString()).getPath());
+  }
+
+  @Test
+  public void testGetAndRemoveWithManyChildren() {
+    TreeNode node = new TreeNode(root);
+    for (int i = 0; i < 100; i++) {
+      node.add(root.resolve("file" + i));
+    }
+    // duplicates once the children are indexed
+    for (int i = 0; i < 100; i += 10) {
+      node.add(root.resolve("file" + i));
+    }
+    Assert.assertEquals(100, node.getChildNodes().size());
+
+    TreeNode removed = node.remove(root.resolve("file42"));
+    Assert.assertNotNull(removed);
+    Assert.assertEquals(root.resolve("file42"), removed.getPath());
+    Assert.assertNull(node.get(root.resolve("file42").toString()));
+    Assert.assertNull(node.remove(root.resolve("file42")));
+    Assert.assertEquals(99, node.getChildNodes().size());
+    Assert.assertEquals(root.resolve("file99"), node.get(root.resolve("file99").toString()).getPath());
+    Assert.assertNull(node.get(root.resolve("missing").toString()));
+  }
+
+  @Test
+  public void testChildPathsFollowTheParent() {
+    TreeNode node = new TreeNode(root);
+    TreeNode dir = new TreeNode(root.resolve("dir"));
+    node.add(dir);
+    dir.add(root.resolve("dir").resolve("file.txt"));
+
+    Assert.assertEquals(root.resolve("dir").resolve("file.txt"),
+      dir.get(root.resolve("dir").resolve("file.txt").toString()).getPath());
+    Assert.assertEquals(node.getChildren().keySet(), node.getKeys());
+    Assert.assertTrue(node.getFullTreePaths().contains(root.resolve("dir").resolve("file.txt").toString()));
+  }
+}
@@ -0,0 +1,135 @@
+package org.roda.rodain.core.rules.filters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.roda.rodain.core.Constants.PathState;
+import org.roda.rodain.core.PathCollection;
+
+/**
+ * Checks that the tree of path segments filters the same paths as the
+ * previous implementation, which looked up the path and each of its prefixes
+ * ending before a separator in the sets of ignored and mapped paths.
+ */
+public class ContentFilterTest {
+  private Path tempDir;
+  private ContentFilter filter;
+  private Set<String> listed;
+
+  @Before
+  public void setup() throws IOException {
+    PathCollection.reset();
+    tempDir = Files.createTempDirectory(ContentFilter.class.getSimpleName()).toRealPath();
+    filter = new ContentFilter();
+    listed = new HashSet<>();
+  }
+
+  @After
+  public void shutdown() {
+    PathCollection.reset();
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  private void ignore(Path path) {
+    filter.addIgnored(path.toString());
+    listed.add(path.toString());
+  }
+
+  private void map(Path path) {
+    filter.addAllMapped(Arrays.asList(path));
+    listed.add(path.toString());
+  }
+
+  private boolean previousFilter(String path) {
+    if (listed.contains(path) || PathCollection.getState(Paths.get(path)) != PathState.NORMAL
+      || IgnoredFilter.isIgnored(Paths.get(path))) {
+      return true;
+    }
+    int index, fromIndex = 0;
+    while ((index = path.indexOf(File.separator, fromIndex)) != -1) {
+      String sub = path.substring(0, index);
+      if (listed.contains(sub) || IgnoredFilter.isIgnored(Paths.get(sub))) {
+        return true;
+      }
+      fromIndex = index + 1;
+    }
+    return false;
+  }
+
+  @Test
+  public void testListedPathsAndDescendants() throws IOException {
+    Path ignored = Files.createDirectories(tempDir.resolve("ignored"));
+    Path mapped = Files.createDirectories(tempDir.resolve("other").resolve("mapped"));
+    ignore(ignored);
+    map(mapped);
+
+    List<Path> paths = Arrays.asList(tempDir, ignored, ignored.resolve("child"), ignored.resolve("a").resolve("b"),
+      tempDir.resolve("ignoredSuffix"), tempDir.resolve("ignore"), tempDir.resolve("other"), mapped,
+      mapped.resolve("deep").resolve("file.txt"), tempDir.resolve("other").resolve("mappedNot"));
+    Files.createFile(tempDir.resolve("other").resolve("mappedNot"));
+    for (Path path : paths) {
+      Assert.assertEquals(path.toString(), previousFilter(path.toString()), filter.filter(path.toString()));
+      Assert.assertEquals(path.toString(), previousFilter(path.toString()), filter.filter(path));
+    }
+  }
+
+  @Test
+  public void testFilesystemRootIsListed() {
+    Path root = tempDir.getRoot();
+    ignore(root);
+    Assert.assertTrue(filter.filter(root));
+    Assert.assertTrue(filter.filter(tempDir));
+  }
+
+  @Test
+  public void testMappedStateIsFiltered() throws IOException {
+    Path file = Files.createFile(tempDir.resolve("file.txt"));
+    Assert.assertFalse(filter.filter(file));
+    PathCollection.addPath(file, PathState.MAPPED);
+    Assert.assertTrue(filter.filter(file));
+    Assert.assertEquals(previousFilter(file.toString()), filter.filter(file));
+  }
+
+  @Test
+  public void testNothingListed() throws IOException {
+    Files.createFile(tempDir.resolve("file.txt"));
+    Assert.assertFalse(filter.filter(tempDir));
+    Assert.assertFalse(filter.filter(tempDir.resolve("a").toString()));
+  }
+
+  @Test
+  public void testWalkedPathsAreOnlyCheckedByName() throws IOException {
+    IgnoredFilter.addIgnoreRule(".*\\.ignored");
+    Path dir = Files.createDirectories(tempDir.resolve("dir"));
+    Path file = Files.createFile(dir.resolve("file.txt"));
+    Path empty = Files.createDirectory(dir.resolve("empty"));
+    map(dir.resolve("mapped"));
+
+    List<Path> paths = Arrays.asList(dir, file, Files.createFile(dir.resolve("file.ignored")),
+      dir.resolve("mapped").resolve("file.txt"), dir.resolve("missing").resolve("file.txt"));
+    for (Path path : paths) {
+      Assert.assertEquals(path.toString(), filter.filter(path), filter.filterWalked(path));
+    }
+    PathCollection.addPath(file, PathState.MAPPED);
+    Assert.assertTrue(filter.filterWalked(file));
+
+    // the empty directories are left to the walk, which lists them
+    Assert.assertTrue(filter.filter(empty));
+    Assert.assertFalse(filter.filterWalked(empty));
+    Assert.assertTrue(IgnoredFilter.isIgnoredEmptyDirectory(Collections.emptyList()));
+    Assert.assertFalse(IgnoredFilter.isIgnoredEmptyDirectory(Collections.singletonList(file)));
+  }
+}
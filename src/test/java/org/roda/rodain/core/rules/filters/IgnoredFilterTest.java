@@ -0,0 +1,134 @@
+package org.roda.rodain.core.rules.filters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the combined pattern matches the same names as the rules matched
+ * one by one, as they were before being combined. The rules are static, so the
+ * rules added by the tests are kept in {@link #RULES}.
+ */
+public class IgnoredFilterTest {
+  private static final List<String> RULES = new ArrayList<>();
+  private static final List<String> NAMES = Arrays.asList("a.tmp", "a.tmpx", "Thumbs.db", "thumbs.db", "aa-aa",
+    "aa-a", "a-a", "desktop.ini", "bb=bb", "b=bb", "(?<y>z", "y", "\\1", "plain.txt");
+  private static Path tempDir;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    tempDir = Files.createTempDirectory(IgnoredFilter.class.getSimpleName());
+    addRule(".*\\.tmp");
+    addRule("Thumbs\\.db");
+    // a group before the back-references, which would renumber them
+    addRule("(desktop)\\.ini");
+    // back-references, by number and by name
+    addRule("(a+)-\\1");
+    addRule("(?<x>b+)=\\k<x>");
+    // a quoted group name and back-reference are literals
+    addRule("\\Q(?<y>\\E.*");
+    addRule("\\Q\\1\\E");
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  private static void addRule(String rule) {
+    RULES.add(rule);
+    IgnoredFilter.addIgnoreRule(rule);
+  }
+
+  private static boolean matchesOneRule(String name) {
+    for (String rule : RULES) {
+      if (Pattern.compile(rule).matcher(name).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testNamesMatchLikeEachRuleOnItsOwn() {
+    for (String name : NAMES) {
+      Assert.assertEquals(name, matchesOneRule(name), IgnoredFilter.isIgnoredName(Paths.get(name)));
+      // the second time the result comes from the cache
+      Assert.assertEquals(name, matchesOneRule(name), IgnoredFilter.isIgnoredName(Paths.get(name)));
+    }
+  }
+
+  @Test
+  public void testBackReferencesAreKept() {
+    Assert.assertTrue(IgnoredFilter.isIgnoredName(Paths.get("aaa-aaa")));
+    Assert.assertFalse(IgnoredFilter.isIgnoredName(Paths.get("aaa-aa")));
+    Assert.assertTrue(IgnoredFilter.isIgnoredName(Paths.get("bbb=bbb")));
+    Assert.assertFalse(IgnoredFilter.isIgnoredName(Paths.get("bbb=b")));
+  }
+
+  @Test
+  public void testNewRuleClearsTheCachedNames() {
+    Path path = Paths.get("cached.rule");
+    Assert.assertFalse(IgnoredFilter.isIgnoredName(path));
+
+    addRule("cached\\.rule");
+    Assert.assertTrue(IgnoredFilter.isIgnoredName(path));
+  }
+
+  @Test(expected = java.util.regex.PatternSyntaxException.class)
+  public void testInvalidRuleIsRejected() {
+    IgnoredFilter.addIgnoreRule("(unclosed");
+  }
+
+  @Test
+  public void testIgnoredChildrenMatchIsIgnored() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("dir"));
+    Map<Path, Boolean> children = new LinkedHashMap<>();
+    children.put(Files.createFile(dir.resolve("keep.txt")), false);
+    children.put(Files.createFile(dir.resolve("a.tmp")), false);
+    children.put(Files.createDirectory(dir.resolve("empty")), true);
+    Path full = Files.createDirectory(dir.resolve("full"));
+    Files.createFile(full.resolve("file.txt"));
+    children.put(full, true);
+    children.put(Files.createDirectory(dir.resolve("Thumbs.db")), true);
+
+    Assert.assertEquals(ignoredOneByOne(children), IgnoredFilter.getIgnoredChildren(dir, children));
+  }
+
+  @Test
+  public void testChildrenOfIgnoredDirectoryAreIgnored() throws IOException {
+    Path dir = Files.createDirectory(tempDir.resolve("b=b"));
+    Map<Path, Boolean> children = new LinkedHashMap<>();
+    children.put(Files.createFile(dir.resolve("keep.txt")), false);
+    children.put(Files.createDirectory(dir.resolve("sub")), true);
+
+    Set<Path> ignored = IgnoredFilter.getIgnoredChildren(dir, children);
+    Assert.assertEquals(children.keySet(), ignored);
+    Assert.assertEquals(ignoredOneByOne(children), ignored);
+  }
+
+  private static Set<Path> ignoredOneByOne(Map<Path, Boolean> children) {
+    Set<Path> result = new HashSet<>();
+    for (Path child : children.keySet()) {
+      if (IgnoredFilter.isIgnored(child)) {
+        result.add(child);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,168 @@
+package org.roda.rodain.core.sip.creators;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.roda.rodain.core.Constants;
+import org.roda.rodain.core.Constants.MetadataOption;
+
+/**
+ * Checks that the metadata files found by the resolver are the ones found by
+ * the previous implementation, which listed the SIP's folder for each SIP
+ * (SAME_DIRECTORY) and walked the metadata folder before walking the content
+ * (DIFF_DIRECTORY).
+ */
+public class MetadataResolverTest {
+  private static final String TEMPLATE = "dc.xml";
+
+  private Path tempDir;
+  private PathMatcher matcher;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(MetadataResolver.class.getSimpleName());
+    matcher = FileSystems.getDefault().getPathMatcher(Constants.MISC_GLOB + TEMPLATE);
+  }
+
+  @After
+  public void shutdown() {
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  private Path createFile(Path path) throws IOException {
+    Files.createDirectories(path.getParent());
+    return Files.createFile(path);
+  }
+
+  private Set<Path> previousSameDirectory(Path sipPath) {
+    File dir = sipPath.toFile();
+    if (!dir.isDirectory()) {
+      dir = sipPath.getParent().toFile();
+    }
+    File[] foundFiles = dir.listFiles((dir1, name) -> matcher.matches(Paths.get(name)));
+    Set<Path> result = new HashSet<>();
+    if (foundFiles != null) {
+      for (File foundFile : foundFiles) {
+        result.add(foundFile.toPath());
+      }
+    }
+    return result;
+  }
+
+  private Set<Path> previousDiffDirectory(Path metadataPath, Path sipPath) throws IOException {
+    Map<String, Set<Path>> metadata = new HashMap<>();
+    try (Stream<Path> files = Files.walk(metadataPath)) {
+      files.filter(Files::isRegularFile).forEach(file -> metadata
+        .computeIfAbsent(FilenameUtils.removeExtension(file.getFileName().toString()), k -> new HashSet<>())
+        .add(file));
+    }
+    String fileNameWithExtension = sipPath.getFileName().toString();
+    Set<Path> result = new HashSet<>();
+    Set<Path> paths = metadata.get(FilenameUtils.removeExtension(fileNameWithExtension));
+    if (paths != null) {
+      for (Path p : paths) {
+        if (!p.getFileName().toString().equals(fileNameWithExtension)) {
+          result.add(p);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testSameDirectory() throws IOException {
+    Path content = tempDir.resolve("content");
+    Path file = createFile(content.resolve("file.txt"));
+    Path dcInFolder = createFile(content.resolve(TEMPLATE));
+    createFile(content.resolve("other.xml"));
+    Path sub = content.resolve("sub");
+    Path dcInSub = createFile(sub.resolve(TEMPLATE));
+    Path empty = Files.createDirectory(content.resolve("empty"));
+
+    MetadataResolver resolver = new MetadataResolver(MetadataOption.SAME_DIRECTORY, null, matcher);
+    Assert.assertEquals(previousSameDirectory(file), resolver.resolve(file, false));
+    Assert.assertEquals(setOf(dcInFolder), resolver.resolve(file, false));
+    Assert.assertEquals(previousSameDirectory(sub), resolver.resolve(sub, true));
+    Assert.assertEquals(setOf(dcInSub), resolver.resolve(sub, true));
+    Assert.assertEquals(previousSameDirectory(empty), resolver.resolve(empty, true));
+    Assert.assertTrue(resolver.resolve(empty, true).isEmpty());
+  }
+
+  @Test
+  public void testSameDirectoryListedByTheWalk() throws IOException {
+    Path content = tempDir.resolve("content");
+    Path file = createFile(content.resolve("file.txt"));
+    Path dc = createFile(content.resolve(TEMPLATE));
+    Path other = createFile(content.resolve("other.xml"));
+
+    MetadataResolver resolver = new MetadataResolver(MetadataOption.SAME_DIRECTORY, null, matcher);
+    resolver.directoryListed(content, Arrays.asList(file, dc, other));
+    // the listing given by the walk is used, the folder isn't listed again
+    Files.delete(dc);
+    Assert.assertEquals(setOf(dc), resolver.resolve(file, false));
+  }
+
+  @Test
+  public void testResolvedSetsCanBeModified() throws IOException {
+    Path content = tempDir.resolve("content");
+    Path file = createFile(content.resolve("file.txt"));
+    createFile(content.resolve(TEMPLATE));
+
+    MetadataResolver resolver = new MetadataResolver(MetadataOption.SAME_DIRECTORY, null, matcher);
+    resolver.resolve(file, false).clear();
+    Assert.assertEquals(previousSameDirectory(file), resolver.resolve(file, false));
+  }
+
+  @Test
+  public void testDiffDirectory() throws IOException {
+    Path metadata = tempDir.resolve("metadata");
+    createFile(metadata.resolve("report.xml"));
+    createFile(metadata.resolve("report.json"));
+    createFile(metadata.resolve("nested").resolve("report.txt"));
+    createFile(metadata.resolve("photo.xml"));
+    Path content = tempDir.resolve("content");
+    Path report = createFile(content.resolve("report.pdf"));
+    Path photo = createFile(content.resolve("photo.xml"));
+    Path folder = Files.createDirectory(content.resolve("report"));
+    Path unknown = createFile(content.resolve("unknown.pdf"));
+
+    MetadataResolver resolver = new MetadataResolver(MetadataOption.DIFF_DIRECTORY, metadata, null);
+    for (Path sipPath : Arrays.asList(report, photo, folder, unknown)) {
+      Assert.assertEquals(sipPath.toString(), previousDiffDirectory(metadata, sipPath),
+        resolver.resolve(sipPath, Files.isDirectory(sipPath)));
+    }
+    Assert.assertEquals(3, resolver.resolve(report, false).size());
+    // a metadata file with the same name as the SIP's file isn't used
+    Assert.assertTrue(resolver.resolve(photo, false).isEmpty());
+  }
+
+  @Test
+  public void testOtherOptions() throws IOException {
+    Path file = createFile(tempDir.resolve(TEMPLATE));
+    for (MetadataOption option : Arrays.asList(MetadataOption.TEMPLATE, MetadataOption.NEW_FILE)) {
+      MetadataResolver resolver = new MetadataResolver(option, tempDir, matcher);
+      Assert.assertTrue(resolver.resolve(file, false).isEmpty());
+    }
+  }
+
+  private static Set<Path> setOf(Path... paths) {
+    return new HashSet<>(Arrays.asList(paths));
+  }
+}
@@ -0,0 +1,82 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.roda.rodain.core.rules.filters.IgnoredFilter;
+
+/**
+ * Checks the counts shown in the footer, ignored files and directories
+ * included, and that a replaced computation stops notifying its observers.
+ */
+public class ComputeDirectorySizeTest {
+  private Path tempDir;
+  private Path indexFile;
+  private Path tree;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(ComputeDirectorySize.class.getSimpleName());
+    indexFile = tempDir.resolve("index");
+    DirectorySizeIndex.reset(indexFile);
+
+    // tree/a.txt (3 bytes), tree/size.ignored (5 bytes),
+    // tree/size.ignored.dir/b.txt (7 bytes)
+    tree = Files.createDirectory(tempDir.resolve("tree"));
+    Path ignoredDir = Files.createDirectory(tree.resolve("size.ignored.dir"));
+    Files.write(tree.resolve("a.txt"), "abc".getBytes(StandardCharsets.UTF_8));
+    Files.write(tree.resolve("size.ignored"), "abcde".getBytes(StandardCharsets.UTF_8));
+    Files.write(ignoredDir.resolve("b.txt"), "abcdefg".getBytes(StandardCharsets.UTF_8));
+    IgnoredFilter.addIgnoreRule("size\\.ignored.*");
+  }
+
+  @After
+  public void shutdown() {
+    DirectorySizeIndex.reset(null);
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testIgnoredFilesAreCounted() throws InterruptedException {
+    Assert.assertTrue(IgnoredFilter.isIgnoredName(tree.resolve("size.ignored")));
+
+    ComputeDirectorySize compute = new ComputeDirectorySize();
+    compute.compute(Collections.singleton(tree.toString()));
+    Assert.assertEquals(3, compute.getFilesCount());
+    Assert.assertEquals(2, compute.getDirectoryCount());
+    Assert.assertEquals(15, compute.getSize());
+
+    // an ignored path selected on its own
+    compute = new ComputeDirectorySize();
+    compute.compute(Collections.singleton(tree.resolve("size.ignored").toString()));
+    Assert.assertEquals(1, compute.getFilesCount());
+    Assert.assertEquals(5, compute.getSize());
+  }
+
+  @Test
+  public void testCancelledComputationDoesNotNotify() throws InterruptedException {
+    AtomicInteger notifications = new AtomicInteger();
+    ComputeDirectorySize compute = new ComputeDirectorySize();
+    compute.addObserver((o, arg) -> notifications.incrementAndGet());
+    compute.compute(Collections.singleton(tree.toString()));
+    int notified = notifications.get();
+    Assert.assertTrue(notified > 0);
+
+    // the counts of the tasks still running are discarded
+    compute.cancel();
+    Assert.assertTrue(compute.isCancelled());
+    compute.compute(Collections.singleton(tree.toString()));
+    compute.end();
+    Assert.assertEquals(notified, notifications.get());
+    Assert.assertEquals(0, compute.countObservers());
+  }
+}
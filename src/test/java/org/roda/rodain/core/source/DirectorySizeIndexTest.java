@@ -0,0 +1,146 @@
+package org.roda.rodain.core.source;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the file the index is persisted to and that the entries are only
+ * reused while the modification time of their directories stays the same.
+ */
+public class DirectorySizeIndexTest {
+  private Path tempDir;
+  private Path indexFile;
+  private Path tree;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(DirectorySizeIndex.class.getSimpleName());
+    indexFile = tempDir.resolve("index");
+    DirectorySizeIndex.reset(indexFile);
+
+    // tree/a.txt (3 bytes), tree/sub/b.txt (5 bytes), tree/sub/empty
+    tree = Files.createDirectory(tempDir.resolve("tree"));
+    Path sub = Files.createDirectory(tree.resolve("sub"));
+    Files.createDirectory(sub.resolve("empty"));
+    write(tree.resolve("a.txt"), "abc", 1000);
+    write(sub.resolve("b.txt"), "abcde", 2000);
+    setLastModified(sub.resolve("empty"), 3000);
+    setLastModified(sub, 4000);
+    setLastModified(tree, 5000);
+  }
+
+  @After
+  public void shutdown() {
+    DirectorySizeIndex.reset(null);
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testComputeCountsTheWholeTree() throws InterruptedException {
+    DirectorySizeIndex.Totals totals = DirectorySizeIndex.compute(tree, null);
+    assertTotals(totals, 2, 3, 8, 5000);
+    assertTotals(DirectorySizeIndex.getCached(tree), 2, 3, 8, 5000);
+    assertTotals(DirectorySizeIndex.getCached(tree.resolve("sub")), 1, 2, 5, 4000);
+  }
+
+  @Test
+  public void testSavedIndexIsLoadedAgain() throws IOException, InterruptedException {
+    DirectorySizeIndex.compute(tree, null);
+    DirectorySizeIndex.save();
+
+    // the version of the index, then one line per directory:
+    // path, modification time, files, bytes, files modification time, total
+    // files, total dirs, total bytes, total modification time, sub-directories
+    List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+    Assert.assertEquals("#version\t2", lines.get(0));
+    Assert.assertEquals(4, lines.size());
+    Assert.assertTrue(lines.contains(
+      String.join("\t", tree.toAbsolutePath().toString(), "5000", "1", "3", "5000", "2", "3", "8", "5000", "sub")));
+    Assert.assertTrue(lines.contains(String.join("\t", tree.resolve("sub").toAbsolutePath().toString(), "4000",
+      "1", "5", "4000", "1", "2", "5", "4000", "empty")));
+    Assert.assertTrue(lines.contains(String.join("\t", tree.resolve("sub").resolve("empty").toAbsolutePath().toString(),
+      "3000", "0", "0", "3000", "0", "1", "0", "3000", "")));
+
+    DirectorySizeIndex.reset(indexFile);
+    assertTotals(DirectorySizeIndex.getCached(tree), 2, 3, 8, 5000);
+    assertTotals(DirectorySizeIndex.getCached(tree.resolve("sub").resolve("empty")), 0, 1, 0, 3000);
+  }
+
+  @Test
+  public void testMalformedLinesAndOtherVersionsAreIgnored() throws IOException {
+    String key = tree.toAbsolutePath().toString();
+    String valid = String.join("\t", key, "5000", "1", "3", "5000", "2", "3", "8", "5000", "sub");
+    String other = tree.resolve("sub").toAbsolutePath().toString();
+    Files.write(indexFile, Arrays.asList("#version\t2", valid,
+      String.join("\t", other, "4000", "x", "5", "4000", "1", "2", "5", "4000", "empty"), other + "\t4000"),
+      StandardCharsets.UTF_8);
+    DirectorySizeIndex.reset(indexFile);
+    assertTotals(DirectorySizeIndex.getCached(tree), 2, 3, 8, 5000);
+    Assert.assertNull(DirectorySizeIndex.getCached(tree.resolve("sub")));
+
+    // an index written by another version, which didn't count the ignored
+    // files, is discarded
+    Files.write(indexFile, Arrays.asList("#rules\t", valid),
+      StandardCharsets.UTF_8);
+    DirectorySizeIndex.reset(indexFile);
+    Assert.assertNull(DirectorySizeIndex.getCached(tree));
+  }
+
+  @Test
+  public void testModifiedDirectoryIsListedAgain() throws IOException, InterruptedException {
+    DirectorySizeIndex.compute(tree, null);
+    Path sub = tree.resolve("sub");
+
+    // a new file changes the modification time of its directory
+    write(sub.resolve("c.txt"), "abcdefg", 6000);
+    setLastModified(sub, 7000);
+    assertTotals(DirectorySizeIndex.compute(tree, null), 3, 3, 15, 7000);
+    assertTotals(DirectorySizeIndex.getCached(sub), 2, 2, 12, 7000);
+  }
+
+  @Test
+  public void testUnmodifiedDirectoryIsNotListedAgain() throws IOException, InterruptedException {
+    DirectorySizeIndex.compute(tree, null);
+    Path sub = tree.resolve("sub");
+
+    // the entry is reused while the modification time stays the same, even
+    // if the content changed
+    write(sub.resolve("c.txt"), "abcdefg", 6000);
+    setLastModified(sub, 4000);
+    assertTotals(DirectorySizeIndex.compute(tree, null), 2, 3, 8, 5000);
+
+    // also after being saved and loaded again
+    DirectorySizeIndex.save();
+    DirectorySizeIndex.reset(indexFile);
+    assertTotals(DirectorySizeIndex.compute(tree, null), 2, 3, 8, 5000);
+  }
+
+  private static void assertTotals(DirectorySizeIndex.Totals totals, long files, long dirs, long bytes,
+    long lastModified) {
+    Assert.assertNotNull(totals);
+    Assert.assertEquals(files, totals.getFiles());
+    Assert.assertEquals(dirs, totals.getDirs());
+    Assert.assertEquals(bytes, totals.getBytes());
+    Assert.assertEquals(lastModified, totals.getLastModified());
+  }
+
+  private static void write(Path file, String content, long lastModified) throws IOException {
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    setLastModified(file, lastModified);
+  }
+
+  private static void setLastModified(Path path, long lastModified) throws IOException {
+    Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+  }
+}
@@ -0,0 +1,135 @@
+package org.roda.rodain.core.source.representation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the entries are indexed in the order of the items of the file
+ * explorer (SourceTreeDirectory.comparator): the directories before the files,
+ * each sorted by {@link SourceDirectory#NAME_ORDER}. The loaded items are
+ * inserted in the tree with a binary search, which relies on both orders being
+ * the same.
+ */
+public class DirectoryIndexTest {
+  private static final List<String> DIRECTORIES = Arrays.asList("beta", "Alpha", "_under", "a10", "a2", "Zulu");
+  private static final List<String> FILES = Arrays.asList("b.txt", "A.txt", "zz", "Z1.txt", "0.txt", ".hidden");
+
+  // the order of the tree items: directories first, then by name
+  private static final Comparator<Entry> TREE_ORDER = (e1, e2) -> {
+    if (e1.directory != e2.directory) {
+      return e1.directory ? -1 : 1;
+    }
+    return SourceDirectory.NAME_ORDER.compare(e1.name, e2.name);
+  };
+
+  private Path tempDir;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(DirectoryIndex.class.getSimpleName());
+    for (String name : DIRECTORIES) {
+      Files.createDirectory(tempDir.resolve(name));
+    }
+    for (String name : FILES) {
+      Files.createFile(tempDir.resolve(name));
+    }
+  }
+
+  @After
+  public void shutdown() {
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testDirectoriesBeforeFilesSortedByName() {
+    DirectoryIndex index = DirectoryIndex.create(tempDir, true);
+    Assert.assertEquals(Arrays.asList("_under", "a10", "a2", "Alpha", "beta", "Zulu", ".hidden", "0.txt", "A.txt",
+      "b.txt", "Z1.txt", "zz"), getNames(index));
+    for (int i = 0; i < index.size(); i++) {
+      Assert.assertEquals(i < DIRECTORIES.size(), index.isDirectory(i));
+    }
+  }
+
+  @Test
+  public void testOrderMatchesTheTreeOrder() {
+    DirectoryIndex index = DirectoryIndex.create(tempDir, true);
+    List<Entry> entries = getEntries(index);
+    List<Entry> sorted = new ArrayList<>(entries);
+    Collections.shuffle(sorted);
+    sorted.sort(TREE_ORDER);
+    Assert.assertEquals(sorted, entries);
+
+    // each entry inserted with a binary search, as the tree does, ends up in
+    // the same place
+    List<Entry> inserted = new ArrayList<>();
+    for (Entry entry : entries) {
+      int position = Collections.binarySearch(inserted, entry, TREE_ORDER);
+      inserted.add(position < 0 ? -position - 1 : position, entry);
+    }
+    Assert.assertEquals(entries, inserted);
+  }
+
+  @Test
+  public void testOnlyDirectories() {
+    DirectoryIndex index = DirectoryIndex.create(tempDir, false);
+    Assert.assertEquals(Arrays.asList("_under", "a10", "a2", "Alpha", "beta", "Zulu"), getNames(index));
+  }
+
+  @Test
+  public void testMissingDirectoryIsEmpty() {
+    Assert.assertEquals(0, DirectoryIndex.create(tempDir.resolve("missing"), true).size());
+  }
+
+  private static List<String> getNames(DirectoryIndex index) {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < index.size(); i++) {
+      names.add(index.getName(i));
+    }
+    return names;
+  }
+
+  private static List<Entry> getEntries(DirectoryIndex index) {
+    List<Entry> entries = new ArrayList<>();
+    for (int i = 0; i < index.size(); i++) {
+      entries.add(new Entry(index.getName(i), index.isDirectory(i)));
+    }
+    return entries;
+  }
+
+  private static final class Entry {
+    private final String name;
+    private final boolean directory;
+
+    Entry(String name, boolean directory) {
+      this.name = name;
+      this.directory = directory;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Entry && ((Entry) obj).name.equals(name) && ((Entry) obj).directory == directory;
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return (directory ? "dir " : "file ") + name;
+    }
+  }
+}
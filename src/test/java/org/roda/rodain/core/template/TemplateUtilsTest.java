@@ -0,0 +1,121 @@
+package org.roda.rodain.core.template;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.jknack.handlebars.Template;
+
+import net.sf.saxon.s9api.XPathExecutable;
+
+/**
+ * Checks that the compiled templates and XPath expressions are reused and that
+ * the values of the fields of a template, read from the metadata parsed once
+ * for all of them, are the values of their XPath expressions.
+ */
+public class TemplateUtilsTest {
+  private static final String TEMPLATE = "<metadata>"
+    + "{{~field name=\"title\" order='1' label=\"Title\" xpath=\"//*:title/string()\"}}"
+    + "{{~field name=\"date\" order='2' label=\"Date\" xpath=\"//*:date[1]/string()##%##//*:date[2]/string()\"}}"
+    + "{{~field name=\"creator\" order='3' label=\"Creator\" xpath=\"//*:creator/string()\"}}"
+    + "{{~field name=\"note\" order='4' label=\"Note\"}}" + "</metadata>";
+  private static final String CONTENT = "<metadata><title> A title </title><date>2016</date><date>2017</date>"
+    + "<creator>Someone</creator></metadata>";
+
+  @Test
+  public void testTemplatesAreCompiledOnce() throws Exception {
+    String template = "<a>{{title}}</a>";
+    Template values = TemplateUtils.getValuesTemplate(template);
+    Assert.assertSame(values, TemplateUtils.getValuesTemplate(template));
+    Assert.assertSame(values, TemplateUtils.getValuesTemplate(new String(template.toCharArray())));
+
+    // the fields are read with a template of their own, which ignores the
+    // unknown helpers
+    Template fields = TemplateUtils.getTemplate(template, true);
+    Assert.assertNotSame(values, fields);
+    Assert.assertSame(fields, TemplateUtils.getTemplate(template, true));
+
+    Map<String, Object> data = new HashMap<>();
+    data.put("title", "abc");
+    Assert.assertEquals("<a>abc</a>", values.apply(data));
+    Assert.assertNotSame(values, TemplateUtils.getValuesTemplate("<b>{{title}}</b>"));
+  }
+
+  @Test
+  public void testFieldsAreCollectedByEachApplication() throws Exception {
+    // the compiled template is shared, the fields are collected per call
+    for (int i = 0; i < 2; i++) {
+      List<String> ids = new ArrayList<>();
+      for (TemplateFieldValue field : TemplateUtils.processTemplate(TEMPLATE)) {
+        ids.add(field.getId());
+      }
+      Assert.assertEquals(Arrays.asList("title", "date", "creator", "note"), ids);
+    }
+    Assert.assertSame(TemplateUtils.getTemplate(TEMPLATE, true), TemplateUtils.getTemplate(TEMPLATE, true));
+  }
+
+  @Test
+  public void testXpathExpressionsAreSharedByTheThreads() throws Exception {
+    String xpath = "//*:title/string()";
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Callable<XPathExecutable>> tasks = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        tasks.add(() -> TemplateUtils.getXpathExpression(xpath));
+      }
+      List<Future<XPathExecutable>> results = executor.invokeAll(tasks);
+      for (Future<XPathExecutable> result : results) {
+        Assert.assertNotNull(result.get());
+      }
+      // the threads that asked for it at the same time may have compiled it
+      // more than once, but it's compiled only once afterwards
+      XPathExecutable expression = TemplateUtils.getXpathExpression(xpath);
+      Assert.assertSame(expression, TemplateUtils.getXpathExpression(xpath));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    List<String> titles = TemplateUtils.applyXpath(CONTENT, xpath);
+    Assert.assertEquals(1, titles.size());
+    Assert.assertEquals(" A title ", titles.get(0));
+  }
+
+  @Test
+  public void testFieldsAreReadFromTheContent() {
+    Map<String, TemplateFieldValue> fields = byId(TemplateUtils.getTemplateFields(TEMPLATE, CONTENT));
+    Assert.assertEquals(4, fields.size());
+    Assert.assertEquals("A title", fields.get("title").get("value"));
+    // the values of the expressions of a field are joined when they differ
+    Assert.assertEquals("2016 / 2017", fields.get("date").get("value"));
+    Assert.assertEquals("Someone", fields.get("creator").get("value"));
+    Assert.assertNull(fields.get("note").get("value"));
+  }
+
+  @Test
+  public void testFieldsOfMalformedContentAreEmpty() {
+    Map<String, TemplateFieldValue> fields = byId(TemplateUtils.getTemplateFields(TEMPLATE, "<metadata>"));
+    Assert.assertEquals(4, fields.size());
+    Assert.assertEquals("", fields.get("title").get("value"));
+    Assert.assertEquals("", fields.get("date").get("value"));
+    Assert.assertNull(fields.get("note").get("value"));
+
+    Assert.assertTrue(TemplateUtils.getTemplateFields(null, CONTENT).isEmpty());
+  }
+
+  private static Map<String, TemplateFieldValue> byId(Iterable<TemplateFieldValue> fields) {
+    Map<String, TemplateFieldValue> result = new HashMap<>();
+    for (TemplateFieldValue field : fields) {
+      result.put(field.getId(), field);
+    }
+    return result;
+  }
+}
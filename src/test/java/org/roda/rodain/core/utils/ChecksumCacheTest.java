@@ -0,0 +1,105 @@
+package org.roda.rodain.core.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the checksums are only computed when they aren't in the cache
+ * and that the cached ones are forgotten when their file changes.
+ */
+public class ChecksumCacheTest {
+  private static final String MD5_ABC = "900150983cd24fb0d6963f7d28e17f72";
+  private static final String SHA256_ABC = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+  // a checksum that can't be the result of reading the file
+  private static final String KNOWN = "0123456789abcdef";
+
+  private Path tempDir;
+  private Path cacheFile;
+  private Path file;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(ChecksumCache.class.getSimpleName());
+    cacheFile = tempDir.resolve("checksums");
+    ChecksumCache.reset(cacheFile);
+    file = tempDir.resolve("abc.txt");
+    Files.write(file, "abc".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(1000));
+  }
+
+  @After
+  public void shutdown() {
+    ChecksumCache.reset(null);
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testBothChecksumsAreComputedInOneRead() throws IOException {
+    Assert.assertNull(ChecksumCache.getCachedChecksum(file, ChecksumCache.MD5));
+    Assert.assertEquals(MD5_ABC, ChecksumCache.getChecksum(file, "md5"));
+    Assert.assertEquals(SHA256_ABC, ChecksumCache.getCachedChecksum(file, ChecksumCache.SHA256));
+  }
+
+  @Test
+  public void testGivenChecksumIsUsedWithoutReadingTheFile() throws IOException {
+    ChecksumCache.putChecksum(file, "sha-256", KNOWN.toUpperCase());
+    Assert.assertEquals(KNOWN, ChecksumCache.getChecksum(file, ChecksumCache.SHA256));
+    // only the given algorithm is known
+    Assert.assertNull(ChecksumCache.getCachedChecksum(file, ChecksumCache.MD5));
+
+    // an empty checksum (not computed by the SIP library) isn't kept
+    ChecksumCache.putChecksum(file, ChecksumCache.MD5, "");
+    Assert.assertNull(ChecksumCache.getCachedChecksum(file, ChecksumCache.MD5));
+  }
+
+  @Test
+  public void testChangedFileIsReadAgain() throws IOException {
+    ChecksumCache.putChecksum(file, ChecksumCache.SHA256, KNOWN);
+
+    // same size, other modification time
+    Files.setLastModifiedTime(file, FileTime.fromMillis(2000));
+    Assert.assertNull(ChecksumCache.getCachedChecksum(file, ChecksumCache.SHA256));
+    Assert.assertEquals(SHA256_ABC, ChecksumCache.getChecksum(file, ChecksumCache.SHA256));
+
+    // other size, same modification time
+    ChecksumCache.putChecksum(file, ChecksumCache.SHA256, KNOWN);
+    Files.write(file, "abcd".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(2000));
+    Assert.assertNull(ChecksumCache.getCachedChecksum(file, ChecksumCache.SHA256));
+  }
+
+  @Test
+  public void testSavedCacheIsLoadedAgain() throws IOException {
+    ChecksumCache.putChecksum(file, ChecksumCache.SHA256, KNOWN);
+    ChecksumCache.save();
+    Assert.assertTrue(Files.exists(cacheFile));
+
+    ChecksumCache.reset(cacheFile);
+    Assert.assertEquals(KNOWN, ChecksumCache.getCachedChecksum(file, ChecksumCache.SHA256));
+
+    // the entries of the files changed since are discarded when used
+    Files.setLastModifiedTime(file, FileTime.fromMillis(2000));
+    ChecksumCache.reset(cacheFile);
+    Assert.assertEquals(SHA256_ABC, ChecksumCache.getChecksum(file, ChecksumCache.SHA256));
+  }
+
+  @Test
+  public void testMissingFile() {
+    Assert.assertNull(ChecksumCache.getCachedChecksum(tempDir.resolve("missing"), ChecksumCache.MD5));
+    try {
+      ChecksumCache.getChecksum(tempDir.resolve("missing"), ChecksumCache.MD5);
+      Assert.fail("The checksum of a missing file was computed");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package org.roda.rodain.core.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the stored contents are read back unchanged, from memory or from
+ * their file, and that the contents kept in memory don't go over their limit.
+ */
+public class ContentStoreTest {
+  private static final int LARGE = (int) (ContentStore.MAX_CACHED_BYTES / 4);
+
+  private Path tempDir;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(ContentStore.class.getSimpleName());
+    ContentStore.reset(tempDir);
+  }
+
+  @After
+  public void shutdown() {
+    ContentStore.reset(null);
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testContentRoundTrip() throws IOException {
+    byte[] content = "<title>RODA-in</title>".getBytes(StandardCharsets.UTF_8);
+    String key = ContentStore.put(content);
+    Assert.assertArrayEquals(content, ContentStore.get(key));
+    Assert.assertTrue(Files.exists(tempDir.resolve(key)));
+
+    // the same content is stored once, with the same key
+    Assert.assertEquals(key, ContentStore.put(content.clone()));
+    Assert.assertEquals(1, tempDir.toFile().list().length);
+
+    // read from its file once it isn't in memory
+    ContentStore.reset(tempDir);
+    Assert.assertFalse(ContentStore.isCached(key));
+    try (InputStream stream = ContentStore.open(key)) {
+      Assert.assertArrayEquals(content, IOUtils.toByteArray(stream));
+    }
+    Assert.assertArrayEquals(content, ContentStore.get(key));
+    Assert.assertTrue(ContentStore.isCached(key));
+
+    String other = ContentStore.put("<title>other</title>".getBytes(StandardCharsets.UTF_8));
+    Assert.assertNotEquals(key, other);
+    Assert.assertArrayEquals(content, ContentStore.get(key));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedContentsLeaveTheMemory() throws IOException {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      keys.add(ContentStore.put(content(LARGE, i)));
+    }
+    Assert.assertEquals(ContentStore.MAX_CACHED_BYTES, ContentStore.getCachedBytes());
+
+    // the first content is used again, so the second is the one removed
+    ContentStore.get(keys.get(0));
+    keys.add(ContentStore.put(content(LARGE, 4)));
+    Assert.assertTrue(ContentStore.getCachedBytes() <= ContentStore.MAX_CACHED_BYTES);
+    Assert.assertTrue(ContentStore.isCached(keys.get(0)));
+    Assert.assertFalse(ContentStore.isCached(keys.get(1)));
+    Assert.assertTrue(ContentStore.isCached(keys.get(4)));
+
+    // a removed content is still in its file
+    Assert.assertArrayEquals(content(LARGE, 1), ContentStore.get(keys.get(1)));
+    Assert.assertTrue(ContentStore.getCachedBytes() <= ContentStore.MAX_CACHED_BYTES);
+  }
+
+  @Test
+  public void testTooLargeContentIsNotKeptInMemory() throws IOException {
+    byte[] content = content(LARGE + 1, 0);
+    String key = ContentStore.put(content);
+    Assert.assertFalse(ContentStore.isCached(key));
+    Assert.assertEquals(0, ContentStore.getCachedBytes());
+    Assert.assertArrayEquals(content, ContentStore.get(key));
+  }
+
+  private static byte[] content(int size, int value) {
+    byte[] content = new byte[size];
+    Arrays.fill(content, (byte) value);
+    return content;
+  }
+}
@@ -0,0 +1,124 @@
+package org.roda.rodain.core.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a cached file is read again after it changes, whether its folder
+ * is watched or its size and modification time are checked on each access.
+ */
+public class FileContentCacheTest {
+  // the watch service may take a while to report a change (e.g. when it polls)
+  private static final long WATCH_TIMEOUT = 30000;
+
+  private Path tempDir;
+  private Path file;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(FileContentCache.class.getSimpleName());
+    file = tempDir.resolve("template.hbs");
+    write(file, "first", 1000);
+  }
+
+  @After
+  public void shutdown() {
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testChangeInWatchedFolderInvalidatesTheEntry() throws Exception {
+    FileContentCache cache = new FileContentCache("test");
+    Assert.assertEquals("first", read(cache, file));
+
+    write(file, "second", 1000);
+    Assert.assertTrue(waitFor(cache, file, "second"));
+
+    // a file created in the folder is found
+    Path created = tempDir.resolve("created.hbs");
+    Assert.assertFalse(cache.exists(created));
+    write(created, "created", 1000);
+    Assert.assertTrue(waitFor(cache, created, "created"));
+
+    // and a deleted one isn't
+    Files.delete(created);
+    long start = System.currentTimeMillis();
+    while (cache.exists(created) && System.currentTimeMillis() - start < WATCH_TIMEOUT) {
+      Thread.sleep(20);
+    }
+    Assert.assertFalse(cache.exists(created));
+  }
+
+  @Test
+  public void testUnwatchedEntriesAreCheckedBySizeAndModificationTime() throws IOException {
+    FileContentCache cache = new FileContentCache("test", false);
+    Assert.assertEquals("first", read(cache, file));
+
+    // the same size and modification time, the entry is still used
+    write(file, "other", 1000);
+    Assert.assertEquals("first", read(cache, file));
+
+    // another modification time
+    write(file, "other", 2000);
+    Assert.assertEquals("other", read(cache, file));
+
+    // another size
+    write(file, "longer", 2000);
+    Assert.assertEquals("longer", read(cache, file));
+  }
+
+  @Test
+  public void testUnwatchedMissingFile() throws IOException {
+    FileContentCache cache = new FileContentCache("test", false);
+    Path missing = tempDir.resolve("missing.hbs");
+    Assert.assertFalse(cache.exists(missing));
+    Assert.assertNull(cache.getContent(missing));
+
+    write(missing, "found", 1000);
+    Assert.assertEquals("found", read(cache, missing));
+    Files.delete(missing);
+    Assert.assertFalse(cache.exists(missing));
+
+    // a folder isn't a file with content
+    Assert.assertFalse(cache.exists(tempDir));
+  }
+
+  @Test
+  public void testClearRemovesTheEntries() throws IOException {
+    FileContentCache cache = new FileContentCache("test", false);
+    Assert.assertEquals("first", read(cache, file));
+    write(file, "other", 1000);
+    cache.clear();
+    Assert.assertEquals("other", read(cache, file));
+  }
+
+  private static boolean waitFor(FileContentCache cache, Path path, String content) throws Exception {
+    long start = System.currentTimeMillis();
+    while (System.currentTimeMillis() - start < WATCH_TIMEOUT) {
+      if (content.equals(read(cache, path))) {
+        return true;
+      }
+      Thread.sleep(20);
+    }
+    return false;
+  }
+
+  private static String read(FileContentCache cache, Path path) throws IOException {
+    byte[] content = cache.getContent(path);
+    return content == null ? null : new String(content, StandardCharsets.UTF_8);
+  }
+
+  private static void write(Path path, String content, long lastModified) throws IOException {
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+  }
+}
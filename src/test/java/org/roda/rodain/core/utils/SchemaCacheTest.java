@@ -0,0 +1,168 @@
+package org.roda.rodain.core.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.validation.Schema;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class SchemaCacheTest {
+  private static final String SCHEMA = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+    + "<xs:element name=\"%s\" type=\"xs:string\"/></xs:schema>";
+  private static final String VALID = "<title>RODA-in</title>";
+  private static final String INVALID = "<title><child/></title>";
+
+  private static byte[] schema(String element) {
+    return String.format(SCHEMA, element).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static Path schemaPath(String name) {
+    return Paths.get("schemas", name + ".xsd");
+  }
+
+  @Test
+  public void testCompiledSchemaIsReused() throws Exception {
+    Path path = schemaPath("reused");
+    byte[] content = schema("title");
+    Schema compiled = SchemaCache.getSchema(path, content);
+
+    Assert.assertSame(compiled, SchemaCache.getSchema(path, content));
+    // the same content read again
+    Assert.assertSame(compiled, SchemaCache.getSchema(path, schema("title")));
+    SchemaCache.validate(VALID, path, content);
+    Assert.assertSame(compiled, SchemaCache.getSchema(path, content));
+  }
+
+  @Test
+  public void testChangedSchemaIsCompiledAgain() throws Exception {
+    Path path = schemaPath("changed");
+    Schema compiled = SchemaCache.getSchema(path, schema("title"));
+    SchemaCache.validate(VALID, path, schema("title"));
+
+    byte[] changed = schema("name");
+    Assert.assertNotSame(compiled, SchemaCache.getSchema(path, changed));
+    try {
+      SchemaCache.validate(VALID, path, changed);
+      Assert.fail("The XML must be validated against the changed schema");
+    } catch (SAXException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSchemasAreKeptByPath() throws Exception {
+    byte[] content = schema("title");
+    Schema first = SchemaCache.getSchema(schemaPath("first"), content);
+    Schema second = SchemaCache.getSchema(schemaPath("second"), content);
+    Assert.assertNotSame(first, second);
+    Assert.assertSame(first, SchemaCache.getSchema(schemaPath("first"), content));
+  }
+
+  @Test
+  public void testValidatorIsReturnedAfterFailure() throws Exception {
+    Path path = schemaPath("failure");
+    byte[] content = schema("title");
+    try {
+      SchemaCache.validate(INVALID, path, content);
+      Assert.fail("The XML isn't valid");
+    } catch (SAXException e) {
+      // expected
+    }
+    Assert.assertEquals(1, SchemaCache.getPooledValidatorsCount(path));
+
+    // the validator that failed is reused and accepts a valid XML
+    SchemaCache.validate(VALID, path, content);
+    Assert.assertEquals(1, SchemaCache.getPooledValidatorsCount(path));
+
+    try {
+      SchemaCache.validate("<title>not closed", path, content);
+      Assert.fail("The XML isn't well-formed");
+    } catch (SAXException e) {
+      // expected
+    }
+    Assert.assertEquals(1, SchemaCache.getPooledValidatorsCount(path));
+  }
+
+  @Test
+  public void testConcurrentValidations() throws Exception {
+    Path path = schemaPath("concurrent");
+    byte[] content = schema("title");
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        String xml = i % 2 == 0 ? VALID : INVALID;
+        results.add(executor.submit((Callable<Boolean>) () -> {
+          try {
+            SchemaCache.validate(xml, path, content);
+            return true;
+          } catch (SAXException e) {
+            return false;
+          }
+        }));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        Assert.assertEquals(i % 2 == 0, results.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    int pooled = SchemaCache.getPooledValidatorsCount(path);
+    Assert.assertTrue(pooled >= 1 && pooled <= threads);
+  }
+
+  @Test
+  public void testValidateAll() throws Exception {
+    Path path = schemaPath("all");
+    byte[] content = schema("title");
+    Map<String, String> contents = new HashMap<>();
+    for (int i = 0; i < 50; i++) {
+      contents.put("valid" + i, VALID);
+      contents.put("invalid" + i, INVALID);
+    }
+    contents.put("without schema", INVALID);
+    contents.put("missing schema", VALID);
+
+    Map<String, Exception> errors = SchemaCache.validateAll(contents, new SchemaCache.SchemaProvider<String>() {
+      @Override
+      public Path getSchemaPath(String key) {
+        if ("without schema".equals(key)) {
+          return null;
+        }
+        return "missing schema".equals(key) ? schemaPath("missing") : path;
+      }
+
+      @Override
+      public byte[] getSchemaContent(String key) {
+        return "missing schema".equals(key) ? null : content;
+      }
+    });
+
+    Assert.assertEquals(51, errors.size());
+    for (int i = 0; i < 50; i++) {
+      Assert.assertFalse(errors.containsKey("valid" + i));
+      Assert.assertTrue(errors.get("invalid" + i) instanceof SAXException);
+    }
+    // the XML without a schema isn't validated
+    Assert.assertFalse(errors.containsKey("without schema"));
+    Assert.assertTrue(errors.get("missing schema") instanceof SAXException);
+
+    // the validators of the pool threads are kept for the next validations
+    int pooled = SchemaCache.getPooledValidatorsCount(path);
+    Assert.assertTrue(pooled >= 1 && pooled <= Runtime.getRuntime().availableProcessors());
+    Assert.assertTrue(SchemaCache.validateAll(new HashMap<>(), null).isEmpty());
+  }
+}
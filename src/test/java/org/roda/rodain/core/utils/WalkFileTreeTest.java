@@ -0,0 +1,229 @@
+package org.roda.rodain.core.utils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the visitor is called in the order of
+ * {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)}, although the
+ * file system is read by several threads.
+ */
+public class WalkFileTreeTest {
+  private static final int DIRECTORIES = 12;
+  private static final int FILES_PER_DIRECTORY = 150;
+
+  private Path tempDir;
+
+  @Before
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory(WalkFileTree.class.getSimpleName());
+    // root/dirN/fileM and root/dirN/nested/fileM
+    for (int i = 0; i < DIRECTORIES; i++) {
+      Path dir = Files.createDirectory(tempDir.resolve("dir" + i));
+      Path nested = Files.createDirectory(dir.resolve("nested"));
+      for (int j = 0; j < FILES_PER_DIRECTORY; j++) {
+        Files.createFile(dir.resolve("file" + j));
+        Files.createFile(nested.resolve("file" + j));
+      }
+    }
+    Files.createFile(tempDir.resolve("top.txt"));
+  }
+
+  @After
+  public void shutdown() {
+    FileUtils.deleteQuietly(tempDir.toFile());
+  }
+
+  @Test
+  public void testOrderIsTheOrderOfFilesWalkFileTree() throws Exception {
+    List<String> expected = new ArrayList<>();
+    Files.walkFileTree(tempDir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        expected.add("pre " + dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        expected.add("file " + file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+        expected.add("post " + dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    RecordingVisitor visitor = new RecordingVisitor();
+    WalkFileTree walker = walk(visitor);
+    Assert.assertEquals(expected, visitor.events);
+    Assert.assertEquals(1, visitor.ended);
+    Assert.assertEquals(DIRECTORIES * 2 + 1, walker.getProcessedDirs());
+    Assert.assertEquals(DIRECTORIES * FILES_PER_DIRECTORY * 2 + 1, walker.getProcessedFiles());
+  }
+
+  @Test
+  public void testDirectoryEntriesAreGivenBeforeTheirVisit() throws Exception {
+    RecordingVisitor visitor = new RecordingVisitor();
+    walk(visitor);
+    Path dir = tempDir.resolve("dir0");
+    List<Path> entries = visitor.entries.get(visitor.events.indexOf("pre " + dir));
+    Assert.assertEquals(FILES_PER_DIRECTORY + 1, entries.size());
+    Assert.assertTrue(entries.contains(dir.resolve("nested")));
+  }
+
+  @Test
+  public void testCancelStopsTheWalk() throws Exception {
+    RecordingVisitor visitor = new RecordingVisitor() {
+      @Override
+      public void visitFile(Path path, BasicFileAttributes attrs) {
+        super.visitFile(path, attrs);
+        if (countFiles() == 10) {
+          walker.cancel();
+        }
+      }
+    };
+    WalkFileTree walker = walk(visitor);
+    Assert.assertEquals(10, visitor.countFiles());
+    Assert.assertEquals(10, walker.getProcessedFiles());
+    Assert.assertEquals(1, visitor.ended);
+  }
+
+  @Test
+  public void testTerminateStopsTheWalk() throws Exception {
+    Path terminated = tempDir.resolve("dir1");
+    RecordingVisitor visitor = new RecordingVisitor() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+        super.preVisitDirectory(path, attrs);
+        return path.equals(terminated) ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+      }
+    };
+    walk(visitor);
+    Assert.assertEquals("pre " + terminated, visitor.events.get(visitor.events.size() - 1));
+    Assert.assertEquals(1, visitor.ended);
+  }
+
+  @Test
+  public void testSkippedDirectoryIsNotListed() throws Exception {
+    Path skipped = tempDir.resolve("dir2");
+    RecordingVisitor visitor = new RecordingVisitor() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+        super.preVisitDirectory(path, attrs);
+        return path.equals(skipped) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+      }
+    };
+    Set<Path> listed = ConcurrentHashMap.newKeySet();
+    WalkFileTree walker = new WalkFileTree(Collections.singleton(tempDir.toString()), visitor) {
+      @Override
+      DirectoryStream<Path> newDirectoryStream(Path dir) throws IOException {
+        listed.add(dir);
+        return super.newDirectoryStream(dir);
+      }
+    };
+    walk(walker, visitor);
+
+    Assert.assertFalse(listed.contains(skipped));
+    Assert.assertFalse(listed.contains(skipped.resolve("nested")));
+    Assert.assertEquals(DIRECTORIES * 2 - 1, listed.size());
+    // like Files.walkFileTree, a skipped directory isn't post visited
+    Assert.assertTrue(visitor.events.contains("pre " + skipped));
+    Assert.assertFalse(visitor.events.contains("post " + skipped));
+    Assert.assertFalse(visitor.events.contains("file " + skipped.resolve("file0")));
+    Assert.assertEquals(DIRECTORIES * 2 - 1, walker.getProcessedDirs());
+  }
+
+  private WalkFileTree walk(RecordingVisitor visitor) throws InterruptedException {
+    return walk(new WalkFileTree(Collections.singleton(tempDir.toString()), visitor), visitor);
+  }
+
+  private WalkFileTree walk(WalkFileTree walker, RecordingVisitor visitor) throws InterruptedException {
+    visitor.walker = walker;
+    walker.start();
+    walker.join();
+    return walker;
+  }
+
+  private static class RecordingVisitor implements TreeVisitor {
+    protected WalkFileTree walker;
+    private final List<String> events = new ArrayList<>();
+    // the entries given for each event, null for the events without them
+    private final List<List<Path>> entries = new ArrayList<>();
+    private int ended = 0;
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+      events.add("pre " + path);
+      entries.add(null);
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public void directoryEntries(Path path, List<Path> directoryEntries) {
+      entries.set(entries.size() - 1, directoryEntries);
+    }
+
+    @Override
+    public void postVisitDirectory(Path path) {
+      events.add("post " + path);
+      entries.add(null);
+    }
+
+    @Override
+    public void visitFile(Path path, BasicFileAttributes attrs) {
+      events.add("file " + path);
+      entries.add(null);
+    }
+
+    @Override
+    public void visitFileFailed(Path path) {
+      events.add("failed " + path);
+      entries.add(null);
+    }
+
+    @Override
+    public void end() {
+      ended++;
+    }
+
+    @Override
+    public String getId() {
+      return "recording";
+    }
+
+    @Override
+    public void setStartPath(String path) {
+      // not needed
+    }
+
+    int countFiles() {
+      int count = 0;
+      for (String event : events) {
+        if (event.startsWith("file ")) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+}
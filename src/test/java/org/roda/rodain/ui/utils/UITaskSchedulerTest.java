@@ -0,0 +1,131 @@
+package org.roda.rodain.ui.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a pending task is replaced by a newer one of the same owner and
+ * kind, and that the tasks of an owner run one at a time, in order, each after
+ * the result of the previous one was applied. A single thread stands for the
+ * JavaFX thread.
+ */
+public class UITaskSchedulerTest {
+  private static final long TIMEOUT = 10;
+
+  private ExecutorService fxThread;
+  private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setup() {
+    fxThread = Executors.newSingleThreadExecutor();
+    UITaskScheduler.setFxThread(fxThread::execute);
+  }
+
+  @After
+  public void shutdown() {
+    UITaskScheduler.setFxThread(null);
+    fxThread.shutdownNow();
+  }
+
+  @Test
+  public void testPendingTaskIsReplacedByANewerOne() throws Exception {
+    Object owner = new Object();
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    UITaskScheduler.submit(owner, "rescan", () -> {
+      release.await();
+      return "running";
+    }, result -> apply(result, done));
+
+    // the first one is running, the others wait and only the last one is kept
+    for (int i = 1; i <= 3; i++) {
+      String name = "pending" + i;
+      UITaskScheduler.submit(owner, "rescan", () -> name, result -> apply(result, done));
+    }
+    release.countDown();
+
+    Assert.assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    waitForFxThread();
+    Assert.assertEquals(Arrays.asList("apply running", "apply pending3"), events);
+  }
+
+  @Test
+  public void testTasksOfAnOwnerRunOneAtATimeInOrder() throws Exception {
+    Object owner = new Object();
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    List<String> kinds = Arrays.asList("first", "second", "third");
+    for (String kind : kinds) {
+      UITaskScheduler.submit(owner, kind, () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          events.add("run " + kind);
+          if ("first".equals(kind)) {
+            release.await();
+          }
+          return kind;
+        } finally {
+          running.decrementAndGet();
+        }
+      }, result -> apply(result, done));
+    }
+
+    // another owner doesn't wait for the first one
+    CountDownLatch other = new CountDownLatch(1);
+    UITaskScheduler.submit(new Object(), "first", () -> "other", result -> other.countDown());
+    Assert.assertTrue(other.await(TIMEOUT, TimeUnit.SECONDS));
+    release.countDown();
+
+    Assert.assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    waitForFxThread();
+    Assert.assertEquals(1, maxRunning.get());
+    // each task starts after the result of the previous one was applied
+    Assert.assertEquals(Arrays.asList("run first", "apply first", "run second", "apply second",
+      "run third", "apply third"), events);
+  }
+
+  @Test
+  public void testInputIsPreparedAfterThePreviousResult() throws Exception {
+    Object owner = new Object();
+    List<String> state = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(2);
+    for (String value : Arrays.asList("a", "b")) {
+      UITaskScheduler.submit(owner, value, () -> new ArrayList<>(state), copy -> {
+        copy.add(value);
+        return copy;
+      }, result -> {
+        state.clear();
+        state.addAll(result);
+        done.countDown();
+      });
+    }
+    Assert.assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    // the second task saw the result of the first one
+    Assert.assertEquals(Arrays.asList("a", "b"), state);
+  }
+
+  private void apply(String result, CountDownLatch done) {
+    events.add("apply " + result);
+    done.countDown();
+  }
+
+  private void waitForFxThread() throws Exception {
+    fxThread.submit(() -> {
+    }).get(TIMEOUT, TimeUnit.SECONDS);
+  }
+}